@@ -6,19 +6,82 @@ repositories {
     mavenCentral()
 }
 
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+
 dependencies {
     testImplementation("org.junit.jupiter:junit-jupiter-api:5.6.2")
     testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine")
+
+    "jmhImplementation"("org.openjdk.jmh:jmh-core:1.37")
+    "jmhAnnotationProcessor"("org.openjdk.jmh:jmh-generator-annprocess:1.37")
 }
 
 application {
     mainClass.set("com.aleciverson.alg.App")
 }
 
+// BatchEvaluator's VECTOR backend uses the incubating Vector API, which has to
+// be added explicitly both to compile and to run. Only the tests and
+// benchmarks select it, so `run` leaves it out rather than print the
+// incubator warning on every start.
+val vectorModule = "--add-modules=jdk.incubator.vector"
+
+tasks.withType<JavaCompile> {
+    options.compilerArgs.add(vectorModule)
+}
+
 tasks.test {
     useJUnitPlatform()
+    jvmArgs(vectorModule)
 }
 
 tasks.named<JavaExec>("run") {
     standardInput = System.`in`
 }
+
+val jmhResults = layout.buildDirectory.file("jmh/results.csv")
+val jmhBaseline = layout.projectDirectory.file("src/jmh/baseline.csv")
+
+tasks.register<JavaExec>("jmh") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks with the GC profiler. Filter with -Pjmh.include=<regex>."
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    // benchmarks read the scripts in examples/
+    workingDir = projectDir
+    outputs.file(jmhResults)
+    outputs.upToDateWhen { false }
+    // forks inherit it
+    jvmArgs(vectorModule)
+    doFirst { jmhResults.get().asFile.parentFile.mkdirs() }
+    args(
+        "-prof", "gc",
+        "-rf", "csv",
+        "-rff", jmhResults.get().asFile.path
+    )
+    if (project.hasProperty("jmh.include"))
+        args(project.property("jmh.include").toString())
+}
+
+tasks.register<JavaExec>("jmhCheck") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks and fails if any regressed past the stored baseline."
+    dependsOn("jmh")
+    classpath = jmh.runtimeClasspath
+    mainClass.set("com.aleciverson.alg.BaselineCheck")
+    args(jmhBaseline.asFile.path, jmhResults.get().asFile.path)
+    if (project.hasProperty("jmh.tolerance"))
+        args(project.property("jmh.tolerance").toString())
+}
+
+tasks.register<Copy>("jmhBaseline") {
+    group = "benchmark"
+    description = "Runs the JMH benchmarks and stores the results as the new baseline."
+    dependsOn("jmh")
+    from(jmhResults)
+    into(jmhBaseline.asFile.parentFile)
+    rename { jmhBaseline.asFile.name }
+}
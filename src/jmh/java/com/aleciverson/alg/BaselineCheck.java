@@ -0,0 +1,133 @@
+package com.aleciverson.alg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares JMH results against a stored baseline, both in JMH's CSV format, and
+ * exits non-zero if any benchmark got slower or allocates more by more than the
+ * tolerance.
+ *
+ * Only scores where lower is better are compared: average times and the GC
+ * profiler's normalized allocation rate (bytes per operation). Benchmarks
+ * missing from either file are reported but don't fail the check.
+ *
+ * usage: BaselineCheck baseline.csv results.csv [tolerance, default 0.10]
+ */
+public class BaselineCheck {
+  // allocation is measured per op, so allow for a little noise from JMH itself
+  private static final double ALLOCATION_SLACK = 16;
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: BaselineCheck baseline.csv results.csv [tolerance]");
+      System.exit(2);
+    }
+
+    Path baselinePath = Paths.get(args[0]);
+    if (!Files.exists(baselinePath)) {
+      System.err.println("no baseline at " + baselinePath + "; record one with ./gradlew jmhBaseline");
+      System.exit(2);
+    }
+
+    double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+
+    Map<String, Double> baseline = read(baselinePath);
+    Map<String, Double> results = read(Paths.get(args[1]));
+
+    int regressions = 0;
+    for (Map.Entry<String, Double> result : results.entrySet()) {
+      Double before = baseline.get(result.getKey());
+      if (before == null) {
+        System.out.printf("new       %s = %.3f\n", result.getKey(), result.getValue());
+        continue;
+      }
+
+      double after = result.getValue();
+      double limit = before * (1 + tolerance);
+      if (result.getKey().endsWith("gc.alloc.rate.norm"))
+        limit += ALLOCATION_SLACK;
+
+      boolean regressed = after > limit;
+      if (regressed)
+        ++regressions;
+
+      System.out.printf("%-9s %s: %.3f -> %.3f (%+.1f%%)\n", regressed ? "REGRESSED" : "ok", result.getKey(), before,
+          after, before == 0 ? 0 : (after - before) / before * 100);
+    }
+
+    for (String key : baseline.keySet()) {
+      if (!results.containsKey(key))
+        System.out.printf("missing   %s\n", key);
+    }
+
+    if (regressions > 0) {
+      System.err.printf("%d benchmark(s) regressed by more than %.0f%%\n", regressions, tolerance * 100);
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Reads the comparable scores from a JMH CSV file, keyed by benchmark name
+   * plus parameters.
+   */
+  private static Map<String, Double> read(Path path) throws IOException {
+    List<String> lines = Files.readAllLines(path);
+    Map<String, Double> scores = new LinkedHashMap<>();
+    if (lines.isEmpty())
+      return scores;
+
+    List<String> header = split(lines.get(0));
+    int benchmark = header.indexOf("Benchmark");
+    int mode = header.indexOf("Mode");
+    int score = header.indexOf("Score");
+
+    for (String line : lines.subList(1, lines.size())) {
+      if (line.isBlank())
+        continue;
+
+      List<String> fields = split(line);
+      String name = fields.get(benchmark);
+      // secondary results from profilers are named benchmark:metric
+      boolean primary = !name.contains(":");
+      if (primary ? !fields.get(mode).equals("avgt") : !name.endsWith("gc.alloc.rate.norm"))
+        continue;
+
+      StringBuilder key = new StringBuilder(name);
+      for (int i = 0; i < header.size(); ++i) {
+        if (header.get(i).startsWith("Param: ") && i < fields.size() && !fields.get(i).isEmpty())
+          key.append(' ').append(header.get(i).substring(7)).append('=').append(fields.get(i));
+      }
+
+      scores.put(key.toString(), Double.parseDouble(fields.get(score)));
+    }
+
+    return scores;
+  }
+
+  private static List<String> split(String line) {
+    List<String> fields = new ArrayList<>();
+    StringBuilder field = new StringBuilder();
+    boolean quoted = false;
+
+    for (int i = 0; i < line.length(); ++i) {
+      char ch = line.charAt(i);
+      if (ch == '"')
+        quoted = !quoted;
+      else if (ch == ',' && !quoted) {
+        fields.add(field.toString());
+        field.setLength(0);
+      } else
+        field.append(ch);
+    }
+
+    fields.add(field.toString());
+    return fields;
+  }
+}
@@ -0,0 +1,60 @@
+package com.aleciverson.alg;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs each script in examples/ over {@link #ROWS} rows of inputs per
+ * invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchEvaluatorBenchmark {
+  static final int ROWS = 64 * 1024;
+
+  @Param({ "circlePoint", "hypot", "lineq" })
+  public String script;
+
+  @Param({ "SCALAR", "VECTOR" })
+  public BatchEvaluator.Backend backend;
+
+  private BatchEvaluator batch;
+  private final Map<String, double[]> inputs = new HashMap<>();
+
+  @Setup
+  public void setup() throws IOException {
+    batch = new BatchEvaluator(InterpreterBenchmark.load(script), backend);
+    if (batch.getBackend() != backend)
+      throw new IllegalStateException("the Vector API isn't available");
+
+    for (String name : new String[] { "r", "theta", "x", "y" }) {
+      double[] column = new double[ROWS];
+      for (int i = 0; i < ROWS; ++i)
+        column[i] = 1 + (i * 31 + name.hashCode()) % 1000 / 8.0;
+      inputs.put(name, column);
+    }
+  }
+
+  @Benchmark
+  public Map<String, double[]> run() {
+    return batch.run(inputs);
+  }
+}
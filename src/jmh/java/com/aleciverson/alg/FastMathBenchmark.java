@@ -0,0 +1,96 @@
+package com.aleciverson.alg;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares each {@link FastMath} function with its {@link Math} counterpart
+ * over {@link #ROWS} random arguments per invocation, and the circlePoint
+ * example with and without {@link FastMathRewriter} on the batch evaluator.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FastMathBenchmark {
+  static final int ROWS = 64 * 1024;
+
+  @Param({ "false", "true" })
+  public boolean fast;
+
+  private final double[] angles = new double[ROWS];
+  private final double[] positives = new double[ROWS];
+  private final double[] exponents = new double[ROWS];
+  private BatchEvaluator batch;
+  private final Map<String, double[]> inputs = new HashMap<>();
+
+  @Setup
+  public void setup() throws IOException {
+    Random random = new Random(1);
+    for (int i = 0; i < ROWS; ++i) {
+      angles[i] = random.nextDouble() * 20 - 10;
+      positives[i] = random.nextDouble() * 100 + 0.01;
+      exponents[i] = random.nextDouble() * 6 - 3;
+    }
+
+    List<Statement> stmts = new Optimizer().optimize(InterpreterBenchmark.load("circlePoint"));
+    batch = new BatchEvaluator(fast ? new FastMathRewriter().rewrite(stmts) : stmts);
+    inputs.put("r", positives);
+    inputs.put("theta", angles);
+  }
+
+  @Benchmark
+  public double sin() {
+    double sum = 0;
+    for (double x : angles)
+      sum += fast ? FastMath.sin(x) : Math.sin(x);
+    return sum;
+  }
+
+  @Benchmark
+  public double cos() {
+    double sum = 0;
+    for (double x : angles)
+      sum += fast ? FastMath.cos(x) : Math.cos(x);
+    return sum;
+  }
+
+  @Benchmark
+  public double log10() {
+    double sum = 0;
+    for (double x : positives)
+      sum += fast ? FastMath.log10(x) : Math.log10(x);
+    return sum;
+  }
+
+  @Benchmark
+  public double pow() {
+    double sum = 0;
+    for (int i = 0; i < ROWS; ++i)
+      sum += fast ? FastMath.pow(positives[i], exponents[i]) : Math.pow(positives[i], exponents[i]);
+    return sum;
+  }
+
+  @Benchmark
+  public Map<String, double[]> runScript() {
+    return batch.run(inputs);
+  }
+}
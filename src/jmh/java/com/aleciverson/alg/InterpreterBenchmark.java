@@ -0,0 +1,93 @@
+package com.aleciverson.alg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs each script in examples/ once per invocation, on an interpreter that
+ * already has its inputs set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+  @Param({ "circlePoint", "hypot", "lineq" })
+  public String script;
+
+  @Param({ "TREE", "COMPILED", "VM" })
+  public Interpreter.Backend backend;
+
+  /**
+   * Whether {@link InterpreterStats} are attached. Without them, the cost
+   * should be indistinguishable from before instrumentation existed.
+   */
+  @Param({ "false", "true" })
+  public boolean instrumented;
+
+  private Interpreter interpreter;
+  private List<Statement> parsed;
+  private List<Statement> bound;
+
+  /**
+   * An environment with every input the example scripts read.
+   */
+  static Environment inputs() {
+    Environment env = new Environment(null);
+    env.set("r", 5);
+    env.set("theta", 30);
+    env.set("x", 3);
+    env.set("y", 4);
+    return env;
+  }
+
+  static List<Statement> load(String script) throws IOException {
+    return Parser.parse(Files.readAllLines(Paths.get("examples", script + ".alg")));
+  }
+
+  @Setup
+  public void setup() throws IOException {
+    interpreter = new Interpreter(inputs());
+    interpreter.setBackend(backend);
+    if (instrumented)
+      interpreter.setStats(new InterpreterStats());
+    parsed = load(script);
+    bound = interpreter.bind(parsed);
+  }
+
+  @Benchmark
+  public double runBound() {
+    double result = 0;
+    for (Statement stmt : bound)
+      result = interpreter.run(stmt);
+    return result;
+  }
+
+  /**
+   * Statements that were never bound are bound on every run.
+   */
+  @Benchmark
+  public double runUnbound() {
+    double result = 0;
+    for (Statement stmt : parsed)
+      result = interpreter.run(stmt);
+    return result;
+  }
+}
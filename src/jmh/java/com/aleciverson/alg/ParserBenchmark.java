@@ -0,0 +1,68 @@
+package com.aleciverson.alg;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+  @Param({ "short", "circle", "long", "nested" })
+  public String input;
+
+  private String line;
+
+  @Setup
+  public void setup() {
+    line = switch (input) {
+    case "short" -> "x = 5 + 2";
+    case "circle" -> "x = r * cos(theta)";
+    case "long" -> longSum(10_000);
+    case "nested" -> nested(500);
+    default -> throw new IllegalArgumentException(input);
+    };
+  }
+
+  /**
+   * A flat expression with many terms: x = a * 1 + a * 2 + ...
+   */
+  static String longSum(int terms) {
+    StringBuilder builder = new StringBuilder("x = a * 0");
+    for (int i = 1; i < terms; ++i)
+      builder.append(" + a * ").append(i).append(".5");
+    return builder.toString();
+  }
+
+  /**
+   * A deeply nested expression: x = sin(1 + (2 * (3 - ... ))).
+   */
+  static String nested(int depth) {
+    String[] ops = { " + ", " * ", " - ", " / " };
+    StringBuilder builder = new StringBuilder("x = ");
+    for (int i = 0; i < depth; ++i)
+      builder.append(i % 7 == 0 ? "sin(" : "(").append(i + 1).append(ops[i % ops.length]);
+    builder.append('a');
+    for (int i = 0; i < depth; ++i)
+      builder.append(')');
+    return builder.toString();
+  }
+
+  @Benchmark
+  public Statement parse() {
+    return Parser.parse(line);
+  }
+}
@@ -4,27 +4,111 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 public class App {
+  private static final int REPL_CACHE_ENTRIES = 1024;
+  private static final long REPL_CACHE_WEIGHT = 64 * 1024;
+  // how many of BatchEvaluator's chunks to read from a dataset at once
+  private static final int DATASET_CHUNKS = 16;
+
   public static void main(String[] args) {
     try {
       if (args == null || args.length == 0) {
         repl();
+      } else if (args[0].equals("compile")) {
+        if (args.length != 3)
+          throw new IllegalArgumentException("usage: compile <script> <output>");
+        compile(args[1], args[2]);
+      } else if (args[0].equals("serve")) {
+        if (args.length != 2)
+          throw new IllegalArgumentException("usage: serve <port | socket path>");
+        serve(args[1]);
       } else {
+        boolean stream = false;
+        boolean fastMath = false;
+        ResultWriter.Format format = ResultWriter.Format.TEXT;
+        List<String> gradient = List.of();
+        String input = null;
+        List<String> columns = null;
+
+        int fileArg = 0;
+        for (; fileArg < args.length && args[fileArg].startsWith("--"); ++fileArg) {
+          String option = args[fileArg];
+          if (option.equals("--stream"))
+            stream = true;
+          else if (option.equals("--fast-math"))
+            fastMath = true;
+          else if (option.startsWith("--format="))
+            format = ResultWriter.Format.valueOf(option.substring("--format=".length()).toUpperCase());
+          else if (option.startsWith("--gradient="))
+            gradient = List.of(option.substring("--gradient=".length()).split(","));
+          else if (option.startsWith("--input="))
+            input = option.substring("--input=".length());
+          else if (option.startsWith("--columns="))
+            columns = List.of(option.substring("--columns=".length()).split(","));
+          else
+            throw new IllegalArgumentException("unknown option '" + option + "'");
+        }
+
+        if (fileArg >= args.length)
+          throw new IllegalArgumentException("missing script file");
+        if (!gradient.isEmpty() && (stream || args[fileArg].equals("-")))
+          throw new IllegalArgumentException("--gradient needs the whole script, so can't be streamed");
+        if (input != null && (stream || args[fileArg].equals("-")))
+          throw new IllegalArgumentException("--input runs the whole script per row, so can't be streamed");
+        if (columns != null && input == null)
+          throw new IllegalArgumentException("--columns names the columns of a binary --input");
+
         Environment env = new Environment(null);
+        List<Sweep.Range> ranges = new ArrayList<>();
 
-        if (args.length > 1) {
-          Arrays.stream(args, 1, args.length).forEach(s -> {
+        if (args.length > fileArg + 1) {
+          Arrays.stream(args, fileArg + 1, args.length).forEach(s -> {
             String[] comps = s.split("=");
-            env.set(comps[0], Double.parseDouble(comps[1]));
+            // the optimizer folds constants, so an override would be ignored
+            if (Environment.CONSTANTS.containsKey(comps[0]))
+              throw new AssignConstantException(comps[0]);
+            if (Sweep.Range.isRange(comps[1]))
+              ranges.add(Sweep.Range.parse(comps[0], comps[1]));
+            else
+              env.set(comps[0], Double.parseDouble(comps[1]));
           });
         }
+        if (!ranges.isEmpty() && (stream || input != null || args[fileArg].equals("-")))
+          throw new IllegalArgumentException(
+              "ranges run the whole script per point, so can't be streamed or given --input");
 
-        runFile(args[0], env);
+        ResultWriter out = new ResultWriter(System.out, format);
+        try {
+          String file = args[fileArg];
+          if (file.equals("-")) {
+            runStream(ScriptReader.stdin(), env, out, fastMath);
+          } else if (input != null) {
+            try (DatasetReader reader = columns != null
+                ? DatasetReader.binary(Paths.get(input), columns)
+                : DatasetReader.csv(Paths.get(input))) {
+              runDataset(load(file, gradient, fastMath), reader, env, out);
+            }
+          } else if (!ranges.isEmpty()) {
+            new Sweep(load(file, gradient, fastMath), ranges).run(env, out, ForkJoinPool.commonPool());
+          } else if (stream) {
+            try (ScriptReader reader = ScriptReader.open(Paths.get(file))) {
+              runStream(reader, env, out, fastMath);
+            }
+          } else {
+            runFile(file, env, out, gradient, fastMath);
+          }
+        } finally {
+          out.flush();
+        }
       }
     } catch (Exception e) {
       System.err.println("Error: " + e.toString());
@@ -37,6 +121,9 @@ public class App {
     BufferedReader reader = new BufferedReader(input);
 
     Interpreter interpreter = new Interpreter(new Environment(null));
+    interpreter.setStats(new InterpreterStats());
+    StatementCache cache = new StatementCache(REPL_CACHE_ENTRIES, REPL_CACHE_WEIGHT);
+    ResultWriter out = new ResultWriter(System.out, ResultWriter.Format.TEXT);
 
     while (true) {
       System.out.print("> ");
@@ -50,21 +137,28 @@ public class App {
 
       case "env":
         for (Map.Entry<String, Double> var : interpreter.getEnvironment())
-          printVar(var.getKey(), var.getValue());
+          out.write(var.getKey(), var.getValue());
+        out.flush();
+        break;
+
+      case "stats":
+        printStats(interpreter.getStats().snapshot(), cache);
         break;
 
       case "help":
         System.out.println("commands:");
         System.out.println("\tenv - print all existing variables and its value");
+        System.out.println("\tstats - print how often each statement ran and for how long");
         System.out.println("\thelp - print this message");
         System.out.println("\texit - exit the interative repl");
         break;
 
       default:
         try {
-          Statement stmt = Parser.parse(line);
+          Statement stmt = cache.get(line);
           double result = interpreter.run(stmt);
-          printVar(stmt.outputVariable(), result);
+          out.write(stmt.outputVariable(), result);
+          out.flush();
         } catch (AssignConstantException | InvalidExpressionException | UnexpectedTokenException
             | UnknownVariableException e) {
           System.out.println(e.toString());
@@ -74,19 +168,210 @@ public class App {
     }
   }
 
+  private static void printStats(InterpreterStats.Snapshot stats, StatementCache cache) {
+    System.out.printf("cache: %d hits, %d misses, %d evictions, %d entries\n", cache.hits(), cache.misses(),
+        cache.evictions(), cache.size());
+    for (InterpreterStats.StatementStats stmt : stats.statements())
+      System.out.printf("%s: %d runs, %d ns\n", stmt.variable(), stmt.invocations(), stmt.nanos());
+
+    StringBuilder nodes = new StringBuilder("nodes:");
+    stats.nodeCounts().forEach((type, count) -> nodes.append(' ').append(type).append('=').append(count));
+    System.out.println(nodes);
+  }
+
   public static void runFile(String file, Environment env) throws IOException {
-    List<String> lines = Files.readAllLines(Paths.get(file));
-    List<Statement> stmts = Parser.parse(lines);
+    ResultWriter out = new ResultWriter(System.out, ResultWriter.Format.TEXT);
+    runFile(file, env, out);
+    out.flush();
+  }
 
-    Interpreter interpreter = new Interpreter(env);
+  /**
+   * Runs a whole script, from source or compiled, at once, with independent
+   * statements run in parallel when they're expensive enough. Results are
+   * written once the script is done, in script order, and every variable it
+   * assigns is set in the environment.
+   *
+   * If a statement fails, the results of those before it are still written
+   * and set, as if the statements had run one at a time.
+   */
+  public static void runFile(String file, Environment env, ResultWriter out) throws IOException {
+    runFile(file, env, out, List.of());
+  }
+
+  /**
+   * Runs a whole script as above, also writing the partial derivative of
+   * every variable it assigns with respect to each of the given variables.
+   */
+  public static void runFile(String file, Environment env, ResultWriter out, List<String> gradient)
+      throws IOException {
+    runFile(file, env, out, gradient, false);
+  }
+
+  /**
+   * Runs a whole script as above, with {@code sin}, {@code cos}, {@code log}
+   * and {@code ^} approximated by {@link FastMath} if asked to.
+   */
+  public static void runFile(String file, Environment env, ResultWriter out, List<String> gradient, boolean fastMath)
+      throws IOException {
+    List<Statement> stmts = load(file, gradient, fastMath);
 
-    for (Statement stmt : stmts) {
-      double result = interpreter.run(stmt);
-      printVar(stmt.outputVariable(), result);
+    Script script = new Script(stmts);
+    Environment scriptEnv = script.newEnvironment();
+    for (Map.Entry<String, Double> var : env)
+      scriptEnv.set(var.getKey(), var.getValue());
+
+    double[] results = new double[stmts.size()];
+    try {
+      script.run(scriptEnv, results, ForkJoinPool.commonPool());
+    } catch (RuntimeException e) {
+      // statements after the failing one may have run too, so run them again
+      // in order to find it, writing each result as it's computed
+      Interpreter interpreter = new Interpreter(env);
+      for (Statement stmt : stmts) {
+        double result = interpreter.run(stmt);
+        if (!stmt.isTemporary())
+          out.write(stmt.outputVariable(), result);
+      }
+      throw e;
+    }
+
+    for (int i = 0; i < stmts.size(); ++i) {
+      Statement stmt = stmts.get(i);
+      if (!stmt.isTemporary()) {
+        out.write(stmt.outputVariable(), results[i]);
+        env.set(stmt.outputVariable(), results[i]);
+      }
     }
   }
 
-  private static void printVar(String var, double value) {
-    System.out.printf("%s = %f\n", var, value);
+  /**
+   * Runs a script once per row of a dataset, writing the final value of every
+   * variable it assigns, other than temporaries, after each row. Variables
+   * set in the environment are the same for every row; the dataset's columns
+   * take precedence.
+   */
+  public static void runDataset(List<Statement> stmts, DatasetReader input, Environment env, ResultWriter out)
+      throws IOException {
+    int batch = BatchEvaluator.CHUNK_SIZE * DATASET_CHUNKS;
+    BatchEvaluator evaluator = new BatchEvaluator(stmts);
+
+    List<String> names = input.columns();
+    double[][] columns = new double[names.size()][batch];
+    Map<String, double[]> inputs = new LinkedHashMap<>();
+    for (Map.Entry<String, Double> var : env) {
+      if (!Environment.CONSTANTS.containsKey(var.getKey())) {
+        double[] column = new double[batch];
+        Arrays.fill(column, var.getValue());
+        inputs.put(var.getKey(), column);
+      }
+    }
+    for (int i = 0; i < names.size(); ++i)
+      inputs.put(names.get(i), columns[i]);
+
+    while (true) {
+      int rows = input.read(columns, batch);
+      if (rows == 0)
+        break;
+      // only the last block is short
+      if (rows < batch)
+        inputs.replaceAll((name, column) -> Arrays.copyOf(column, rows));
+
+      Map<String, double[]> results = evaluator.run(inputs);
+      List<Map.Entry<String, double[]>> outputs = List.copyOf(results.entrySet());
+      for (int row = 0; row < rows; ++row) {
+        for (Map.Entry<String, double[]> output : outputs)
+          out.write(output.getKey(), output.getValue()[row]);
+      }
+    }
+  }
+
+  /**
+   * Parses and optimizes a script, or loads it if it's already compiled,
+   * differentiates it with respect to the given variables, if any, and swaps
+   * in the fast math approximations if asked to.
+   */
+  private static List<Statement> load(String file, List<String> gradient, boolean fastMath) throws IOException {
+    Path path = Paths.get(file);
+    if (ScriptFile.isScriptFile(path)) {
+      List<Statement> stmts = ScriptFile.read(path);
+      // it already has temporaries, so subexpressions of the derivatives
+      // can't be eliminated without clashing with them
+      if (!gradient.isEmpty())
+        stmts = Differentiator.gradient(stmts, gradient);
+      return fastMath ? new FastMathRewriter().rewrite(stmts) : stmts;
+    }
+
+    List<String> lines = Files.readAllLines(path);
+    List<Statement> stmts = new Optimizer().optimize(Parser.parse(lines));
+    if (!gradient.isEmpty())
+      stmts = Differentiator.gradient(stmts, gradient);
+    if (fastMath)
+      stmts = new FastMathRewriter().rewrite(stmts);
+    return new SubexpressionEliminator().eliminate(stmts);
+  }
+
+  /**
+   * Serves requests until killed, on a TCP port on the loopback address if
+   * given a number, otherwise on a Unix domain socket at the given path.
+   */
+  public static void serve(String address) throws IOException {
+    Server server = address.chars().allMatch(Character::isDigit)
+        ? Server.tcp(Integer.parseInt(address))
+        : Server.unix(Paths.get(address));
+    try {
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+        try {
+          server.close();
+        } catch (IOException e) {
+          // exiting anyway
+        }
+      }));
+
+      System.err.println("listening on " + server.address());
+      server.serve();
+    } finally {
+      server.close();
+    }
+  }
+
+  /**
+   * Parses and optimizes a script once and saves the result, which later runs
+   * load instead of parsing again.
+   */
+  public static void compile(String file, String output) throws IOException {
+    ScriptFile.write(load(file, List.of(), false), Paths.get(output));
+  }
+
+  /**
+   * Runs statements as they're read. Output is flushed whenever the reader
+   * waits for more input, so results keep up with a slow pipe.
+   *
+   * Each statement is optimized on its own; subexpressions shared between
+   * statements are only eliminated by {@link #runFile}, which sees the whole
+   * script.
+   */
+  public static void runStream(ScriptReader reader, Environment env, ResultWriter out) throws IOException {
+    runStream(reader, env, out, false);
+  }
+
+  /**
+   * Streams statements as above, with {@code sin}, {@code cos}, {@code log}
+   * and {@code ^} approximated by {@link FastMath} if asked to.
+   */
+  public static void runStream(ScriptReader reader, Environment env, ResultWriter out, boolean fastMath)
+      throws IOException {
+    Interpreter interpreter = new Interpreter(env);
+    Optimizer optimizer = new Optimizer();
+    FastMathRewriter rewriter = fastMath ? new FastMathRewriter() : null;
+    reader.flushBeforeRead(out);
+
+    Statement stmt;
+    while ((stmt = reader.next()) != null) {
+      Statement optimized = optimizer.optimize(stmt);
+      if (rewriter != null)
+        optimized = rewriter.rewrite(optimized);
+      double result = interpreter.run(optimized);
+      out.write(stmt.outputVariable(), result);
+    }
   }
 }
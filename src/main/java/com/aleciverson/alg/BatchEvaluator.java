@@ -0,0 +1,311 @@
+package com.aleciverson.alg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a script over many rows of input at once. Inputs and outputs are
+ * columns, one {@code double[]} per variable, and every expression node is
+ * evaluated as a loop over a chunk of rows rather than once per row.
+ *
+ * With the {@link Backend#SCALAR} backend the loops are left for the JIT to
+ * vectorize, which it does for the arithmetic but not for calls to
+ * {@link Math}. The {@link Backend#VECTOR} backend writes every loop with the
+ * Vector API instead. Rows are processed in chunks of {@link #CHUNK_SIZE} so
+ * the intermediate columns stay in cache no matter how many rows there are.
+ */
+public class BatchEvaluator {
+  public static final int CHUNK_SIZE = 1024;
+
+  /**
+   * How each node's loop is run.
+   */
+  public enum Backend {
+    /** Plain loops over each column. */
+    SCALAR,
+    /**
+     * Loops written with the incubating Vector API, which the JVM only
+     * provides when started with {@code --add-modules jdk.incubator.vector}.
+     * Results of {@code ^} and the builtin functions may differ from
+     * {@link Math}'s, and so from the other backends, by an ulp or so.
+     */
+    VECTOR,
+  }
+
+  // checked here rather than in VectorKernels, which can't even be loaded
+  // without the module
+  private static final boolean VECTOR_AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+  private final SlotLayout layout = new SlotLayout();
+  private final List<Statement> statements = new ArrayList<>();
+  private final Backend backend;
+
+  public BatchEvaluator(List<Statement> stmts) {
+    this(stmts, Backend.SCALAR);
+  }
+
+  /**
+   * Uses the given backend, falling back to {@link Backend#SCALAR} if the
+   * Vector API isn't available.
+   */
+  public BatchEvaluator(List<Statement> stmts, Backend backend) {
+    this.backend = backend == Backend.VECTOR && !VECTOR_AVAILABLE ? Backend.SCALAR : backend;
+
+    // constants take the first slots, just like in an Environment
+    for (String constant : Environment.CONSTANTS.keySet())
+      layout.define(constant);
+
+    for (Statement stmt : stmts)
+      statements.add(stmt.bind(layout));
+  }
+
+  /**
+   * The backend actually in use.
+   */
+  public Backend getBackend() {
+    return backend;
+  }
+
+  /**
+   * Evaluates the script once per row. Every input column must have the same
+   * length. Returns the final value of every variable the script assigns,
+   * other than temporaries, in the order they are first assigned.
+   */
+  public Map<String, double[]> run(Map<String, double[]> inputs) {
+    int rows = -1;
+    for (Map.Entry<String, double[]> input : inputs.entrySet()) {
+      if (rows == -1)
+        rows = input.getValue().length;
+      else if (input.getValue().length != rows)
+        throw new IllegalArgumentException(
+            String.format("input '%s' has %d rows, expected %d", input.getKey(), input.getValue().length, rows));
+    }
+    if (rows == -1)
+      rows = 0;
+
+    ColumnKernels kernels = backend == Backend.VECTOR ? new VectorKernels() : ColumnKernels.Scalar.INSTANCE;
+    Chunk chunk = new Chunk(kernels, layout.size());
+
+    // inputs may reference names the script never uses, so look them up rather
+    // than defining them
+    double[][] inputColumns = new double[layout.size()][];
+    for (Map.Entry<String, double[]> input : inputs.entrySet()) {
+      int slot = layout.slotOf(input.getKey());
+      if (slot != -1)
+        inputColumns[slot] = input.getValue();
+    }
+
+    Map<String, double[]> outputs = new LinkedHashMap<>();
+    double[][] outputColumns = new double[layout.size()][];
+    for (Statement stmt : statements) {
+      int slot = stmt.outputSlot();
+      if (outputColumns[slot] == null && !stmt.isTemporary()) {
+        outputColumns[slot] = new double[rows];
+        outputs.put(stmt.outputVariable(), outputColumns[slot]);
+      }
+    }
+
+    for (int start = 0; start < rows; start += CHUNK_SIZE) {
+      int length = Math.min(CHUNK_SIZE, rows - start);
+      chunk.reset(length);
+
+      Environment.CONSTANTS.forEach((name, value) -> chunk.fill(layout.slotOf(name), value));
+
+      for (int slot = 0; slot < inputColumns.length; ++slot) {
+        if (inputColumns[slot] != null)
+          chunk.load(slot, inputColumns[slot], start);
+      }
+
+      for (Statement stmt : statements)
+        chunk.run(stmt);
+
+      for (int slot = 0; slot < outputColumns.length; ++slot) {
+        if (outputColumns[slot] != null)
+          chunk.store(slot, outputColumns[slot], start);
+      }
+    }
+
+    return outputs;
+  }
+
+  /**
+   * The variable columns and scratch buffers for one chunk of rows. Each node
+   * returns the column holding its result: either a variable's column, which
+   * must not be written to, or a scratch buffer it now owns.
+   */
+  private static class Chunk implements Expression.Visitor<double[]> {
+    private final ColumnKernels kernels;
+    private final double[][] columns;
+    private final boolean[] defined;
+    private final List<double[]> scratch = new ArrayList<>();
+    private final Deque<double[]> free = new ArrayDeque<>();
+    private int length;
+
+    Chunk(ColumnKernels kernels, int slots) {
+      this.kernels = kernels;
+      columns = new double[slots][CHUNK_SIZE];
+      defined = new boolean[slots];
+    }
+
+    void reset(int length) {
+      this.length = length;
+      Arrays.fill(defined, false);
+    }
+
+    void fill(int slot, double value) {
+      Arrays.fill(columns[slot], 0, length, value);
+      defined[slot] = true;
+    }
+
+    void load(int slot, double[] source, int start) {
+      System.arraycopy(source, start, columns[slot], 0, length);
+      defined[slot] = true;
+    }
+
+    void store(int slot, double[] dest, int start) {
+      System.arraycopy(columns[slot], 0, dest, start, length);
+    }
+
+    void run(Statement stmt) {
+      double[] result = stmt.expression().accept(this);
+      int slot = stmt.outputSlot();
+
+      if (result != columns[slot])
+        System.arraycopy(result, 0, columns[slot], 0, length);
+      defined[slot] = true;
+
+      release(result);
+    }
+
+    private double[] acquire() {
+      double[] buffer = free.poll();
+      if (buffer == null) {
+        buffer = new double[CHUNK_SIZE];
+        scratch.add(buffer);
+      }
+      return buffer;
+    }
+
+    private boolean isScratch(double[] buffer) {
+      for (double[] owned : scratch) {
+        if (owned == buffer)
+          return true;
+      }
+      return false;
+    }
+
+    private void release(double[] buffer) {
+      if (isScratch(buffer))
+        free.push(buffer);
+    }
+
+    /**
+     * Picks the buffer for a binary node's result, reusing an operand's scratch
+     * buffer when possible since each element is read before it's written.
+     */
+    private double[] target(double[] lhs, double[] rhs) {
+      if (isScratch(lhs)) {
+        if (rhs != lhs)
+          release(rhs);
+        return lhs;
+      } else if (isScratch(rhs)) {
+        return rhs;
+      } else {
+        return acquire();
+      }
+    }
+
+    private double[] target(double[] arg) {
+      return isScratch(arg) ? arg : acquire();
+    }
+
+    @Override
+    public double[] visitValue(Expression.Value expr) {
+      double[] out = acquire();
+      Arrays.fill(out, 0, length, expr.constant());
+      return out;
+    }
+
+    @Override
+    public double[] visitVariable(Expression.Variable expr) {
+      if (!defined[expr.slot()])
+        throw new UnknownVariableException(expr.name());
+      return columns[expr.slot()];
+    }
+
+    @Override
+    public double[] visitAddition(Expression.Addition expr) {
+      double[] lhs = expr.lhs().accept(this);
+      double[] rhs = expr.rhs().accept(this);
+      double[] out = target(lhs, rhs);
+      kernels.add(lhs, rhs, out, length);
+      return out;
+    }
+
+    @Override
+    public double[] visitSubtraction(Expression.Subtraction expr) {
+      double[] lhs = expr.lhs().accept(this);
+      double[] rhs = expr.rhs().accept(this);
+      double[] out = target(lhs, rhs);
+      kernels.subtract(lhs, rhs, out, length);
+      return out;
+    }
+
+    @Override
+    public double[] visitMultiplication(Expression.Multiplication expr) {
+      double[] lhs = expr.lhs().accept(this);
+      double[] rhs = expr.rhs().accept(this);
+      double[] out = target(lhs, rhs);
+      kernels.multiply(lhs, rhs, out, length);
+      return out;
+    }
+
+    @Override
+    public double[] visitDivision(Expression.Division expr) {
+      double[] lhs = expr.lhs().accept(this);
+      double[] rhs = expr.rhs().accept(this);
+      double[] out = target(lhs, rhs);
+      kernels.divide(lhs, rhs, out, length);
+      return out;
+    }
+
+    @Override
+    public double[] visitPower(Expression.Power expr) {
+      double[] lhs = expr.lhs().accept(this);
+      double[] rhs = expr.rhs().accept(this);
+      double[] out = target(lhs, rhs);
+      kernels.power(lhs, rhs, out, length);
+      return out;
+    }
+
+    @Override
+    public double[] visitNegative(Expression.Negative expr) {
+      double[] rhs = expr.rhs().accept(this);
+      double[] out = target(rhs);
+      kernels.negate(rhs, out, length);
+      return out;
+    }
+
+    @Override
+    public double[] visitBuiltinCall(Expression.BuiltinCall expr) {
+      double[] arg = expr.argument().accept(this);
+      double[] out = target(arg);
+      kernels.call(expr, arg, out, length);
+      return out;
+    }
+
+    @Override
+    public double[] visitBinaryCall(Expression.BinaryCall expr) {
+      double[] lhs = expr.lhs().accept(this);
+      double[] rhs = expr.rhs().accept(this);
+      double[] out = target(lhs, rhs);
+      kernels.call(expr, lhs, rhs, out, length);
+      return out;
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.aleciverson.alg;
+
+/**
+ * The loops {@link BatchEvaluator} runs for each node, over the first length
+ * elements of its columns. The output may be one of the inputs.
+ */
+interface ColumnKernels {
+  void add(double[] lhs, double[] rhs, double[] out, int length);
+
+  void subtract(double[] lhs, double[] rhs, double[] out, int length);
+
+  void multiply(double[] lhs, double[] rhs, double[] out, int length);
+
+  void divide(double[] lhs, double[] rhs, double[] out, int length);
+
+  void power(double[] lhs, double[] rhs, double[] out, int length);
+
+  void negate(double[] arg, double[] out, int length);
+
+  void call(Expression.BuiltinCall func, double[] arg, double[] out, int length);
+
+  void call(Expression.BinaryCall func, double[] lhs, double[] rhs, double[] out, int length);
+
+  /**
+   * Plain loops, left for the JIT to vectorize if it can.
+   */
+  class Scalar implements ColumnKernels {
+    static final Scalar INSTANCE = new Scalar();
+
+    @Override
+    public void add(double[] lhs, double[] rhs, double[] out, int length) {
+      for (int i = 0; i < length; ++i)
+        out[i] = lhs[i] + rhs[i];
+    }
+
+    @Override
+    public void subtract(double[] lhs, double[] rhs, double[] out, int length) {
+      for (int i = 0; i < length; ++i)
+        out[i] = lhs[i] - rhs[i];
+    }
+
+    @Override
+    public void multiply(double[] lhs, double[] rhs, double[] out, int length) {
+      for (int i = 0; i < length; ++i)
+        out[i] = lhs[i] * rhs[i];
+    }
+
+    @Override
+    public void divide(double[] lhs, double[] rhs, double[] out, int length) {
+      for (int i = 0; i < length; ++i)
+        out[i] = lhs[i] / rhs[i];
+    }
+
+    @Override
+    public void power(double[] lhs, double[] rhs, double[] out, int length) {
+      for (int i = 0; i < length; ++i)
+        out[i] = Math.pow(lhs[i], rhs[i]);
+    }
+
+    @Override
+    public void negate(double[] arg, double[] out, int length) {
+      for (int i = 0; i < length; ++i)
+        out[i] = -arg[i];
+    }
+
+    @Override
+    public void call(Expression.BuiltinCall func, double[] arg, double[] out, int length) {
+      for (int i = 0; i < length; ++i)
+        out[i] = func.apply(arg[i]);
+    }
+
+    @Override
+    public void call(Expression.BinaryCall func, double[] lhs, double[] rhs, double[] out, int length) {
+      for (int i = 0; i < length; ++i)
+        out[i] = func.apply(lhs[i], rhs[i]);
+    }
+  }
+}
@@ -0,0 +1,33 @@
+package com.aleciverson.alg;
+
+/**
+ * A statement compiled by {@link ExpressionCompiler}. The generated code reads
+ * slots directly, so the variables it reads are checked up front to keep the
+ * same unknown variable errors as the tree walker.
+ */
+class CompiledStatement {
+  private final Statement statement;
+  private final ExpressionCompiler.Compiled code;
+  private final int[] readSlots;
+  private final String[] readNames;
+
+  CompiledStatement(Statement statement, ExpressionCompiler.Compiled code, int[] readSlots, String[] readNames) {
+    this.statement = statement;
+    this.code = code;
+    this.readSlots = readSlots;
+    this.readNames = readNames;
+  }
+
+  public Statement statement() {
+    return statement;
+  }
+
+  public double resolve(Environment env) {
+    for (int i = 0; i < readSlots.length; ++i) {
+      if (!env.isDefined(readSlots[i]))
+        throw new UnknownVariableException(readNames[i]);
+    }
+
+    return code.evaluate(env.slots());
+  }
+}
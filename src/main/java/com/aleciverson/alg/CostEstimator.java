@@ -0,0 +1,66 @@
+package com.aleciverson.alg;
+
+/**
+ * Roughly estimates how long an expression takes to evaluate, in units of one
+ * arithmetic node. Powers and built-in functions call into {@link Math}, which
+ * costs far more than arithmetic.
+ */
+class CostEstimator implements Expression.Visitor<Integer> {
+  static final int ARITHMETIC = 1;
+  static final int POWER = 20;
+  static final int BUILTIN = 20;
+
+  public static int estimate(Expression expr) {
+    return expr.accept(new CostEstimator());
+  }
+
+  @Override
+  public Integer visitValue(Expression.Value expr) {
+    return ARITHMETIC;
+  }
+
+  @Override
+  public Integer visitVariable(Expression.Variable expr) {
+    return ARITHMETIC;
+  }
+
+  @Override
+  public Integer visitAddition(Expression.Addition expr) {
+    return ARITHMETIC + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitSubtraction(Expression.Subtraction expr) {
+    return ARITHMETIC + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitMultiplication(Expression.Multiplication expr) {
+    return ARITHMETIC + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitDivision(Expression.Division expr) {
+    return ARITHMETIC + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitPower(Expression.Power expr) {
+    return POWER + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitNegative(Expression.Negative expr) {
+    return ARITHMETIC + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitBuiltinCall(Expression.BuiltinCall expr) {
+    return BUILTIN + expr.argument().accept(this);
+  }
+
+  @Override
+  public Integer visitBinaryCall(Expression.BinaryCall expr) {
+    return BUILTIN + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+}
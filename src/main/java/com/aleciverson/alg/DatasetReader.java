@@ -0,0 +1,376 @@
+package com.aleciverson.alg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads rows of input variables from a memory-mapped file, a block of rows at
+ * a time, into columns.
+ *
+ * A CSV file starts with a header row naming its columns, and every other row
+ * holds one number per column. Numbers are parsed straight from the mapped
+ * bytes, without making a string of each; only numbers with more than 15
+ * significant digits, or exponents beyond 10^22, are handed to
+ * {@link Double#parseDouble}. A binary file is rows of little-endian IEEE 754
+ * doubles, one per column, with the column names given separately: the
+ * format {@link ResultWriter.Format#BINARY} writes.
+ *
+ * Files are mapped a window at a time, so they can be larger than the address
+ * space allows mapping at once.
+ */
+public class DatasetReader implements Closeable {
+  private static final long WINDOW_SIZE = 1L << 30;
+  private static final int MAX_FAST_DIGITS = 15;
+  // returned in place of where the next line starts
+  private static final int PAST_WINDOW = -1;
+  private static final int NOT_BLANK = -2;
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22,
+  };
+
+  private final String file;
+  private final FileChannel channel;
+  private final long fileSize;
+  private final boolean binary;
+  private final List<String> columns;
+
+  private MappedByteBuffer window;
+  // where the window starts in the file, and how far into it reading has got
+  private long windowStart;
+  private int position;
+  private long line;
+
+  private DatasetReader(Path path, boolean binary, List<String> columns) throws IOException {
+    this.file = path.toString();
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.fileSize = channel.size();
+    this.binary = binary;
+    this.columns = columns;
+  }
+
+  /**
+   * Opens a CSV file and reads its header.
+   */
+  public static DatasetReader csv(Path path) throws IOException {
+    DatasetReader reader = new DatasetReader(path, false, new ArrayList<>());
+    try {
+      reader.map(0);
+      reader.readHeader();
+    } catch (RuntimeException | IOException e) {
+      reader.close();
+      throw e;
+    }
+    return reader;
+  }
+
+  /**
+   * Opens a binary file of rows of the given columns.
+   */
+  public static DatasetReader binary(Path path, List<String> columns) throws IOException {
+    if (columns.isEmpty())
+      throw new IllegalArgumentException("a binary dataset needs at least one column");
+
+    DatasetReader reader = new DatasetReader(path, true, List.copyOf(columns));
+    long rowSize = (long) Double.BYTES * columns.size();
+    if (reader.fileSize % rowSize != 0) {
+      reader.close();
+      throw new InvalidDatasetException(reader.file,
+          String.format("%d bytes isn't a whole number of rows of %d columns", reader.fileSize, columns.size()));
+    }
+    reader.map(0);
+    return reader;
+  }
+
+  /**
+   * The names of the columns, in the order they're read.
+   */
+  public List<String> columns() {
+    return columns;
+  }
+
+  /**
+   * Reads up to {@code maxRows} rows into the given columns, one array per
+   * column, each at least {@code maxRows} long. Returns how many rows were
+   * read, which is only less than {@code maxRows} at the end of the file.
+   */
+  public int read(double[][] out, int maxRows) throws IOException {
+    if (out.length != columns.size())
+      throw new IllegalArgumentException(String.format("expected %d columns, got %d", columns.size(), out.length));
+
+    return binary ? readBinary(out, maxRows) : readCsv(out, maxRows);
+  }
+
+  @Override
+  public void close() throws IOException {
+    window = null;
+    channel.close();
+  }
+
+  private void map(long start) throws IOException {
+    windowStart = start;
+    position = 0;
+
+    long size = Math.min(WINDOW_SIZE, fileSize - start);
+    if (binary) {
+      long rowSize = (long) Double.BYTES * columns.size();
+      size = Math.max(rowSize, size / rowSize * rowSize);
+      size = Math.min(size, fileSize - start);
+    }
+
+    window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+    window.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private boolean windowIsLast() {
+    return windowStart + window.limit() >= fileSize;
+  }
+
+  private int readBinary(double[][] out, int maxRows) throws IOException {
+    int width = columns.size();
+    int rows = 0;
+
+    while (rows < maxRows) {
+      if (position == window.limit()) {
+        if (windowIsLast())
+          break;
+        map(windowStart + position);
+      }
+
+      MappedByteBuffer bytes = window;
+      int available = (bytes.limit() - position) / (Double.BYTES * width);
+      int count = Math.min(available, maxRows - rows);
+      int at = position;
+      for (int row = rows; row < rows + count; ++row) {
+        for (int column = 0; column < width; ++column) {
+          out[column][row] = bytes.getDouble(at);
+          at += Double.BYTES;
+        }
+      }
+
+      position = at;
+      rows += count;
+    }
+
+    return rows;
+  }
+
+  private void readHeader() {
+    ++line;
+    int end = lineEnd(position);
+    if (end == -1) {
+      if (!windowIsLast())
+        throw new InvalidDatasetException(file, "the header is too long");
+      end = window.limit();
+    }
+
+    byte[] header = new byte[end - position];
+    window.get(position, header);
+    String text = new String(header, StandardCharsets.UTF_8).strip();
+    if (text.isEmpty())
+      throw new InvalidDatasetException(file, "no header naming the columns");
+
+    for (String name : text.split(",")) {
+      name = name.strip();
+      if (name.isEmpty())
+        throw new InvalidDatasetException(file, "a column in the header has no name");
+      columns.add(name);
+    }
+
+    position = Math.min(end + 1, window.limit());
+  }
+
+  /**
+   * The index of the next newline in the window, or -1 if there isn't one.
+   */
+  private int lineEnd(int from) {
+    for (int i = from; i < window.limit(); ++i) {
+      if (window.get(i) == '\n')
+        return i;
+    }
+    return -1;
+  }
+
+  private int readCsv(double[][] out, int maxRows) throws IOException {
+    int rows = 0;
+    while (rows < maxRows) {
+      if (position == window.limit()) {
+        if (windowIsLast())
+          break;
+        map(windowStart + position);
+      }
+
+      int next = blankLineEnd();
+      boolean blank = next != NOT_BLANK;
+      if (!blank)
+        next = readCsvRow(out, rows);
+
+      if (next == PAST_WINDOW) {
+        // the row runs past the window: map again starting from it
+        if (position == 0)
+          throw error("the line is too long");
+        map(windowStart + position);
+        continue;
+      }
+
+      ++line;
+      if (!blank)
+        ++rows;
+      position = next;
+    }
+
+    return rows;
+  }
+
+  /**
+   * Where the next line starts if the current one is blank, or
+   * {@link #NOT_BLANK}.
+   */
+  private int blankLineEnd() {
+    int limit = window.limit();
+    int at = position;
+    if (at < limit && window.get(at) == '\r')
+      ++at;
+    if (at < limit && window.get(at) == '\n')
+      return at + 1;
+    if (at == limit)
+      return windowIsLast() ? limit : PAST_WINDOW;
+    return NOT_BLANK;
+  }
+
+  /**
+   * Parses the row starting at the current position into the given row of the
+   * columns, returning where the next row starts, or {@link #PAST_WINDOW} if
+   * the row doesn't end within the window.
+   */
+  private int readCsvRow(double[][] out, int row) {
+    MappedByteBuffer bytes = window;
+    int limit = bytes.limit();
+    boolean last = windowIsLast();
+    int at = position;
+
+    for (int column = 0; column < out.length; ++column) {
+      while (at < limit && (bytes.get(at) == ' ' || bytes.get(at) == '\t'))
+        ++at;
+
+      int start = at;
+      while (at < limit && !isFieldEnd(bytes.get(at)))
+        ++at;
+      if (at == limit && !last)
+        return PAST_WINDOW;
+
+      int end = at;
+      while (end > start && (bytes.get(end - 1) == ' ' || bytes.get(end - 1) == '\t'))
+        --end;
+      out[column][row] = parseNumber(start, end);
+
+      boolean lastColumn = column == out.length - 1;
+      if (at < limit && bytes.get(at) == ',') {
+        if (lastColumn)
+          throw error(String.format("more than %d columns", out.length));
+        ++at;
+      } else if (!lastColumn) {
+        throw error(String.format("only %d of %d columns", column + 1, out.length));
+      }
+    }
+
+    if (at < limit && bytes.get(at) == '\r')
+      ++at;
+    if (at < limit && bytes.get(at) != '\n')
+      throw error(String.format("unexpected '%c'", (char) bytes.get(at)));
+    return at < limit ? at + 1 : limit;
+  }
+
+  private static boolean isFieldEnd(byte b) {
+    return b == ',' || b == '\n' || b == '\r';
+  }
+
+  /**
+   * Parses a decimal number, exactly, since a number with at most 15
+   * significant digits and a power of ten of at most 22 are both exactly
+   * representable, so their product or quotient is correctly rounded.
+   */
+  private double parseNumber(int start, int end) {
+    MappedByteBuffer bytes = window;
+    int at = start;
+    boolean negative = false;
+    if (at < end && (bytes.get(at) == '-' || bytes.get(at) == '+'))
+      negative = bytes.get(at++) == '-';
+
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    boolean anyDigits = false;
+
+    for (; at < end; ++at) {
+      int digit = bytes.get(at) - '0';
+      if (digit < 0 || digit > 9)
+        break;
+      anyDigits = true;
+      if (mantissa != 0 || digit != 0) {
+        mantissa = mantissa * 10 + digit;
+        ++digits;
+      }
+    }
+    if (at < end && bytes.get(at) == '.') {
+      for (++at; at < end; ++at) {
+        int digit = bytes.get(at) - '0';
+        if (digit < 0 || digit > 9)
+          break;
+        anyDigits = true;
+        if (mantissa != 0 || digit != 0) {
+          mantissa = mantissa * 10 + digit;
+          ++digits;
+        }
+        --exponent;
+      }
+    }
+    if (anyDigits && at < end && (bytes.get(at) == 'e' || bytes.get(at) == 'E')) {
+      ++at;
+      boolean negativeExponent = false;
+      if (at < end && (bytes.get(at) == '-' || bytes.get(at) == '+'))
+        negativeExponent = bytes.get(at++) == '-';
+
+      int explicit = 0;
+      int exponentStart = at;
+      for (; at < end && explicit < 10_000; ++at) {
+        int digit = bytes.get(at) - '0';
+        if (digit < 0 || digit > 9)
+          break;
+        explicit = explicit * 10 + digit;
+      }
+      if (at == exponentStart)
+        return parseSlowly(start, end);
+      exponent += negativeExponent ? -explicit : explicit;
+    }
+
+    if (!anyDigits || at != end || digits > MAX_FAST_DIGITS || Math.abs(exponent) >= POWERS_OF_TEN.length)
+      return parseSlowly(start, end);
+
+    double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+    return negative ? -value : value;
+  }
+
+  private double parseSlowly(int start, int end) {
+    byte[] text = new byte[end - start];
+    window.get(start, text);
+    String number = new String(text, StandardCharsets.US_ASCII);
+    try {
+      return Double.parseDouble(number);
+    } catch (NumberFormatException e) {
+      throw error(String.format("'%s' isn't a number", number));
+    }
+  }
+
+  private InvalidDatasetException error(String reason) {
+    return new InvalidDatasetException(file, String.format("line %d: %s", line + 1, reason));
+  }
+}
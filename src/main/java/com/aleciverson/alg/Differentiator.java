@@ -0,0 +1,339 @@
+package com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Differentiates statements symbolically, giving exact derivatives that cost
+ * about as much to evaluate as the statements themselves, rather than the two
+ * extra evaluations per variable of finite differences.
+ *
+ * Derivatives are built bottom-up, and terms that are known to be zero or one
+ * are dropped as they're built, so a derivative is rarely more than a few
+ * times the size of the original expression. The result is then folded by the
+ * {@link Optimizer}. Subtrees of the original expression are shared, not
+ * copied, so {@link SubexpressionEliminator} can compute them once for both.
+ *
+ * A term known to be zero is dropped even where the other factor is infinite or
+ * NaN, as is usual for derivatives. {@code abs}, {@code min} and {@code max}
+ * have no derivative where their arguments are zero or equal, and give NaN
+ * there. Registered functions have no known derivative at all.
+ */
+public class Differentiator {
+  private static final Functions.Function COS = Functions.lookup("cos");
+  private static final Functions.Function SIN = Functions.lookup("sin");
+  private static final Functions.Function LN = Functions.lookup("ln");
+  private static final Functions.Function SQRT = Functions.lookup("sqrt");
+  private static final Functions.Function ABS = Functions.lookup("abs");
+
+  private static final Expression ZERO = new Expression.Value(0);
+  private static final Expression ONE = new Expression.Value(1);
+  private static final Expression TWO = new Expression.Value(2);
+
+  private Differentiator() {
+  }
+
+  /**
+   * The name of the variable holding the partial derivative of a variable with
+   * respect to another, e.g. {@code dy/dx}. Derivatives of temporaries are
+   * temporaries too.
+   */
+  public static String partialName(String variable, String respectTo) {
+    return (variable.startsWith("$") ? "$d" : "d") + variable + "/d" + respectTo;
+  }
+
+  /**
+   * Differentiates a statement's expression with respect to a variable,
+   * treating every other variable as independent of it. The result assigns
+   * {@link #partialName}.
+   *
+   * @throws NotDifferentiableException if the expression calls a registered
+   *         function
+   */
+  public static Statement derive(Statement stmt, String var) {
+    Expression derivative = derive(stmt.expression(), var);
+    return new Optimizer().optimize(new Statement(partialName(stmt.outputVariable(), var), derivative));
+  }
+
+  static Expression derive(Expression expr, String var) {
+    Map<String, Expression> partials = new HashMap<>();
+    partials.put(var, ONE);
+    return expr.accept(new Rules(partials));
+  }
+
+  /**
+   * Returns a script that runs the given statements and also computes the
+   * partial derivative of every variable they assign with respect to each of
+   * the given variables, so one run gives the whole gradient.
+   *
+   * The derivatives of each statement are computed just before it, since they
+   * read the values it's about to overwrite. Variables the statements read but
+   * never assign are inputs: independent of each other, with derivative one
+   * with respect to themselves.
+   *
+   * @throws NotDifferentiableException if a statement calls a registered
+   *         function
+   */
+  public static List<Statement> gradient(List<Statement> stmts, List<String> vars) {
+    Optimizer optimizer = new Optimizer();
+    List<Statement> out = new ArrayList<>(stmts.size() * (vars.size() + 1));
+
+    // per variable, the current partial of every variable assigned so far:
+    // the variable holding it, or its value if that's a constant
+    List<Map<String, Expression>> partials = new ArrayList<>(vars.size());
+    for (String var : vars) {
+      Map<String, Expression> initial = new HashMap<>();
+      initial.put(var, ONE);
+      partials.add(initial);
+    }
+
+    for (Statement stmt : stmts) {
+      List<Expression> derivatives = new ArrayList<>(vars.size());
+      for (Map<String, Expression> known : partials)
+        derivatives.add(stmt.expression().accept(new Rules(known)));
+
+      for (int i = 0; i < vars.size(); ++i) {
+        String name = partialName(stmt.outputVariable(), vars.get(i));
+        Statement derivative = optimizer.optimize(new Statement(name, derivatives.get(i)));
+        out.add(derivative);
+
+        Expression folded = derivative.expression();
+        partials.get(i).put(stmt.outputVariable(),
+            folded instanceof Expression.Value ? folded : new Expression.Variable(name));
+      }
+      out.add(stmt);
+    }
+
+    return out;
+  }
+
+  private static boolean isZero(Expression expr) {
+    return expr instanceof Expression.Value && ((Expression.Value) expr).constant() == 0;
+  }
+
+  private static boolean isOne(Expression expr) {
+    return expr instanceof Expression.Value && ((Expression.Value) expr).constant() == 1;
+  }
+
+  private static Expression add(Expression lhs, Expression rhs) {
+    if (isZero(lhs))
+      return rhs;
+    if (isZero(rhs))
+      return lhs;
+    return new Expression.Addition(lhs, rhs);
+  }
+
+  private static Expression subtract(Expression lhs, Expression rhs) {
+    if (isZero(rhs))
+      return lhs;
+    if (isZero(lhs))
+      return negate(rhs);
+    return new Expression.Subtraction(lhs, rhs);
+  }
+
+  private static Expression multiply(Expression lhs, Expression rhs) {
+    if (isZero(lhs) || isZero(rhs))
+      return ZERO;
+    if (isOne(lhs))
+      return rhs;
+    if (isOne(rhs))
+      return lhs;
+    return new Expression.Multiplication(lhs, rhs);
+  }
+
+  private static Expression divide(Expression lhs, Expression rhs) {
+    if (isZero(lhs))
+      return ZERO;
+    if (isOne(rhs))
+      return lhs;
+    return new Expression.Division(lhs, rhs);
+  }
+
+  private static Expression negate(Expression expr) {
+    if (isZero(expr))
+      return ZERO;
+    if (expr instanceof Expression.Negative)
+      return ((Expression.Negative) expr).rhs();
+    return new Expression.Negative(expr);
+  }
+
+  private static Expression square(Expression expr) {
+    return new Expression.Multiplication(expr, expr);
+  }
+
+  private static Expression call(Functions.Function function, Expression arg) {
+    return new Expression.BuiltinCall(function, arg);
+  }
+
+  /**
+   * The differentiation rules. Each node returns its derivative.
+   */
+  private static class Rules implements Expression.Visitor<Expression> {
+    private final Map<String, Expression> partials;
+
+    Rules(Map<String, Expression> partials) {
+      this.partials = partials;
+    }
+
+    @Override
+    public Expression visitValue(Expression.Value expr) {
+      return ZERO;
+    }
+
+    @Override
+    public Expression visitVariable(Expression.Variable expr) {
+      return partials.getOrDefault(expr.name(), ZERO);
+    }
+
+    @Override
+    public Expression visitAddition(Expression.Addition expr) {
+      return add(expr.lhs().accept(this), expr.rhs().accept(this));
+    }
+
+    @Override
+    public Expression visitSubtraction(Expression.Subtraction expr) {
+      return subtract(expr.lhs().accept(this), expr.rhs().accept(this));
+    }
+
+    @Override
+    public Expression visitMultiplication(Expression.Multiplication expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+      return add(multiply(lhs, expr.rhs()), multiply(expr.lhs(), rhs));
+    }
+
+    @Override
+    public Expression visitDivision(Expression.Division expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+      if (isZero(rhs))
+        return divide(lhs, expr.rhs());
+
+      // (f'g - fg') / g^2
+      Expression numerator = subtract(multiply(lhs, expr.rhs()), multiply(expr.lhs(), rhs));
+      return divide(numerator, square(expr.rhs()));
+    }
+
+    @Override
+    public Expression visitPower(Expression.Power expr) {
+      Expression base = expr.lhs();
+      Expression exponent = expr.rhs();
+      Expression baseDerivative = base.accept(this);
+      Expression exponentDerivative = exponent.accept(this);
+
+      if (isZero(exponentDerivative)) {
+        // g f^(g - 1) f'
+        Expression reduced;
+        if (exponent instanceof Expression.Value) {
+          double power = ((Expression.Value) exponent).constant();
+          if (power == 0)
+            return ZERO;
+          if (power == 1)
+            reduced = ONE;
+          else if (power == 2)
+            reduced = base;
+          else
+            reduced = new Expression.Power(base, new Expression.Value(power - 1));
+        } else {
+          reduced = new Expression.Power(base, new Expression.Subtraction(exponent, ONE));
+        }
+        return multiply(multiply(exponent, reduced), baseDerivative);
+      }
+
+      // f^g (g' ln(f) + g f' / f)
+      Expression inner = add(multiply(exponentDerivative, call(LN, base)),
+          divide(multiply(exponent, baseDerivative), base));
+      return multiply(expr, inner);
+    }
+
+    @Override
+    public Expression visitNegative(Expression.Negative expr) {
+      return negate(expr.rhs().accept(this));
+    }
+
+    @Override
+    public Expression visitBuiltinCall(Expression.BuiltinCall expr) {
+      Expression arg = expr.argument();
+      Expression derivative = arg.accept(this);
+      if (isZero(derivative))
+        return ZERO;
+      if (expr.function().mathMethod() == null)
+        throw new NotDifferentiableException(expr.name());
+
+      Expression outer;
+      switch (expr.name()) {
+      case "sin":
+        outer = call(COS, arg);
+        break;
+      case "cos":
+        outer = negate(call(SIN, arg));
+        break;
+      case "tan":
+        outer = divide(ONE, square(call(COS, arg)));
+        break;
+      case "asin":
+        outer = divide(ONE, call(SQRT, subtract(ONE, square(arg))));
+        break;
+      case "acos":
+        outer = negate(divide(ONE, call(SQRT, subtract(ONE, square(arg)))));
+        break;
+      case "atan":
+        outer = divide(ONE, add(ONE, square(arg)));
+        break;
+      case "log":
+        outer = divide(ONE, multiply(arg, call(LN, new Expression.Value(10))));
+        break;
+      case "ln":
+        outer = divide(ONE, arg);
+        break;
+      case "exp":
+        outer = expr;
+        break;
+      case "sqrt":
+        outer = divide(ONE, multiply(TWO, expr));
+        break;
+      case "abs":
+        outer = divide(arg, expr);
+        break;
+      default:
+        throw new NotDifferentiableException(expr.name());
+      }
+      return multiply(outer, derivative);
+    }
+
+    @Override
+    public Expression visitBinaryCall(Expression.BinaryCall expr) {
+      Expression lhs = expr.lhs();
+      Expression rhs = expr.rhs();
+      Expression lhsDerivative = lhs.accept(this);
+      Expression rhsDerivative = rhs.accept(this);
+      if (isZero(lhsDerivative) && isZero(rhsDerivative))
+        return ZERO;
+      if (expr.function().mathMethod() == null)
+        throw new NotDifferentiableException(expr.name());
+
+      switch (expr.name()) {
+      case "atan2": {
+        // atan2(y, x)' = (x y' - y x') / (x^2 + y^2)
+        Expression numerator = subtract(multiply(rhs, lhsDerivative), multiply(lhs, rhsDerivative));
+        return divide(numerator, add(square(lhs), square(rhs)));
+      }
+      case "hypot":
+        return divide(add(multiply(lhs, lhsDerivative), multiply(rhs, rhsDerivative)), expr);
+      case "min":
+      case "max": {
+        // min and max are (f + g -/+ |f - g|) / 2
+        Expression difference = subtract(lhs, rhs);
+        Expression sign = divide(difference, call(ABS, difference));
+        Expression jump = multiply(sign, subtract(lhsDerivative, rhsDerivative));
+        Expression sum = add(lhsDerivative, rhsDerivative);
+        return divide(expr.name().equals("min") ? subtract(sum, jump) : add(sum, jump), TWO);
+      }
+      default:
+        throw new NotDifferentiableException(expr.name());
+      }
+    }
+  }
+}
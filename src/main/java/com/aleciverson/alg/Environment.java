@@ -1,58 +1,181 @@
 package com.aleciverson.alg;
 
-import java.util.HashMap;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Spliterator;
 import java.util.function.Consumer;
 
 interface EnvironmentReadable extends Iterable<Map.Entry<String, Double>> {
   double get(String name);
+
+  /**
+   * Reads a variable by the slot it was bound to. Environments without slots
+   * fall back to looking it up by name.
+   */
+  default double get(int slot, String name) {
+    return get(name);
+  }
 }
 
 interface EnvironmentWritable {
   void set(String name, double value);
+
+  /**
+   * Writes a variable by the slot it was bound to. Environments without slots
+   * fall back to writing it by name.
+   */
+  default void set(int slot, String name, double value) {
+    set(name, value);
+  }
 }
 
+/**
+ * Variable storage backed by a {@code double[]}, indexed by the slots of a
+ * {@link SlotLayout}. Name based access goes through the layout; statements
+ * bound to the layout skip it entirely.
+ *
+ * An environment isn't thread-safe, but environments made by the same
+ * {@link Script} share nothing mutable, so each thread can have its own.
+ */
 public class Environment implements EnvironmentReadable, EnvironmentWritable {
-  private final Map<String, Double> variables = new HashMap<>();
+  /**
+   * Names every environment starts with, which statements can't assign to.
+   */
+  static final Map<String, Double> CONSTANTS = constants();
+
+  private SlotLayout layout;
+  private double[] values;
+  private boolean[] defined;
 
   public Environment(Map<String, Double> initial) {
-    // add constants
-    variables.put("pi", Math.PI);
-    variables.put("PI", Math.PI);
-    variables.put("e", Math.E);
-    variables.put("E", Math.E);
+    this(new SlotLayout(), initial);
+  }
+
+  /**
+   * An environment starting out with the slots of a layout, which may be
+   * frozen and shared. The first name that isn't in a frozen layout gives this
+   * environment its own copy of it.
+   */
+  Environment(SlotLayout layout, Map<String, Double> initial) {
+    this.layout = layout;
+    int capacity = Math.max(16, layout.size());
+    values = new double[capacity];
+    defined = new boolean[capacity];
+
+    CONSTANTS.forEach(this::set);
 
     if (initial != null)
-      variables.putAll(initial);
+      initial.forEach(this::set);
+  }
+
+  private static Map<String, Double> constants() {
+    Map<String, Double> constants = new LinkedHashMap<>();
+    constants.put("pi", Math.PI);
+    constants.put("PI", Math.PI);
+    constants.put("e", Math.E);
+    constants.put("E", Math.E);
+    return Collections.unmodifiableMap(constants);
+  }
+
+  SlotLayout layout() {
+    return layout;
+  }
+
+  /**
+   * The layout, copied first if it's frozen, for binding statements that may
+   * add names to it.
+   */
+  SlotLayout writableLayout() {
+    if (layout.isFrozen())
+      layout = layout.derive();
+    return layout;
+  }
+
+  /**
+   * Grows storage to cover every slot in the layout. Called after binding
+   * statements, which may have added new slots.
+   */
+  void ensureCapacity() {
+    int size = layout.size();
+    if (size > values.length) {
+      int capacity = Math.max(size, values.length * 2);
+      values = Arrays.copyOf(values, capacity);
+      defined = Arrays.copyOf(defined, capacity);
+    }
+  }
+
+  /**
+   * The backing storage, indexed by slot. Only valid until the next call that
+   * may grow it.
+   */
+  double[] slots() {
+    return values;
+  }
+
+  boolean isDefined(int slot) {
+    return defined[slot];
   }
 
   @Override
   public double get(String name) {
-    if (variables.containsKey(name))
-      return variables.get(name);
+    int slot = layout.slotOf(name);
+    if (slot != -1 && slot < defined.length && defined[slot])
+      return values[slot];
+    else
+      throw new UnknownVariableException(name);
+  }
+
+  @Override
+  public double get(int slot, String name) {
+    if (defined[slot])
+      return values[slot];
     else
       throw new UnknownVariableException(name);
   }
 
   @Override
   public void set(String name, double value) {
-    variables.put(name, value);
+    int slot = layout.slotOf(name);
+    if (slot == -1)
+      slot = writableLayout().define(name);
+    ensureCapacity();
+    values[slot] = value;
+    defined[slot] = true;
+  }
+
+  @Override
+  public void set(int slot, String name, double value) {
+    values[slot] = value;
+    defined[slot] = true;
   }
 
   @Override
   public Iterator<Map.Entry<String, Double>> iterator() {
-    return variables.entrySet().iterator();
+    return entries().iterator();
   }
 
   @Override
   public void forEach(Consumer<? super Map.Entry<String, Double>> action) {
-    variables.entrySet().forEach(action);
+    entries().forEach(action);
   }
 
   @Override
   public Spliterator<Map.Entry<String, Double>> spliterator() {
-    return variables.entrySet().spliterator();
+    return entries().spliterator();
+  }
+
+  private List<Map.Entry<String, Double>> entries() {
+    List<Map.Entry<String, Double>> entries = new ArrayList<>();
+    for (int slot = 0; slot < layout.size(); ++slot) {
+      if (defined[slot])
+        entries.add(new AbstractMap.SimpleImmutableEntry<>(layout.name(slot), values[slot]));
+    }
+    return entries;
   }
 }
@@ -0,0 +1,23 @@
+package com.aleciverson.alg;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event for each statement an instrumented {@link Interpreter} runs, one
+ * with {@link InterpreterStats} attached. Costs next to nothing unless a
+ * recording enables it.
+ */
+@Name("com.aleciverson.alg.Evaluate")
+@Label("Evaluate")
+@Category("Alg")
+@Description("Running one statement")
+class EvaluateEvent extends jdk.jfr.Event {
+  @Label("Variable")
+  String variable;
+
+  @Label("Backend")
+  String backend;
+}
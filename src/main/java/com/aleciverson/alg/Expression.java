@@ -1,10 +1,105 @@
 package com.aleciverson.alg;
 
-import java.util.function.Function;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 
 interface Expression {
   double value(EnvironmentReadable env);
 
+  <R> R accept(Visitor<R> visitor);
+
+  interface Visitor<R> {
+    R visitValue(Value expr);
+
+    R visitVariable(Variable expr);
+
+    R visitAddition(Addition expr);
+
+    R visitSubtraction(Subtraction expr);
+
+    R visitMultiplication(Multiplication expr);
+
+    R visitDivision(Division expr);
+
+    R visitPower(Power expr);
+
+    R visitNegative(Negative expr);
+
+    R visitBuiltinCall(BuiltinCall expr);
+
+    R visitBinaryCall(BinaryCall expr);
+  }
+
+  /**
+   * Rebuilds a tree bottom-up, reusing any node whose children are unchanged.
+   * Passes override only the node types they care about.
+   */
+  abstract class Rewriter implements Visitor<Expression> {
+    @Override
+    public Expression visitValue(Value expr) {
+      return expr;
+    }
+
+    @Override
+    public Expression visitVariable(Variable expr) {
+      return expr;
+    }
+
+    @Override
+    public Expression visitAddition(Addition expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Addition(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitSubtraction(Subtraction expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Subtraction(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitMultiplication(Multiplication expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Multiplication(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitDivision(Division expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Division(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitPower(Power expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Power(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitNegative(Negative expr) {
+      Expression rhs = expr.rhs().accept(this);
+      return rhs == expr.rhs() ? expr : new Negative(rhs);
+    }
+
+    @Override
+    public Expression visitBuiltinCall(BuiltinCall expr) {
+      Expression arg = expr.argument().accept(this);
+      return arg == expr.argument() ? expr : expr.withArgument(arg);
+    }
+
+    @Override
+    public Expression visitBinaryCall(BinaryCall expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : expr.withArguments(lhs, rhs);
+    }
+  }
+
   class Value implements Expression {
     private double val;
 
@@ -12,162 +107,497 @@ interface Expression {
       this.val = val;
     }
 
+    public double constant() {
+      return val;
+    }
+
     @Override
     public double value(EnvironmentReadable env) {
       return val;
     }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitValue(this);
+    }
+
+    /**
+     * Values are equal when their bits are, so 0 and -0 differ but NaN equals
+     * itself.
+     */
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Value && Double.compare(val, ((Value) other).val) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Double.hashCode(val);
+    }
   }
 
   class Variable implements Expression {
     private String name;
+    private int slot;
 
     public Variable(String name) {
+      this(name, -1);
+    }
+
+    /**
+     * A variable bound to a slot of a {@link SlotLayout}. A slot of -1 means
+     * unbound, and is looked up by name instead.
+     */
+    public Variable(String name, int slot) {
       this.name = name;
+      this.slot = slot;
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public int slot() {
+      return slot;
     }
 
     @Override
     public double value(EnvironmentReadable env) {
-      return env.get(name);
+      if (slot < 0)
+        return env.get(name);
+      else
+        return env.get(slot, name);
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitVariable(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Variable))
+        return false;
+      Variable that = (Variable) other;
+      return slot == that.slot && name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * name.hashCode() + slot;
     }
   }
 
   class Addition implements Expression {
     private Expression lhs;
     private Expression rhs;
+    private int hash;
 
     public Addition(Expression lhs, Expression rhs) {
       this.lhs = lhs;
       this.rhs = rhs;
+      this.hash = 31 * (31 * 1 + lhs.hashCode()) + rhs.hashCode();
+    }
+
+    public Expression lhs() {
+      return lhs;
+    }
+
+    public Expression rhs() {
+      return rhs;
     }
 
     @Override
     public double value(EnvironmentReadable env) {
       return lhs.value(env) + rhs.value(env);
     }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitAddition(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other)
+        return true;
+      if (!(other instanceof Addition))
+        return false;
+      Addition that = (Addition) other;
+      return hash == that.hash && lhs.equals(that.lhs) && rhs.equals(that.rhs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 
   class Subtraction implements Expression {
     private Expression lhs;
     private Expression rhs;
+    private int hash;
 
     public Subtraction(Expression lhs, Expression rhs) {
       this.lhs = lhs;
       this.rhs = rhs;
+      this.hash = 31 * (31 * 2 + lhs.hashCode()) + rhs.hashCode();
+    }
+
+    public Expression lhs() {
+      return lhs;
+    }
+
+    public Expression rhs() {
+      return rhs;
     }
 
     @Override
     public double value(EnvironmentReadable env) {
       return lhs.value(env) - rhs.value(env);
     }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSubtraction(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other)
+        return true;
+      if (!(other instanceof Subtraction))
+        return false;
+      Subtraction that = (Subtraction) other;
+      return hash == that.hash && lhs.equals(that.lhs) && rhs.equals(that.rhs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 
   class Multiplication implements Expression {
     private Expression lhs;
     private Expression rhs;
+    private int hash;
 
     public Multiplication(Expression lhs, Expression rhs) {
       this.lhs = lhs;
       this.rhs = rhs;
+      this.hash = 31 * (31 * 3 + lhs.hashCode()) + rhs.hashCode();
+    }
+
+    public Expression lhs() {
+      return lhs;
+    }
+
+    public Expression rhs() {
+      return rhs;
     }
 
     @Override
     public double value(EnvironmentReadable env) {
       return lhs.value(env) * rhs.value(env);
     }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitMultiplication(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other)
+        return true;
+      if (!(other instanceof Multiplication))
+        return false;
+      Multiplication that = (Multiplication) other;
+      return hash == that.hash && lhs.equals(that.lhs) && rhs.equals(that.rhs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 
   class Division implements Expression {
     private Expression lhs;
     private Expression rhs;
+    private int hash;
 
     public Division(Expression lhs, Expression rhs) {
       this.lhs = lhs;
       this.rhs = rhs;
+      this.hash = 31 * (31 * 4 + lhs.hashCode()) + rhs.hashCode();
+    }
+
+    public Expression lhs() {
+      return lhs;
+    }
+
+    public Expression rhs() {
+      return rhs;
     }
 
     @Override
     public double value(EnvironmentReadable env) {
       return lhs.value(env) / rhs.value(env);
     }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitDivision(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other)
+        return true;
+      if (!(other instanceof Division))
+        return false;
+      Division that = (Division) other;
+      return hash == that.hash && lhs.equals(that.lhs) && rhs.equals(that.rhs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 
   class Power implements Expression {
     private Expression lhs;
     private Expression rhs;
+    private int hash;
 
     public Power(Expression lhs, Expression rhs) {
       this.lhs = lhs;
       this.rhs = rhs;
+      this.hash = 31 * (31 * 5 + lhs.hashCode()) + rhs.hashCode();
+    }
+
+    public Expression lhs() {
+      return lhs;
+    }
+
+    public Expression rhs() {
+      return rhs;
     }
 
     @Override
     public double value(EnvironmentReadable env) {
       return Math.pow(lhs.value(env), rhs.value(env));
     }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitPower(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other)
+        return true;
+      if (!(other instanceof Power))
+        return false;
+      Power that = (Power) other;
+      return hash == that.hash && lhs.equals(that.lhs) && rhs.equals(that.rhs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 
   class Negative implements Expression {
     private Expression rhs;
+    private int hash;
 
     public Negative(Expression rhs) {
       this.rhs = rhs;
+      this.hash = 31 * 6 + rhs.hashCode();
+    }
+
+    public Expression rhs() {
+      return rhs;
     }
 
     @Override
     public double value(EnvironmentReadable env) {
       return -1 * rhs.value(env);
     }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNegative(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other)
+        return true;
+      if (!(other instanceof Negative))
+        return false;
+      Negative that = (Negative) other;
+      return hash == that.hash && rhs.equals(that.rhs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
   }
 
+  /**
+   * A call to a function of one argument.
+   */
   class BuiltinCall implements Expression {
-    private Function<Double, Double> func;
+    private Functions.Function function;
+    private DoubleUnaryOperator func;
     private Expression arg;
+    private int hash;
 
-    public BuiltinCall(Function<Double, Double> func, Expression arg) {
-      this.func = func;
+    public BuiltinCall(Functions.Function function, Expression arg) {
+      if (function.arity() != 1)
+        throw new IllegalArgumentException(function.name() + " doesn't take one argument");
+      this.function = function;
+      this.func = function.unary();
       this.arg = arg;
+      this.hash = 31 * (31 * 7 + function.name().hashCode()) + arg.hashCode();
+    }
+
+    /**
+     * The name the function is called by in source, e.g. "sin".
+     */
+    public String name() {
+      return function.name();
+    }
+
+    public Functions.Function function() {
+      return function;
+    }
+
+    public Expression argument() {
+      return arg;
+    }
+
+    /**
+     * Returns a call to the same function with a different argument.
+     */
+    public BuiltinCall withArgument(Expression arg) {
+      return new BuiltinCall(function, arg);
+    }
+
+    public double apply(double argVal) {
+      return func.applyAsDouble(argVal);
     }
 
     @Override
     public double value(EnvironmentReadable env) {
-      double argVal = arg.value(env);
-      return func.apply(argVal);
+      return func.applyAsDouble(arg.value(env));
     }
-  }
 
-  class Sine extends BuiltinCall {
-    public Sine(Expression subExpr) {
-      super(Math::sin, subExpr);
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitBuiltinCall(this);
     }
-  }
 
-  class Cosine extends BuiltinCall {
-    public Cosine(Expression subExpr) {
-      super(Math::cos, subExpr);
+    /**
+     * Calls are equal when they call the same function on equal arguments.
+     */
+    @Override
+    public boolean equals(Object other) {
+      if (this == other)
+        return true;
+      if (!(other instanceof BuiltinCall))
+        return false;
+      BuiltinCall that = (BuiltinCall) other;
+      return hash == that.hash && function == that.function && arg.equals(that.arg);
     }
-  }
 
-  class Tangent extends BuiltinCall {
-    public Tangent(Expression subExpr) {
-      super(Math::tan, subExpr);
+    @Override
+    public int hashCode() {
+      return hash;
     }
   }
 
-  class Log extends BuiltinCall {
-    public Log(Expression subExpr) {
-      super(Math::log10, subExpr);
+  /**
+   * A call to a function of two arguments.
+   */
+  class BinaryCall implements Expression {
+    private Functions.Function function;
+    private DoubleBinaryOperator func;
+    private Expression lhs;
+    private Expression rhs;
+    private int hash;
+
+    public BinaryCall(Functions.Function function, Expression lhs, Expression rhs) {
+      if (function.arity() != 2)
+        throw new IllegalArgumentException(function.name() + " doesn't take two arguments");
+      this.function = function;
+      this.func = function.binary();
+      this.lhs = lhs;
+      this.rhs = rhs;
+      this.hash = 31 * (31 * (31 * 8 + function.name().hashCode()) + lhs.hashCode()) + rhs.hashCode();
     }
-  }
 
-  class NaturalLog extends BuiltinCall {
-    public NaturalLog(Expression subExpr) {
-      super(Math::log, subExpr);
+    public String name() {
+      return function.name();
+    }
+
+    public Functions.Function function() {
+      return function;
+    }
+
+    /**
+     * The first argument.
+     */
+    public Expression lhs() {
+      return lhs;
+    }
+
+    /**
+     * The second argument.
+     */
+    public Expression rhs() {
+      return rhs;
+    }
+
+    public BinaryCall withArguments(Expression lhs, Expression rhs) {
+      return new BinaryCall(function, lhs, rhs);
+    }
+
+    public double apply(double lhsVal, double rhsVal) {
+      return func.applyAsDouble(lhsVal, rhsVal);
     }
-  }
 
-  class SquareRoot extends BuiltinCall {
-    public SquareRoot(Expression subExpr) {
-      super(Math::sqrt, subExpr);
+    @Override
+    public double value(EnvironmentReadable env) {
+      return func.applyAsDouble(lhs.value(env), rhs.value(env));
+    }
+
+    @Override
+    public <R> R accept(Visitor<R> visitor) {
+      return visitor.visitBinaryCall(this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other)
+        return true;
+      if (!(other instanceof BinaryCall))
+        return false;
+      BinaryCall that = (BinaryCall) other;
+      return hash == that.hash && function == that.function && lhs.equals(that.lhs) && rhs.equals(that.rhs);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
     }
   }
 }
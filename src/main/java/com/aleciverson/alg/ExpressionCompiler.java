@@ -0,0 +1,469 @@
+package com.aleciverson.alg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compiles a bound statement to a hidden class with a single straight-line
+ * method, so evaluating it is one monomorphic call instead of a walk over the
+ * tree.
+ *
+ * The class file is written by hand: the generated method has no branches, so
+ * it needs nothing beyond a constant pool and a code attribute. Builtins that
+ * are methods of {@link Math} are called statically. Registered functions are
+ * kept in an array field of the generated class, and each call site calls
+ * through one of them, so every site only ever sees one operator class.
+ * Expressions that can't be compiled (unbound variables or code too large for
+ * one method) produce no compiled form, and callers fall back to the tree
+ * walker.
+ */
+class ExpressionCompiler {
+  /**
+   * Implemented by every generated class.
+   */
+  interface Compiled {
+    double evaluate(double[] slots);
+  }
+
+  private static final int MAX_CODE_LENGTH = 65535;
+  private static final AtomicInteger counter = new AtomicInteger();
+
+  /**
+   * Compiles a statement bound to a slot layout, or returns null if it can't
+   * be compiled.
+   */
+  public static CompiledStatement compile(Statement stmt) {
+    if (stmt.layout() == null)
+      return null;
+
+    String name = ExpressionCompiler.class.getPackageName().replace('.', '/') + "/Compiled$"
+        + counter.incrementAndGet();
+
+    Emitter emitter = new Emitter(name);
+    if (!stmt.expression().accept(emitter) || emitter.code.size() + 1 > MAX_CODE_LENGTH)
+      return null;
+
+    if (emitter.pool.isFull())
+      return null;
+
+    byte[] bytes = emitter.toClassFile();
+
+    try {
+      MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+      Compiled compiled = (Compiled) lookup.lookupClass().getDeclaredConstructor(Object[].class)
+          .newInstance((Object) emitter.functions.toArray());
+      return new CompiledStatement(stmt, compiled, emitter.readSlots(), emitter.readNames());
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * Emits the method body in postorder. Each visit returns false if the node
+   * can't be compiled.
+   */
+  private static class Emitter implements Expression.Visitor<Boolean> {
+    // opcodes
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int AALOAD = 0x32;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int SIPUSH = 0x11;
+    private static final int DALOAD = 0x31;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DNEG = 0x77;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int CHECKCAST = 0xc0;
+
+    private static final String FUNCTIONS_FIELD = "functions";
+    private static final String FUNCTIONS_TYPE = "[Ljava/lang/Object;";
+    private static final String UNARY = "java/util/function/DoubleUnaryOperator";
+    private static final String BINARY = "java/util/function/DoubleBinaryOperator";
+
+    private final ConstantPool pool = new ConstantPool();
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final Set<Integer> reads = new LinkedHashSet<>();
+    private final List<String> readNames = new ArrayList<>();
+    // the operators of registered functions, in the generated class's field
+    private final List<Object> functions = new ArrayList<>();
+    private final String className;
+
+    // the operand stack depth in words; doubles take two
+    private int depth = 0;
+    private int maxDepth = 0;
+
+    Emitter(String className) {
+      this.className = className;
+    }
+
+    int[] readSlots() {
+      return reads.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    String[] readNames() {
+      return readNames.toArray(new String[0]);
+    }
+
+    private void op(int opcode) {
+      code.write(opcode);
+    }
+
+    private void u2(int value) {
+      code.write(value >>> 8);
+      code.write(value);
+    }
+
+    private void push(int words) {
+      depth += words;
+      maxDepth = Math.max(maxDepth, depth);
+    }
+
+    private Boolean binary(Expression lhs, Expression rhs, int opcode) {
+      if (!lhs.accept(this) || !rhs.accept(this))
+        return false;
+      op(opcode);
+      depth -= 2;
+      return true;
+    }
+
+    private Boolean callMath(String method, String descriptor, int argWords) {
+      op(INVOKESTATIC);
+      u2(pool.methodRef("java/lang/Math", method, descriptor));
+      depth -= argWords - 2;
+      return true;
+    }
+
+    private void intOperand(int value) {
+      if (value <= Short.MAX_VALUE) {
+        op(SIPUSH);
+        u2(value);
+      } else {
+        op(LDC_W);
+        u2(pool.intConstant(value));
+      }
+    }
+
+    /**
+     * Pushes a registered function's operator, cast to its interface, ahead of
+     * its arguments.
+     */
+    private void loadFunction(Object operator, String type) {
+      op(ALOAD_0);
+      push(1);
+      op(GETFIELD);
+      u2(pool.fieldRef(className, FUNCTIONS_FIELD, FUNCTIONS_TYPE));
+      intOperand(functions.size());
+      push(1);
+      op(AALOAD);
+      depth -= 1;
+      op(CHECKCAST);
+      u2(pool.classRef(type));
+      functions.add(operator);
+    }
+
+    private Boolean callFunction(String type, String descriptor, int argWords) {
+      op(INVOKEINTERFACE);
+      u2(pool.interfaceMethodRef(type, "applyAsDouble", descriptor));
+      code.write(1 + argWords);
+      code.write(0);
+      depth -= 1 + argWords - 2;
+      return true;
+    }
+
+    @Override
+    public Boolean visitValue(Expression.Value expr) {
+      op(LDC2_W);
+      u2(pool.doubleConstant(expr.constant()));
+      push(2);
+      return true;
+    }
+
+    @Override
+    public Boolean visitVariable(Expression.Variable expr) {
+      int slot = expr.slot();
+      if (slot < 0)
+        return false;
+
+      if (reads.add(slot))
+        readNames.add(expr.name());
+
+      op(ALOAD_1);
+      push(1);
+      intOperand(slot);
+      push(1);
+      op(DALOAD);
+      return true;
+    }
+
+    @Override
+    public Boolean visitAddition(Expression.Addition expr) {
+      return binary(expr.lhs(), expr.rhs(), DADD);
+    }
+
+    @Override
+    public Boolean visitSubtraction(Expression.Subtraction expr) {
+      return binary(expr.lhs(), expr.rhs(), DSUB);
+    }
+
+    @Override
+    public Boolean visitMultiplication(Expression.Multiplication expr) {
+      return binary(expr.lhs(), expr.rhs(), DMUL);
+    }
+
+    @Override
+    public Boolean visitDivision(Expression.Division expr) {
+      return binary(expr.lhs(), expr.rhs(), DDIV);
+    }
+
+    @Override
+    public Boolean visitPower(Expression.Power expr) {
+      if (!expr.lhs().accept(this) || !expr.rhs().accept(this))
+        return false;
+      return callMath("pow", "(DD)D", 4);
+    }
+
+    @Override
+    public Boolean visitNegative(Expression.Negative expr) {
+      if (!expr.rhs().accept(this))
+        return false;
+      op(DNEG);
+      return true;
+    }
+
+    @Override
+    public Boolean visitBuiltinCall(Expression.BuiltinCall expr) {
+      String method = expr.function().mathMethod();
+      if (method != null) {
+        if (!expr.argument().accept(this))
+          return false;
+        return callMath(method, "(D)D", 2);
+      }
+
+      loadFunction(expr.function().unary(), UNARY);
+      if (!expr.argument().accept(this))
+        return false;
+      return callFunction(UNARY, "(D)D", 2);
+    }
+
+    @Override
+    public Boolean visitBinaryCall(Expression.BinaryCall expr) {
+      String method = expr.function().mathMethod();
+      if (method != null) {
+        if (!expr.lhs().accept(this) || !expr.rhs().accept(this))
+          return false;
+        return callMath(method, "(DD)D", 4);
+      }
+
+      loadFunction(expr.function().binary(), BINARY);
+      if (!expr.lhs().accept(this) || !expr.rhs().accept(this))
+        return false;
+      return callFunction(BINARY, "(DD)D", 4);
+    }
+
+    byte[] toClassFile() {
+      int thisClass = pool.classRef(className);
+      int superClass = pool.classRef("java/lang/Object");
+      int iface = pool.classRef(Compiled.class.getName().replace('.', '/'));
+      int objectInit = pool.methodRef("java/lang/Object", "<init>", "()V");
+      int functionsField = pool.fieldRef(className, FUNCTIONS_FIELD, FUNCTIONS_TYPE);
+      int functionsName = pool.utf8(FUNCTIONS_FIELD);
+      int functionsType = pool.utf8(FUNCTIONS_TYPE);
+      int initName = pool.utf8("<init>");
+      int initType = pool.utf8("(" + FUNCTIONS_TYPE + ")V");
+      int evaluateName = pool.utf8("evaluate");
+      int evaluateType = pool.utf8("([D)D");
+      int codeName = pool.utf8("Code");
+
+      try {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xcafebabe);
+        out.writeShort(0);
+        out.writeShort(52);
+        pool.writeTo(out);
+
+        out.writeShort(0x1030); // ACC_FINAL | ACC_SUPER | ACC_SYNTHETIC
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1);
+        out.writeShort(iface);
+        // private final Object[] functions;
+        out.writeShort(1); // fields
+        out.writeShort(0x0012);
+        out.writeShort(functionsName);
+        out.writeShort(functionsType);
+        out.writeShort(0);
+
+        out.writeShort(2); // methods
+
+        // public <init>(Object[] functions) { super(); this.functions = functions; }
+        out.writeShort(0x0001);
+        out.writeShort(initName);
+        out.writeShort(initType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + 10);
+        out.writeShort(2); // max stack
+        out.writeShort(2); // max locals
+        out.writeInt(10);
+        out.writeByte(ALOAD_0);
+        out.writeByte(INVOKESPECIAL);
+        out.writeShort(objectInit);
+        out.writeByte(ALOAD_0);
+        out.writeByte(ALOAD_1);
+        out.writeByte(PUTFIELD);
+        out.writeShort(functionsField);
+        out.writeByte(RETURN);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+
+        // public double evaluate(double[] slots) { return <expression>; }
+        byte[] body = code.toByteArray();
+        out.writeShort(0x0001);
+        out.writeShort(evaluateName);
+        out.writeShort(evaluateType);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + body.length + 1);
+        out.writeShort(maxDepth);
+        out.writeShort(2); // max locals
+        out.writeInt(body.length + 1);
+        out.write(body);
+        out.writeByte(DRETURN);
+        out.writeShort(0);
+        out.writeShort(0);
+
+        out.writeShort(0); // class attributes
+        return bytes.toByteArray();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  private static class ConstantPool {
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int DOUBLE = 6;
+    private static final int CLASS = 7;
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int INTERFACE_METHOD_REF = 11;
+    private static final int NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final Map<Object, Integer> entries = new HashMap<>();
+    private int count = 1;
+
+    private int add(Object key, int width, EntryWriter writer) {
+      Integer index = entries.get(key);
+      if (index != null)
+        return index;
+
+      try {
+        writer.write(out);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+
+      index = count;
+      count += width;
+      entries.put(key, index);
+      return index;
+    }
+
+    int utf8(String value) {
+      return add(List.of(UTF8, value), 1, out -> {
+        out.writeByte(UTF8);
+        out.writeUTF(value);
+      });
+    }
+
+    int intConstant(int value) {
+      return add(List.of(INTEGER, value), 1, out -> {
+        out.writeByte(INTEGER);
+        out.writeInt(value);
+      });
+    }
+
+    int doubleConstant(double value) {
+      // keyed on the bits so that 0.0 and -0.0 stay distinct
+      return add(List.of(DOUBLE, Double.doubleToRawLongBits(value)), 2, out -> {
+        out.writeByte(DOUBLE);
+        out.writeDouble(value);
+      });
+    }
+
+    int classRef(String name) {
+      int nameIndex = utf8(name);
+      return add(List.of(CLASS, name), 1, out -> {
+        out.writeByte(CLASS);
+        out.writeShort(nameIndex);
+      });
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+      return memberRef(METHOD_REF, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+      return memberRef(INTERFACE_METHOD_REF, owner, name, descriptor);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+      return memberRef(FIELD_REF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+      int ownerIndex = classRef(owner);
+      int nameIndex = utf8(name);
+      int typeIndex = utf8(descriptor);
+      int nameAndType = add(List.of(NAME_AND_TYPE, name, descriptor), 1, out -> {
+        out.writeByte(NAME_AND_TYPE);
+        out.writeShort(nameIndex);
+        out.writeShort(typeIndex);
+      });
+      return add(List.of(tag, owner, name, descriptor), 1, out -> {
+        out.writeByte(tag);
+        out.writeShort(ownerIndex);
+        out.writeShort(nameAndType);
+      });
+    }
+
+    boolean isFull() {
+      // leave room for the entries the class itself needs
+      return count > 65535 - 32;
+    }
+
+    void writeTo(DataOutputStream dest) throws IOException {
+      dest.writeShort(count);
+      bytes.writeTo(dest);
+    }
+
+    private interface EntryWriter {
+      void write(DataOutputStream out) throws IOException;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package com.aleciverson.alg;
+
+/**
+ * Faster approximations of {@link Math#sin}, {@link Math#cos},
+ * {@link Math#log10} and {@link Math#pow}, trading the last bit or so of
+ * accuracy, and exact results at special points, for speed. Error bounds are
+ * relative to {@link StrictMath}, which is itself within an ulp of exact.
+ *
+ * <ul>
+ * <li>{@link #sin} and {@link #cos} reduce their argument by multiples of pi
+ * and evaluate one polynomial on [-pi/2, pi/2], with no branches on the
+ * quadrant. They're within 3 ulps for |x| &lt; 2^20, beyond which they call
+ * {@link Math}.
+ * <li>{@link #log10} splits off the exponent, divides the rest by the nearest
+ * of 128 tabulated points and evaluates a polynomial for the remainder. It's
+ * within 3 ulps, but isn't always exact at powers of ten.
+ * <li>{@link #pow} is {@code exp(y ln(x))}, with the same logarithm and a
+ * 64-entry table of powers of two for the exponential. It's within
+ * {@code 4 (1 + |y ln(x)|)} ulps, so it loses accuracy as the result nears
+ * the overflow or underflow threshold. Negative bases, zero, infinities and
+ * NaNs are handed to {@link Math#pow}, as are results that would be subnormal
+ * or overflow.
+ * </ul>
+ *
+ * Every function returns what {@link Math} does for NaN and infinite
+ * arguments.
+ */
+public final class FastMath {
+  private static final double REDUCTION_LIMIT = 0x1p20;
+  private static final double INV_PI = 0x1.45f306dc9c883p-2;
+  // adding this rounds anything below 2^51 in magnitude to an integer, whose
+  // lowest bit is then the lowest bit of the sum
+  private static final double ROUNDING_SHIFT = 0x1.8p52;
+  // pi in four parts, the first three with only 33 significant bits, so
+  // multiplying them by an integer, or half integer, below 2^20 is exact
+  private static final double PI_1 = 0x1.921fb544p1;
+  private static final double PI_2 = 0x1.0b4611a6p-33;
+  private static final double PI_3 = 0x1.3198a2ep-68;
+  private static final double PI_3T = 0x1.b839a252049c1p-103;
+
+  // sin(r) = r + r^3 (S0 + S1 r^2 + ... + S7 r^14) on [-pi/2, pi/2], fitted at
+  // Chebyshev nodes, within 2^-54 of sin(r) before rounding
+  private static final double S0 = -0.16666666666666666;
+  private static final double S1 = 0.008333333333333316;
+  private static final double S2 = -0.00019841269841254966;
+  private static final double S3 = 2.7557319219160833e-06;
+  private static final double S4 = -2.505210761669045e-08;
+  private static final double S5 = 1.6058977292642743e-10;
+  private static final double S6 = -7.643969663988074e-13;
+  private static final double S7 = 2.7314368769379893e-15;
+
+  private static final int LOG_TABLE_BITS = 7;
+  private static final int LOG_TABLE_SIZE = 1 << LOG_TABLE_BITS;
+  private static final long EXPONENT_MASK = 0xfffL << 52;
+  // the reduced argument is in [OFFSET, 2 OFFSET), where OFFSET is just under
+  // 0.6875, so 1 is in the middle of its table entry's interval
+  private static final long LOG_OFFSET = 0x3fe6000000000000L - (1L << (52 - LOG_TABLE_BITS - 1));
+  // ln 2 and log10 2 with trailing zeros, so multiplying them by an exponent
+  // is exact, and the rest of each
+  private static final double LN2_HI = 6.93147180369123816490e-01;
+  private static final double LN2_LO = 1.90821492927058770002e-10;
+  private static final double LOG10_2_HI = 3.01029995663611771306e-01;
+  private static final double LOG10_2_LO = 3.69423907715893078616e-13;
+  private static final double INV_LN10 = 0.4342944819032518;
+
+  // for each interval of the reduced argument, a point c in it, 1/c, and
+  // ln(c) and log10(c)
+  private static final double[] LOG_CENTER = new double[LOG_TABLE_SIZE];
+  private static final double[] LOG_INV_CENTER = new double[LOG_TABLE_SIZE];
+  private static final double[] LN_CENTER = new double[LOG_TABLE_SIZE];
+  private static final double[] LOG10_CENTER = new double[LOG_TABLE_SIZE];
+
+  private static final int EXP_TABLE_BITS = 6;
+  private static final int EXP_TABLE_SIZE = 1 << EXP_TABLE_BITS;
+  private static final double EXP_SCALE = EXP_TABLE_SIZE / Math.log(2);
+  private static final double EXP_LN2_HI = LN2_HI / EXP_TABLE_SIZE;
+  private static final double EXP_LN2_LO = LN2_LO / EXP_TABLE_SIZE;
+  // results from here on are subnormal or overflow
+  private static final double EXP_LIMIT = 708;
+  // 2^(i / 64)
+  private static final double[] EXP_TABLE = new double[EXP_TABLE_SIZE];
+
+  static {
+    for (int i = 0; i < LOG_TABLE_SIZE; ++i) {
+      double lower = Double.longBitsToDouble(LOG_OFFSET + ((long) i << (52 - LOG_TABLE_BITS)));
+      double upper = Double.longBitsToDouble(LOG_OFFSET + ((long) (i + 1) << (52 - LOG_TABLE_BITS)));
+      // exactly 1 where 1 is in the interval, so no cancellation near it
+      double center = lower <= 1 && 1 < upper ? 1 : (lower + upper) / 2;
+      LOG_CENTER[i] = center;
+      LOG_INV_CENTER[i] = 1 / center;
+      LN_CENTER[i] = Math.log(center);
+      LOG10_CENTER[i] = Math.log10(center);
+    }
+
+    for (int i = 0; i < EXP_TABLE_SIZE; ++i)
+      EXP_TABLE[i] = Math.pow(2, (double) i / EXP_TABLE_SIZE);
+  }
+
+  private FastMath() {
+  }
+
+  public static double sin(double x) {
+    if (!(Math.abs(x) < REDUCTION_LIMIT))
+      return Math.sin(x);
+    // sin(x) rounds to x, and this keeps the sign of -0
+    if (Math.abs(x) < 0x1p-26)
+      return x;
+
+    // x = r + n pi, so sin(x) = (-1)^n sin(r)
+    double shifted = x * INV_PI + ROUNDING_SHIFT;
+    double n = shifted - ROUNDING_SHIFT;
+    double r = reduce(x, n);
+    return flipSign(sinPolynomial(r), Double.doubleToRawLongBits(shifted));
+  }
+
+  public static double cos(double x) {
+    if (!(Math.abs(x) < REDUCTION_LIMIT))
+      return Math.cos(x);
+
+    // x = r + (n + 1/2) pi, so cos(x) = -(-1)^n sin(r)
+    double shifted = x * INV_PI - 0.5 + ROUNDING_SHIFT;
+    double n = shifted - ROUNDING_SHIFT;
+    double r = reduce(x, n + 0.5);
+    return flipSign(sinPolynomial(r), Double.doubleToRawLongBits(shifted) + 1);
+  }
+
+  /**
+   * x - n pi. Each product but the last is exact, and each subtraction either
+   * is exact or leaves a result large enough that the rest don't matter.
+   */
+  private static double reduce(double x, double n) {
+    double r = x - n * PI_1;
+    r -= n * PI_2;
+    r -= n * PI_3;
+    return r - n * PI_3T;
+  }
+
+  /**
+   * Negates the value if the lowest bit is set: a sign flip rather than a
+   * branch, which would be mispredicted half the time.
+   */
+  private static double flipSign(double value, long lowestBit) {
+    return Double.longBitsToDouble(Double.doubleToRawLongBits(value) ^ (lowestBit << 63));
+  }
+
+  private static double sinPolynomial(double r) {
+    double z = r * r;
+    double p = S0 + z * (S1 + z * (S2 + z * (S3 + z * (S4 + z * (S5 + z * (S6 + z * S7))))));
+    return r + r * z * p;
+  }
+
+  public static double log10(double x) {
+    if (!(x >= Double.MIN_NORMAL && x <= Double.MAX_VALUE))
+      return Math.log10(x);
+
+    long bits = Double.doubleToRawLongBits(x);
+    long offset = bits - LOG_OFFSET;
+    int i = (int) (offset >>> (52 - LOG_TABLE_BITS)) & (LOG_TABLE_SIZE - 1);
+    int exponent = (int) (offset >> 52);
+    double r = logRemainder(bits, offset, i);
+
+    return (exponent * LOG10_2_HI + LOG10_CENTER[i]) + (exponent * LOG10_2_LO + log1p(r) * INV_LN10);
+  }
+
+  public static double pow(double x, double y) {
+    if (!(x >= Double.MIN_NORMAL && x <= Double.MAX_VALUE) || !(Math.abs(y) <= Double.MAX_VALUE))
+      return Math.pow(x, y);
+
+    long bits = Double.doubleToRawLongBits(x);
+    long offset = bits - LOG_OFFSET;
+    int i = (int) (offset >>> (52 - LOG_TABLE_BITS)) & (LOG_TABLE_SIZE - 1);
+    int exponent = (int) (offset >> 52);
+    double r = logRemainder(bits, offset, i);
+    double ln = (exponent * LN2_HI + LN_CENTER[i]) + (exponent * LN2_LO + log1p(r));
+
+    double t = y * ln;
+    if (!(Math.abs(t) < EXP_LIMIT))
+      return Math.pow(x, y);
+
+    // e^t = 2^(k / 64) e^s, where |s| <= ln(2) / 128
+    double k = Math.rint(t * EXP_SCALE);
+    double s = (t - k * EXP_LN2_HI) - k * EXP_LN2_LO;
+    int n = (int) k;
+    double scale = Double.longBitsToDouble(Double.doubleToRawLongBits(EXP_TABLE[n & (EXP_TABLE_SIZE - 1)])
+        + ((long) (n >> EXP_TABLE_BITS) << 52));
+    double expm1 = s + s * s * (0.5 + s * (1.0 / 6 + s * (1.0 / 24 + s * (1.0 / 120))));
+    return scale + scale * expm1;
+  }
+
+  /**
+   * (z - c) / c for the reduced argument z of a positive, normal x, where c is
+   * the center of z's interval: z - c is exact, so this is as accurate as the
+   * division.
+   */
+  private static double logRemainder(long bits, long offset, int i) {
+    double z = Double.longBitsToDouble(bits - (offset & EXPONENT_MASK));
+    return (z - LOG_CENTER[i]) * LOG_INV_CENTER[i];
+  }
+
+  /**
+   * ln(1 + r) for |r| <= 2^-8, where the Taylor series to the seventh power
+   * is accurate to the last bit.
+   */
+  private static double log1p(double r) {
+    double p = 1.0 / 3 + r * (-1.0 / 4 + r * (1.0 / 5 + r * (-1.0 / 6 + r * (1.0 / 7))));
+    return r - 0.5 * r * r + r * r * r * p;
+  }
+}
@@ -0,0 +1,57 @@
+package com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Swaps calls to {@code sin}, {@code cos} and {@code log}, and {@code ^}, for
+ * their {@link FastMath} approximations, for scripts that can tolerate a few
+ * ulps of error in return for speed.
+ *
+ * Run it after {@link Optimizer}, so constants are still folded exactly and
+ * {@code x ^ 0.5} still becomes {@code sqrt(x)}, and after
+ * {@link Differentiator}, which can't differentiate the approximations.
+ */
+public class FastMathRewriter {
+  private static final Functions.Function SIN = Functions.lookup("fast_sin");
+  private static final Functions.Function COS = Functions.lookup("fast_cos");
+  private static final Functions.Function LOG = Functions.lookup("fast_log");
+  private static final Functions.Function POW = Functions.lookup("fast_pow");
+
+  private final Swapper swapper = new Swapper();
+
+  public Statement rewrite(Statement stmt) {
+    Expression expr = stmt.expression();
+    Expression rewritten = expr.accept(swapper);
+    return rewritten == expr ? stmt : stmt.withExpression(rewritten);
+  }
+
+  public List<Statement> rewrite(List<Statement> stmts) {
+    List<Statement> rewritten = new ArrayList<>(stmts.size());
+    for (Statement stmt : stmts)
+      rewritten.add(rewrite(stmt));
+    return rewritten;
+  }
+
+  private static class Swapper extends Expression.Rewriter {
+    @Override
+    public Expression visitPower(Expression.Power expr) {
+      return new Expression.BinaryCall(POW, expr.lhs().accept(this), expr.rhs().accept(this));
+    }
+
+    @Override
+    public Expression visitBuiltinCall(Expression.BuiltinCall expr) {
+      Expression arg = expr.argument().accept(this);
+      switch (expr.name()) {
+      case "sin":
+        return new Expression.BuiltinCall(SIN, arg);
+      case "cos":
+        return new Expression.BuiltinCall(COS, arg);
+      case "log":
+        return new Expression.BuiltinCall(LOG, arg);
+      default:
+        return arg == expr.argument() ? expr : expr.withArgument(arg);
+      }
+    }
+  }
+}
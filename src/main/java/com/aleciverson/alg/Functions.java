@@ -0,0 +1,166 @@
+package com.aleciverson.alg;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The functions scripts can call, by name. Besides the builtins, embedders can
+ * register their own, taking one or two arguments, before parsing any scripts
+ * that call them.
+ *
+ * Functions must be pure: the optimizer folds calls on constants and shares
+ * repeated calls. Calls hold the function itself, so a statement keeps calling
+ * the function it was parsed with.
+ *
+ * Functions are primitive operators and are never boxed. The builtins that are
+ * methods of {@link Math} are called directly by the compiled and VM backends.
+ * The {@link FastMath} builtins, {@code fast_sin}, {@code fast_cos},
+ * {@code fast_log} and {@code fast_pow}, are called like registered functions,
+ * and can't be differentiated.
+ */
+public final class Functions {
+  private static final Map<String, Function> registry = new ConcurrentHashMap<>();
+
+  static {
+    builtin(new Function("sin", Math::sin, null, "sin"));
+    builtin(new Function("cos", Math::cos, null, "cos"));
+    builtin(new Function("tan", Math::tan, null, "tan"));
+    builtin(new Function("asin", Math::asin, null, "asin"));
+    builtin(new Function("acos", Math::acos, null, "acos"));
+    builtin(new Function("atan", Math::atan, null, "atan"));
+    builtin(new Function("log", Math::log10, null, "log10"));
+    builtin(new Function("ln", Math::log, null, "log"));
+    builtin(new Function("exp", Math::exp, null, "exp"));
+    builtin(new Function("sqrt", Math::sqrt, null, "sqrt"));
+    builtin(new Function("abs", Math::abs, null, "abs"));
+    builtin(new Function("atan2", null, Math::atan2, "atan2"));
+    builtin(new Function("hypot", null, Math::hypot, "hypot"));
+    builtin(new Function("min", null, Math::min, "min"));
+    builtin(new Function("max", null, Math::max, "max"));
+    builtin(new Function("fast_sin", FastMath::sin, null, null));
+    builtin(new Function("fast_cos", FastMath::cos, null, null));
+    builtin(new Function("fast_log", FastMath::log10, null, null));
+    builtin(new Function("fast_pow", null, FastMath::pow, null));
+  }
+
+  private Functions() {
+  }
+
+  /**
+   * Registers a function of one argument.
+   *
+   * @throws IllegalArgumentException if the name is already taken or isn't a
+   *         valid identifier
+   */
+  public static void register(String name, DoubleUnaryOperator func) {
+    add(new Function(name, func, null, null));
+  }
+
+  /**
+   * Registers a function of two arguments.
+   *
+   * @throws IllegalArgumentException if the name is already taken or isn't a
+   *         valid identifier
+   */
+  public static void register(String name, DoubleBinaryOperator func) {
+    add(new Function(name, null, func, null));
+  }
+
+  public static boolean isDefined(String name) {
+    return registry.containsKey(name);
+  }
+
+  /**
+   * The names of every function, builtin or registered.
+   */
+  public static Set<String> names() {
+    return Set.copyOf(registry.keySet());
+  }
+
+  /**
+   * The function with the given name, or null if there isn't one.
+   */
+  static Function lookup(String name) {
+    return registry.get(name);
+  }
+
+  private static void builtin(Function function) {
+    registry.put(function.name(), function);
+  }
+
+  private static void add(Function function) {
+    String name = function.name();
+    if (!isIdentifier(name))
+      throw new IllegalArgumentException(String.format("'%s' is not a valid function name", name));
+    if (Environment.CONSTANTS.containsKey(name))
+      throw new IllegalArgumentException(String.format("'%s' is a constant", name));
+    if (registry.putIfAbsent(name, function) != null)
+      throw new IllegalArgumentException(String.format("function '%s' is already defined", name));
+  }
+
+  /**
+   * Whether the parser would read the whole name as one identifier.
+   */
+  private static boolean isIdentifier(String name) {
+    if (name.isEmpty())
+      return false;
+    for (int i = 0; i < name.length(); ++i) {
+      char ch = name.charAt(i);
+      if (!('a' <= ch && ch <= 'z' || 'A' <= ch && ch <= 'Z' || ch == '_' || i > 0 && '0' <= ch && ch <= '9'))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * A named function of one or two arguments. Exactly one of the operators is
+   * set.
+   */
+  static final class Function {
+    private final String name;
+    private final DoubleUnaryOperator unary;
+    private final DoubleBinaryOperator binary;
+    private final String mathMethod;
+
+    private Function(String name, DoubleUnaryOperator unary, DoubleBinaryOperator binary, String mathMethod) {
+      if ((unary == null) == (binary == null))
+        throw new IllegalArgumentException("a function takes either one argument or two");
+      this.name = name;
+      this.unary = unary;
+      this.binary = binary;
+      this.mathMethod = mathMethod;
+    }
+
+    String name() {
+      return name;
+    }
+
+    int arity() {
+      return unary != null ? 1 : 2;
+    }
+
+    DoubleUnaryOperator unary() {
+      return unary;
+    }
+
+    DoubleBinaryOperator binary() {
+      return binary;
+    }
+
+    /**
+     * The static method of {@link Math} taking doubles that this function is,
+     * or null for registered functions.
+     */
+    String mathMethod() {
+      return mathMethod;
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+}
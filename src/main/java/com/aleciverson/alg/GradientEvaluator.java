@@ -0,0 +1,399 @@
+package com.aleciverson.alg;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes derivatives of a whole script by automatic differentiation.
+ *
+ * {@link #record} runs the script once, recording every operation on a tape
+ * of primitive arrays: the operation, the entries it read and the value it
+ * produced. From a tape, {@link Tape#gradient} gives the derivative of one
+ * output with respect to every input in a single reverse sweep, and
+ * {@link Tape#tangents} gives the derivative of every output with respect to
+ * one input in a single forward sweep, carrying a tangent alongside each
+ * value as dual numbers do. Reverse sweeps suit many inputs and few outputs,
+ * forward sweeps the opposite.
+ *
+ * Statements are compiled to {@link VmProgram}s, and the tape records their
+ * instructions. Where a function isn't differentiable, at zero for
+ * {@code abs} or where the arguments of {@code min} or {@code max} are equal,
+ * the derivative of the side that was chosen is used. Registered functions
+ * have no known derivative, so a sweep that needs one throws
+ * {@link NotDifferentiableException}.
+ */
+public class GradientEvaluator {
+  // an entry holding an input's value; every other entry is an instruction
+  private static final int INPUT = -1;
+
+  private final SlotLayout layout = new SlotLayout();
+  private final VmProgram[] programs;
+  private final Map<String, Integer> outputs = new LinkedHashMap<>();
+  private int maxStack = 0;
+
+  public GradientEvaluator(List<Statement> stmts) {
+    // constants take the first slots, just like in an Environment
+    for (String constant : Environment.CONSTANTS.keySet())
+      layout.define(constant);
+
+    programs = new VmProgram[stmts.size()];
+    for (int i = 0; i < programs.length; ++i) {
+      Statement stmt = stmts.get(i);
+      programs[i] = VmCompiler.compile(stmt, layout);
+      maxStack = Math.max(maxStack, programs[i].maxStack());
+      if (!stmt.isTemporary())
+        outputs.putIfAbsent(stmt.outputVariable(), programs[i].outputSlot());
+    }
+  }
+
+  /**
+   * Runs the script on the given inputs, recording a tape to differentiate it
+   * with.
+   */
+  public Tape record(Map<String, Double> inputs) {
+    Tape tape = new Tape();
+
+    Environment.CONSTANTS.forEach((name, value) -> tape.current[layout.slotOf(name)] =
+        tape.add(VmProgram.CONSTANT, -1, -1, value));
+
+    for (Map.Entry<String, Double> input : inputs.entrySet()) {
+      int slot = layout.slotOf(input.getKey());
+      int entry = tape.add(INPUT, -1, -1, input.getValue());
+      tape.inputs.put(input.getKey(), entry);
+      if (slot != -1)
+        tape.current[slot] = entry;
+    }
+
+    int[] stack = new int[maxStack];
+    for (int i = 0; i < programs.length; ++i) {
+      tape.statementStarts[i] = tape.size;
+      tape.current[programs[i].outputSlot()] = tape.record(programs[i], stack);
+    }
+
+    return tape;
+  }
+
+  /**
+   * One run of the script. Every entry is a value computed along the way.
+   */
+  public class Tape {
+    private int size = 0;
+    private int[] ops = new int[64];
+    private int[] lhs = new int[64];
+    private int[] rhs = new int[64];
+    private double[] values = new double[64];
+
+    // the entry each variable's value is in, or -1
+    private final int[] current = new int[layout.size()];
+    private final Map<String, Integer> inputs = new LinkedHashMap<>();
+    private final int[] statementStarts = new int[programs.length];
+
+    // set by localPartials()
+    private double lhsPartial;
+    private double rhsPartial;
+
+    private Tape() {
+      Arrays.fill(current, -1);
+    }
+
+    /**
+     * The final value of a variable.
+     */
+    public double value(String var) {
+      return values[entryOf(var)];
+    }
+
+    /**
+     * The partial derivatives of the final value of a variable with respect
+     * to every input.
+     */
+    public Map<String, Double> gradient(String output) {
+      double[] adjoints = new double[size];
+      adjoints[entryOf(output)] = 1;
+
+      for (int i = size - 1; i >= 0; --i) {
+        double adjoint = adjoints[i];
+        if (adjoint == 0 || ops[i] == INPUT || ops[i] == VmProgram.CONSTANT)
+          continue;
+
+        localPartials(i);
+        adjoints[lhs[i]] += adjoint * lhsPartial;
+        if (rhs[i] != -1)
+          adjoints[rhs[i]] += adjoint * rhsPartial;
+      }
+
+      Map<String, Double> gradient = new LinkedHashMap<>();
+      inputs.forEach((name, entry) -> gradient.put(name, adjoints[entry]));
+      return gradient;
+    }
+
+    /**
+     * The partial derivatives of the final value of every variable the script
+     * assigns with respect to an input.
+     */
+    public Map<String, Double> tangents(String input) {
+      Integer seed = inputs.get(input);
+      if (seed == null)
+        throw new UnknownVariableException(input);
+
+      double[] tangents = new double[size];
+      tangents[seed] = 1;
+
+      for (int i = seed + 1; i < size; ++i) {
+        if (ops[i] == INPUT || ops[i] == VmProgram.CONSTANT)
+          continue;
+
+        double lhsTangent = tangents[lhs[i]];
+        double rhsTangent = rhs[i] != -1 ? tangents[rhs[i]] : 0;
+        if (lhsTangent == 0 && rhsTangent == 0)
+          continue;
+
+        localPartials(i);
+        // skip zero tangents, whose partials might be infinite or NaN
+        double tangent = 0;
+        if (lhsTangent != 0)
+          tangent += lhsPartial * lhsTangent;
+        if (rhsTangent != 0)
+          tangent += rhsPartial * rhsTangent;
+        tangents[i] = tangent;
+      }
+
+      Map<String, Double> result = new LinkedHashMap<>();
+      outputs.forEach((name, slot) -> result.put(name, tangents[current[slot]]));
+      return result;
+    }
+
+    private int entryOf(String var) {
+      int slot = layout.slotOf(var);
+      if (slot == -1 || current[slot] == -1)
+        throw new UnknownVariableException(var);
+      return current[slot];
+    }
+
+    /**
+     * Sets the partial derivatives of an entry with respect to its operands.
+     */
+    private void localPartials(int i) {
+      double x = values[lhs[i]];
+      double y = rhs[i] != -1 ? values[rhs[i]] : 0;
+      double value = values[i];
+
+      switch (ops[i] & VmProgram.OPCODE_MASK) {
+      case VmProgram.ADD:
+        lhsPartial = 1;
+        rhsPartial = 1;
+        break;
+      case VmProgram.SUBTRACT:
+        lhsPartial = 1;
+        rhsPartial = -1;
+        break;
+      case VmProgram.MULTIPLY:
+        lhsPartial = y;
+        rhsPartial = x;
+        break;
+      case VmProgram.DIVIDE:
+        lhsPartial = 1 / y;
+        rhsPartial = -value / y;
+        break;
+      case VmProgram.POWER:
+        lhsPartial = y * Math.pow(x, y - 1);
+        rhsPartial = value * Math.log(x);
+        break;
+      case VmProgram.NEGATE:
+        lhsPartial = -1;
+        break;
+      case VmProgram.SIN:
+        lhsPartial = Math.cos(x);
+        break;
+      case VmProgram.COS:
+        lhsPartial = -Math.sin(x);
+        break;
+      case VmProgram.TAN: {
+        double cos = Math.cos(x);
+        lhsPartial = 1 / (cos * cos);
+        break;
+      }
+      case VmProgram.ASIN:
+        lhsPartial = 1 / Math.sqrt(1 - x * x);
+        break;
+      case VmProgram.ACOS:
+        lhsPartial = -1 / Math.sqrt(1 - x * x);
+        break;
+      case VmProgram.ATAN:
+        lhsPartial = 1 / (1 + x * x);
+        break;
+      case VmProgram.LOG10:
+        lhsPartial = 1 / (x * Math.log(10));
+        break;
+      case VmProgram.LN:
+        lhsPartial = 1 / x;
+        break;
+      case VmProgram.EXP:
+        lhsPartial = value;
+        break;
+      case VmProgram.SQRT:
+        lhsPartial = 1 / (2 * value);
+        break;
+      case VmProgram.ABS:
+        lhsPartial = x < 0 ? -1 : 1;
+        break;
+      case VmProgram.ATAN2: {
+        double squares = x * x + y * y;
+        lhsPartial = y / squares;
+        rhsPartial = -x / squares;
+        break;
+      }
+      case VmProgram.HYPOT:
+        lhsPartial = x / value;
+        rhsPartial = y / value;
+        break;
+      case VmProgram.MIN:
+        lhsPartial = x <= y ? 1 : 0;
+        rhsPartial = 1 - lhsPartial;
+        break;
+      case VmProgram.MAX:
+        lhsPartial = x >= y ? 1 : 0;
+        rhsPartial = 1 - lhsPartial;
+        break;
+      default:
+        throw new NotDifferentiableException(functionAt(i).name());
+      }
+    }
+
+    /**
+     * The function a call entry called, found through the statement that
+     * recorded it.
+     */
+    private Functions.Function functionAt(int i) {
+      // the last statement starting at or before it, as statements that only
+      // load a variable record nothing
+      int stmt = statementStarts.length - 1;
+      while (statementStarts[stmt] > i)
+        --stmt;
+      return programs[stmt].function(ops[i]);
+    }
+
+    private int add(int op, int lhsEntry, int rhsEntry, double value) {
+      if (size == ops.length) {
+        ops = Arrays.copyOf(ops, size * 2);
+        lhs = Arrays.copyOf(lhs, size * 2);
+        rhs = Arrays.copyOf(rhs, size * 2);
+        values = Arrays.copyOf(values, size * 2);
+      }
+      ops[size] = op;
+      lhs[size] = lhsEntry;
+      rhs[size] = rhsEntry;
+      values[size] = value;
+      return size++;
+    }
+
+    /**
+     * Runs a program, with the stack holding entries rather than values, and
+     * returns the entry of its result.
+     */
+    private int record(VmProgram program, int[] stack) {
+      int[] code = program.code();
+      double[] constants = program.constants();
+      int top = -1;
+
+      for (int instruction : code) {
+        int opcode = instruction & VmProgram.OPCODE_MASK;
+        int operand = instruction >>> VmProgram.OPCODE_BITS;
+
+        switch (opcode) {
+        case VmProgram.CONSTANT:
+          stack[++top] = add(VmProgram.CONSTANT, -1, -1, constants[operand]);
+          break;
+        case VmProgram.LOAD: {
+          if (current[operand] == -1)
+            throw new UnknownVariableException(layout.name(operand));
+          stack[++top] = current[operand];
+          break;
+        }
+        case VmProgram.ADD:
+        case VmProgram.SUBTRACT:
+        case VmProgram.MULTIPLY:
+        case VmProgram.DIVIDE:
+        case VmProgram.POWER:
+        case VmProgram.ATAN2:
+        case VmProgram.HYPOT:
+        case VmProgram.MIN:
+        case VmProgram.MAX:
+        case VmProgram.CALL_BINARY: {
+          int x = stack[top - 1];
+          int y = stack[top];
+          stack[--top] = add(instruction, x, y, binary(program, instruction, values[x], values[y]));
+          break;
+        }
+        default: {
+          int x = stack[top];
+          stack[top] = add(instruction, x, -1, unary(program, instruction, values[x]));
+          break;
+        }
+        }
+      }
+
+      return stack[0];
+    }
+  }
+
+  private static double binary(VmProgram program, int instruction, double x, double y) {
+    switch (instruction & VmProgram.OPCODE_MASK) {
+    case VmProgram.ADD:
+      return x + y;
+    case VmProgram.SUBTRACT:
+      return x - y;
+    case VmProgram.MULTIPLY:
+      return x * y;
+    case VmProgram.DIVIDE:
+      return x / y;
+    case VmProgram.POWER:
+      return Math.pow(x, y);
+    case VmProgram.ATAN2:
+      return Math.atan2(x, y);
+    case VmProgram.HYPOT:
+      return Math.hypot(x, y);
+    case VmProgram.MIN:
+      return Math.min(x, y);
+    case VmProgram.MAX:
+      return Math.max(x, y);
+    default:
+      return program.function(instruction).binary().applyAsDouble(x, y);
+    }
+  }
+
+  private static double unary(VmProgram program, int instruction, double x) {
+    switch (instruction & VmProgram.OPCODE_MASK) {
+    case VmProgram.NEGATE:
+      return -x;
+    case VmProgram.SIN:
+      return Math.sin(x);
+    case VmProgram.COS:
+      return Math.cos(x);
+    case VmProgram.TAN:
+      return Math.tan(x);
+    case VmProgram.ASIN:
+      return Math.asin(x);
+    case VmProgram.ACOS:
+      return Math.acos(x);
+    case VmProgram.ATAN:
+      return Math.atan(x);
+    case VmProgram.LOG10:
+      return Math.log10(x);
+    case VmProgram.LN:
+      return Math.log(x);
+    case VmProgram.EXP:
+      return Math.exp(x);
+    case VmProgram.SQRT:
+      return Math.sqrt(x);
+    case VmProgram.ABS:
+      return Math.abs(x);
+    case VmProgram.CALL:
+      return program.function(instruction).unary().applyAsDouble(x);
+    default:
+      throw new IllegalStateException("bad opcode " + (instruction & VmProgram.OPCODE_MASK));
+    }
+  }
+}
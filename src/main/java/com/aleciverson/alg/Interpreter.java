@@ -1,18 +1,147 @@
 package com.aleciverson.alg;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs statements one at a time against a single environment. An interpreter
+ * isn't thread-safe; to run the same statements from several threads at once,
+ * make a {@link Script}.
+ */
 public class Interpreter {
+  /**
+   * How statements are evaluated.
+   */
+  public enum Backend {
+    /** Walk the expression tree. */
+    TREE,
+    /**
+     * Compile each statement to bytecode on its first run. Statements that
+     * can't be compiled are walked instead.
+     */
+    COMPILED,
+    /**
+     * Compile each statement to instructions for a stack machine on its first
+     * run. Needs no recursion, so it handles expressions of any depth.
+     */
+    VM,
+  }
+
   private Environment environment;
+  private Backend backend = Backend.TREE;
+  // the VM's operand stack, grown to fit the largest program run so far
+  private double[] stack = new double[16];
+  private InterpreterStats stats;
 
   public Interpreter(Environment env) {
     this.environment = env;
   }
 
+  public Backend getBackend() {
+    return backend;
+  }
+
+  public void setBackend(Backend backend) {
+    this.backend = backend;
+  }
+
+  public InterpreterStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Starts recording how often each statement is run and how long it takes,
+   * or stops with null. While recording, each statement run also emits a JFR
+   * {@code com.aleciverson.alg.Evaluate} event if a recording enables it.
+   */
+  public void setStats(InterpreterStats stats) {
+    this.stats = stats;
+  }
+
   public double run(Statement stmt) {
-    double value = stmt.resolve(environment);
-    environment.set(stmt.outputVariable(), value);
+    if (stats != null)
+      return runInstrumented(stmt);
+    return evaluate(stmt);
+  }
+
+  private double runInstrumented(Statement stmt) {
+    EvaluateEvent event = new EvaluateEvent();
+    event.begin();
+    long start = System.nanoTime();
+
+    double value = evaluate(stmt);
+
+    stats.record(stmt, System.nanoTime() - start);
+    event.end();
+    if (event.shouldCommit()) {
+      event.variable = stmt.outputVariable();
+      event.backend = backend.name();
+      event.commit();
+    }
     return value;
   }
 
+  private double evaluate(Statement stmt) {
+    if (backend == Backend.VM) {
+      VmProgram program = stmt.program(environment);
+      if (program.maxStack() > stack.length)
+        stack = new double[Math.max(program.maxStack(), stack.length * 2)];
+
+      double value = program.execute(environment, stack);
+      environment.set(program.outputSlot(), stmt.outputVariable(), value);
+      return value;
+    }
+
+    if (!environment.layout().covers(stmt.layout()))
+      stmt = stmt.bound(environment);
+
+    double value;
+    CompiledStatement compiled = backend == Backend.COMPILED ? stmt.compiled() : null;
+    if (compiled != null)
+      value = compiled.resolve(environment);
+    else
+      value = stmt.resolve(environment);
+
+    environment.set(stmt.outputSlot(), stmt.outputVariable(), value);
+    return value;
+  }
+
+  /**
+   * Binds the statement's variables to slots in this interpreter's environment.
+   * Running a bound statement skips every by-name variable lookup, so bind once
+   * up front when the same statement is run repeatedly.
+   *
+   * With the VM backend, binding compiles the statement instead, and returns
+   * it as is.
+   */
+  public Statement bind(Statement stmt) {
+    if (backend == Backend.VM) {
+      stmt.program(environment);
+      return stmt;
+    }
+
+    Statement bound = stmt.bind(environment.writableLayout());
+    environment.ensureCapacity();
+    return bound;
+  }
+
+  public List<Statement> bind(List<Statement> stmts) {
+    if (backend == Backend.VM) {
+      for (Statement stmt : stmts)
+        stmt.program(environment);
+      return stmts;
+    }
+
+    List<Statement> bound = new ArrayList<>(stmts.size());
+    SlotLayout layout = environment.writableLayout();
+
+    for (Statement stmt : stmts)
+      bound.add(stmt.bind(layout));
+
+    environment.ensureCapacity();
+    return bound;
+  }
+
   public double get(String var) {
     return environment.get(var);
   }
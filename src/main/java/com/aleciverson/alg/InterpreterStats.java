@@ -0,0 +1,216 @@
+package com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts how often an {@link Interpreter} runs each statement, how long those
+ * runs take in total, and how many nodes of each type they evaluate.
+ *
+ * Attach one with {@link Interpreter#setStats}; an interpreter without one
+ * pays for a single null check per statement. Statements are told apart by
+ * identity, so parse each once, or take them from a {@link StatementCache},
+ * to get a count per statement rather than per parse. Like interpreters,
+ * stats aren't thread-safe.
+ */
+public final class InterpreterStats {
+  private static final String[] NODE_TYPES = {
+      "Value", "Variable", "Addition", "Subtraction", "Multiplication", "Division", "Power", "Negative",
+      "BuiltinCall", "BinaryCall",
+  };
+
+  // statements don't override equals, so this is keyed by identity, in the
+  // order they were first run
+  private final Map<Statement, Counter> statements = new LinkedHashMap<>();
+
+  void record(Statement stmt, long nanos) {
+    Counter counter = statements.get(stmt);
+    if (counter == null) {
+      counter = new Counter(stmt);
+      statements.put(stmt, counter);
+    }
+    ++counter.invocations;
+    counter.nanos += nanos;
+  }
+
+  public void reset() {
+    statements.clear();
+  }
+
+  /**
+   * The counts so far. Later runs don't change a snapshot.
+   */
+  public Snapshot snapshot() {
+    List<StatementStats> stats = new ArrayList<>(statements.size());
+    long[] nodes = new long[NODE_TYPES.length];
+
+    for (Counter counter : statements.values()) {
+      stats.add(new StatementStats(counter.variable, counter.invocations, counter.nanos));
+      for (int i = 0; i < nodes.length; ++i)
+        nodes[i] += counter.nodes[i] * counter.invocations;
+    }
+
+    Map<String, Long> nodeCounts = new LinkedHashMap<>();
+    for (int i = 0; i < nodes.length; ++i) {
+      if (nodes[i] != 0)
+        nodeCounts.put(NODE_TYPES[i], nodes[i]);
+    }
+
+    return new Snapshot(Collections.unmodifiableList(stats), Collections.unmodifiableMap(nodeCounts));
+  }
+
+  public static final class Snapshot {
+    private final List<StatementStats> statements;
+    private final Map<String, Long> nodeCounts;
+
+    private Snapshot(List<StatementStats> statements, Map<String, Long> nodeCounts) {
+      this.statements = statements;
+      this.nodeCounts = nodeCounts;
+    }
+
+    /**
+     * Every statement run, in the order each was first run.
+     */
+    public List<StatementStats> statements() {
+      return statements;
+    }
+
+    /**
+     * How many nodes of each expression type were evaluated, by type, leaving
+     * out types that never were. Every run of a statement evaluates each of
+     * its nodes once, whatever the backend.
+     */
+    public Map<String, Long> nodeCounts() {
+      return nodeCounts;
+    }
+
+    public long invocations() {
+      long total = 0;
+      for (StatementStats stats : statements)
+        total += stats.invocations();
+      return total;
+    }
+
+    public long nanos() {
+      long total = 0;
+      for (StatementStats stats : statements)
+        total += stats.nanos();
+      return total;
+    }
+  }
+
+  public static final class StatementStats {
+    private final String variable;
+    private final long invocations;
+    private final long nanos;
+
+    private StatementStats(String variable, long invocations, long nanos) {
+      this.variable = variable;
+      this.invocations = invocations;
+      this.nanos = nanos;
+    }
+
+    /**
+     * The variable the statement assigns.
+     */
+    public String variable() {
+      return variable;
+    }
+
+    public long invocations() {
+      return invocations;
+    }
+
+    /**
+     * The total time spent running the statement.
+     */
+    public long nanos() {
+      return nanos;
+    }
+  }
+
+  private static final class Counter {
+    final String variable;
+    // the statement's nodes, by index into NODE_TYPES
+    final int[] nodes = new int[NODE_TYPES.length];
+    long invocations;
+    long nanos;
+
+    Counter(Statement stmt) {
+      variable = stmt.outputVariable();
+      stmt.expression().accept(new NodeTypeCounter(nodes));
+    }
+  }
+
+  private static final class NodeTypeCounter implements Expression.Visitor<Void> {
+    private final int[] nodes;
+
+    NodeTypeCounter(int[] nodes) {
+      this.nodes = nodes;
+    }
+
+    private Void binary(int type, Expression lhs, Expression rhs) {
+      ++nodes[type];
+      lhs.accept(this);
+      rhs.accept(this);
+      return null;
+    }
+
+    @Override
+    public Void visitValue(Expression.Value expr) {
+      ++nodes[0];
+      return null;
+    }
+
+    @Override
+    public Void visitVariable(Expression.Variable expr) {
+      ++nodes[1];
+      return null;
+    }
+
+    @Override
+    public Void visitAddition(Expression.Addition expr) {
+      return binary(2, expr.lhs(), expr.rhs());
+    }
+
+    @Override
+    public Void visitSubtraction(Expression.Subtraction expr) {
+      return binary(3, expr.lhs(), expr.rhs());
+    }
+
+    @Override
+    public Void visitMultiplication(Expression.Multiplication expr) {
+      return binary(4, expr.lhs(), expr.rhs());
+    }
+
+    @Override
+    public Void visitDivision(Expression.Division expr) {
+      return binary(5, expr.lhs(), expr.rhs());
+    }
+
+    @Override
+    public Void visitPower(Expression.Power expr) {
+      return binary(6, expr.lhs(), expr.rhs());
+    }
+
+    @Override
+    public Void visitNegative(Expression.Negative expr) {
+      ++nodes[7];
+      return expr.rhs().accept(this);
+    }
+
+    @Override
+    public Void visitBuiltinCall(Expression.BuiltinCall expr) {
+      ++nodes[8];
+      return expr.argument().accept(this);
+    }
+
+    @Override
+    public Void visitBinaryCall(Expression.BinaryCall expr) {
+      return binary(9, expr.lhs(), expr.rhs());
+    }
+  }
+}
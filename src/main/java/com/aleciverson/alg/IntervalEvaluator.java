@@ -0,0 +1,423 @@
+package com.aleciverson.alg;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Evaluates a script over intervals: given lower and upper bounds for its
+ * inputs, it computes bounds that every value the script could produce from
+ * inputs within them lies between. That's enough to rule out whole regions
+ * of inputs before evaluating any points in them.
+ *
+ * Bounds live in a pair of {@code double[]}s indexed by {@link #slotOf slot},
+ * and {@link #run} evaluates in place, allocating nothing, so it's cheap to
+ * call in a tight loop. An evaluator reuses its own stacks, so it can't be
+ * shared between threads.
+ *
+ * Bounds are rounded outwards after every rounded operation, so they always
+ * hold the exact result. They aren't always tight: each occurrence of a
+ * variable is treated as independent, so e.g. {@code x * x} over [-1, 2] gives
+ * [-2, 4] where {@code x ^ 2} gives [0, 4]. Where an operation is only defined
+ * on part of an interval, e.g. {@code sqrt} of [-1, 4], only that part is
+ * used; if it's defined nowhere, the result is empty, with both bounds NaN.
+ * Registered functions could return anything, so they give (-inf, inf).
+ */
+public class IntervalEvaluator {
+  private static final double TWO_PI = 2 * Math.PI;
+  private static final double HALF_PI = Math.PI / 2;
+
+  // periodic functions give their whole range beyond this, where the period
+  // can no longer be located precisely enough
+  private static final double LARGE_ARGUMENT = 1e7;
+  // how far, in periods, an interval may miss an extremum and still be
+  // assumed to hold it, allowing for rounding
+  private static final double PERIOD_SLACK = 1e-9;
+
+  private final SlotLayout layout = new SlotLayout();
+  private final VmProgram[] programs;
+  private final double[] constants;
+  private final double[] stackLower;
+  private final double[] stackUpper;
+
+  public IntervalEvaluator(List<Statement> stmts) {
+    // constants take the first slots, just like in an Environment
+    constants = new double[Environment.CONSTANTS.size()];
+    for (Map.Entry<String, Double> constant : Environment.CONSTANTS.entrySet())
+      constants[layout.define(constant.getKey())] = constant.getValue();
+
+    programs = new VmProgram[stmts.size()];
+    int maxStack = 0;
+    for (int i = 0; i < programs.length; ++i) {
+      programs[i] = VmCompiler.compile(stmts.get(i), layout);
+      maxStack = Math.max(maxStack, programs[i].maxStack());
+    }
+
+    stackLower = new double[maxStack];
+    stackUpper = new double[maxStack];
+  }
+
+  /**
+   * The index of a variable's bounds, or -1 if the script doesn't use it.
+   */
+  public int slotOf(String var) {
+    return layout.slotOf(var);
+  }
+
+  /**
+   * The length the bounds arrays must be.
+   */
+  public int size() {
+    return layout.size();
+  }
+
+  /**
+   * Runs the script over intervals. Each input's bounds must be set at its
+   * slot first; each statement then overwrites its output's.
+   */
+  public void run(double[] lower, double[] upper) {
+    if (lower.length < size() || upper.length < size())
+      throw new IllegalArgumentException(String.format("bounds must have room for %d slots", size()));
+
+    System.arraycopy(constants, 0, lower, 0, constants.length);
+    System.arraycopy(constants, 0, upper, 0, constants.length);
+
+    for (VmProgram program : programs) {
+      run(program, lower, upper);
+      lower[program.outputSlot()] = stackLower[0];
+      upper[program.outputSlot()] = stackUpper[0];
+    }
+  }
+
+  private void run(VmProgram program, double[] lower, double[] upper) {
+    double[] lo = stackLower;
+    double[] hi = stackUpper;
+    double[] constants = program.constants();
+    int top = -1;
+
+    for (int instruction : program.code()) {
+      int operand = instruction >>> VmProgram.OPCODE_BITS;
+      switch (instruction & VmProgram.OPCODE_MASK) {
+      case VmProgram.CONSTANT:
+        ++top;
+        lo[top] = constants[operand];
+        hi[top] = constants[operand];
+        break;
+      case VmProgram.LOAD:
+        ++top;
+        lo[top] = lower[operand];
+        hi[top] = upper[operand];
+        break;
+      case VmProgram.ADD:
+        --top;
+        set(top, down(lo[top] + lo[top + 1]), up(hi[top] + hi[top + 1]));
+        break;
+      case VmProgram.SUBTRACT:
+        --top;
+        set(top, down(lo[top] - hi[top + 1]), up(hi[top] - lo[top + 1]));
+        break;
+      case VmProgram.MULTIPLY:
+        --top;
+        multiply(top, lo[top + 1], hi[top + 1]);
+        break;
+      case VmProgram.DIVIDE:
+        --top;
+        reciprocal(top + 1);
+        multiply(top, lo[top + 1], hi[top + 1]);
+        break;
+      case VmProgram.POWER:
+        --top;
+        power(top);
+        break;
+      case VmProgram.NEGATE:
+        set(top, -hi[top], -lo[top]);
+        break;
+      case VmProgram.SIN:
+        periodic(top, HALF_PI, -HALF_PI, true);
+        break;
+      case VmProgram.COS:
+        periodic(top, 0, Math.PI, false);
+        break;
+      case VmProgram.TAN:
+        tangent(top);
+        break;
+      case VmProgram.ASIN:
+        if (restrict(top, -1, 1))
+          set(top, down(Math.asin(lo[top])), up(Math.asin(hi[top])));
+        break;
+      case VmProgram.ACOS:
+        if (restrict(top, -1, 1))
+          set(top, down(Math.acos(hi[top])), up(Math.acos(lo[top])));
+        break;
+      case VmProgram.ATAN:
+        set(top, down(Math.atan(lo[top])), up(Math.atan(hi[top])));
+        break;
+      case VmProgram.LOG10:
+        if (restrict(top, 0, Double.POSITIVE_INFINITY))
+          set(top, down(Math.log10(lo[top])), up(Math.log10(hi[top])));
+        break;
+      case VmProgram.LN:
+        if (restrict(top, 0, Double.POSITIVE_INFINITY))
+          set(top, down(Math.log(lo[top])), up(Math.log(hi[top])));
+        break;
+      case VmProgram.EXP:
+        set(top, Math.max(0, down(Math.exp(lo[top]))), up(Math.exp(hi[top])));
+        break;
+      case VmProgram.SQRT:
+        if (restrict(top, 0, Double.POSITIVE_INFINITY))
+          set(top, Math.max(0, down(Math.sqrt(lo[top]))), up(Math.sqrt(hi[top])));
+        break;
+      case VmProgram.ABS:
+        absolute(top);
+        break;
+      case VmProgram.ATAN2:
+        --top;
+        atan2(top);
+        break;
+      case VmProgram.HYPOT:
+        --top;
+        absolute(top);
+        absolute(top + 1);
+        set(top, down(Math.hypot(lo[top], lo[top + 1])), up(Math.hypot(hi[top], hi[top + 1])));
+        break;
+      case VmProgram.MIN:
+        --top;
+        set(top, Math.min(lo[top], lo[top + 1]), Math.min(hi[top], hi[top + 1]));
+        break;
+      case VmProgram.MAX:
+        --top;
+        set(top, Math.max(lo[top], lo[top + 1]), Math.max(hi[top], hi[top + 1]));
+        break;
+      case VmProgram.CALL:
+        set(top, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        break;
+      case VmProgram.CALL_BINARY:
+        --top;
+        set(top, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        break;
+      default:
+        throw new IllegalStateException("bad opcode " + (instruction & VmProgram.OPCODE_MASK));
+      }
+    }
+  }
+
+  private void set(int i, double lower, double upper) {
+    stackLower[i] = lower;
+    stackUpper[i] = upper;
+  }
+
+  private void empty(int i) {
+    set(i, Double.NaN, Double.NaN);
+  }
+
+  /**
+   * Narrows an interval to a function's domain, emptying it if they don't
+   * overlap. Returns whether anything is left.
+   */
+  private boolean restrict(int i, double min, double max) {
+    double lower = stackLower[i];
+    double upper = stackUpper[i];
+    if (!(upper >= min && lower <= max)) {
+      empty(i);
+      return false;
+    }
+    set(i, Math.max(lower, min), Math.min(upper, max));
+    return true;
+  }
+
+  /**
+   * Multiplies an interval by another given by its bounds.
+   */
+  private void multiply(int i, double lower, double upper) {
+    // zero times anything is exactly zero, even where the other is unbounded
+    boolean empty = Double.isNaN(lower) || Double.isNaN(upper)
+        || Double.isNaN(stackLower[i]) || Double.isNaN(stackUpper[i]);
+    if (!empty && (lower == 0 && upper == 0 || stackLower[i] == 0 && stackUpper[i] == 0)) {
+      set(i, 0, 0);
+      return;
+    }
+
+    double a = times(stackLower[i], lower);
+    double b = times(stackLower[i], upper);
+    double c = times(stackUpper[i], lower);
+    double d = times(stackUpper[i], upper);
+    set(i, down(Math.min(Math.min(a, b), Math.min(c, d))), up(Math.max(Math.max(a, b), Math.max(c, d))));
+  }
+
+  /**
+   * A product where zero times infinity is zero, since an infinite bound is
+   * only ever approached.
+   */
+  private static double times(double x, double y) {
+    return x == 0 || y == 0 ? 0 : x * y;
+  }
+
+  /**
+   * Replaces an interval with the bounds of one over it. Where it only
+   * touches zero, one side is unbounded; where it straddles zero, both are.
+   */
+  private void reciprocal(int i) {
+    double lower = stackLower[i];
+    double upper = stackUpper[i];
+
+    if (Double.isNaN(lower) || Double.isNaN(upper) || lower == 0 && upper == 0)
+      empty(i);
+    else if (lower > 0 || upper < 0)
+      set(i, down(1 / upper), up(1 / lower));
+    else if (lower == 0)
+      set(i, down(1 / upper), Double.POSITIVE_INFINITY);
+    else if (upper == 0)
+      set(i, Double.NEGATIVE_INFINITY, up(1 / lower));
+    else
+      set(i, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+  }
+
+  private void power(int i) {
+    double exponentLower = stackLower[i + 1];
+    double exponentUpper = stackUpper[i + 1];
+
+    if (exponentLower == exponentUpper && exponentLower == Math.rint(exponentLower)
+        && !Double.isInfinite(exponentLower)) {
+      integerPower(i, exponentLower);
+      return;
+    }
+
+    // the rest is only defined for a negative base at integer exponents
+    if (stackLower[i] < 0) {
+      if (Math.floor(exponentUpper) >= Math.ceil(exponentLower)) {
+        set(i, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        return;
+      }
+      if (!restrict(i, 0, Double.POSITIVE_INFINITY))
+        return;
+    }
+
+    // with a base of at least zero, powers are monotonic in each argument, so
+    // the corners bound them
+    double a = Math.pow(stackLower[i], exponentLower);
+    double b = Math.pow(stackLower[i], exponentUpper);
+    double c = Math.pow(stackUpper[i], exponentLower);
+    double d = Math.pow(stackUpper[i], exponentUpper);
+    set(i, Math.max(0, down(Math.min(Math.min(a, b), Math.min(c, d)))),
+        up(Math.max(Math.max(a, b), Math.max(c, d))));
+  }
+
+  private void integerPower(int i, double n) {
+    if (n == 0) {
+      set(i, 1, 1);
+      return;
+    }
+
+    double lower = stackLower[i];
+    double upper = stackUpper[i];
+    double magnitude = Math.abs(n);
+
+    if (magnitude % 2 == 1)
+      set(i, down(Math.pow(lower, magnitude)), up(Math.pow(upper, magnitude)));
+    else if (lower >= 0)
+      set(i, Math.max(0, down(Math.pow(lower, magnitude))), up(Math.pow(upper, magnitude)));
+    else if (upper <= 0)
+      set(i, Math.max(0, down(Math.pow(upper, magnitude))), up(Math.pow(lower, magnitude)));
+    else
+      set(i, 0, up(Math.pow(Math.max(-lower, upper), magnitude)));
+
+    if (n < 0)
+      reciprocal(i);
+  }
+
+  /**
+   * Sine or cosine: monotonic between extrema, so the bounds are the ends'
+   * values unless the interval holds a maximum or minimum, at
+   * {@code maximum + 2k pi} or {@code minimum + 2k pi}.
+   */
+  private void periodic(int i, double maximum, double minimum, boolean sine) {
+    double lower = stackLower[i];
+    double upper = stackUpper[i];
+
+    if (Double.isNaN(lower) || Double.isNaN(upper)) {
+      empty(i);
+      return;
+    }
+    if (upper - lower >= TWO_PI || Math.abs(lower) > LARGE_ARGUMENT || Math.abs(upper) > LARGE_ARGUMENT) {
+      set(i, -1, 1);
+      return;
+    }
+
+    double a = sine ? Math.sin(lower) : Math.cos(lower);
+    double b = sine ? Math.sin(upper) : Math.cos(upper);
+    double min = containsPeriodic(lower, upper, minimum, TWO_PI) ? -1 : Math.max(-1, down(Math.min(a, b)));
+    double max = containsPeriodic(lower, upper, maximum, TWO_PI) ? 1 : Math.min(1, up(Math.max(a, b)));
+    set(i, min, max);
+  }
+
+  private void tangent(int i) {
+    double lower = stackLower[i];
+    double upper = stackUpper[i];
+
+    if (Double.isNaN(lower) || Double.isNaN(upper)) {
+      empty(i);
+      return;
+    }
+    // tan is increasing between its asymptotes at pi/2 + k pi
+    if (upper - lower >= Math.PI || Math.abs(lower) > LARGE_ARGUMENT || Math.abs(upper) > LARGE_ARGUMENT
+        || containsPeriodic(lower, upper, HALF_PI, Math.PI)) {
+      set(i, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+      return;
+    }
+
+    set(i, down(Math.tan(lower)), up(Math.tan(upper)));
+  }
+
+  /**
+   * Whether [lower, upper] holds {@code offset + k period} for some integer k,
+   * erring towards yes.
+   */
+  private static boolean containsPeriodic(double lower, double upper, double offset, double period) {
+    double first = Math.ceil((lower - offset) / period - PERIOD_SLACK);
+    return first <= (upper - offset) / period + PERIOD_SLACK;
+  }
+
+  private void absolute(int i) {
+    double lower = stackLower[i];
+    double upper = stackUpper[i];
+    if (lower >= 0 || Double.isNaN(lower) || Double.isNaN(upper))
+      return;
+    if (upper <= 0)
+      set(i, -upper, -lower);
+    else
+      set(i, 0, Math.max(-lower, upper));
+  }
+
+  /**
+   * atan2(y, x) is continuous on boxes away from the origin and the negative
+   * x axis, where the angle jumps from pi to -pi, and the corners bound it.
+   */
+  private void atan2(int i) {
+    double yLower = stackLower[i];
+    double yUpper = stackUpper[i];
+    double xLower = stackLower[i + 1];
+    double xUpper = stackUpper[i + 1];
+
+    if (Double.isNaN(yLower) || Double.isNaN(yUpper) || Double.isNaN(xLower) || Double.isNaN(xUpper)) {
+      empty(i);
+      return;
+    }
+    if (xLower < 0 && yLower < 0 && yUpper >= 0 || xLower <= 0 && xUpper >= 0 && yLower <= 0 && yUpper >= 0) {
+      set(i, down(-Math.PI), up(Math.PI));
+      return;
+    }
+
+    double a = Math.atan2(yLower, xLower);
+    double b = Math.atan2(yLower, xUpper);
+    double c = Math.atan2(yUpper, xLower);
+    double d = Math.atan2(yUpper, xUpper);
+    set(i, down(Math.min(Math.min(a, b), Math.min(c, d))), up(Math.max(Math.max(a, b), Math.max(c, d))));
+  }
+
+  private static double down(double value) {
+    return Math.nextDown(value);
+  }
+
+  private static double up(double value) {
+    return Math.nextUp(value);
+  }
+}
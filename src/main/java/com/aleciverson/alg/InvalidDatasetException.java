@@ -0,0 +1,7 @@
+package com.aleciverson.alg;
+
+public class InvalidDatasetException extends RuntimeException {
+  public InvalidDatasetException(String file, String reason) {
+    super(String.format("invalid dataset '%s': %s", file, reason));
+  }
+}
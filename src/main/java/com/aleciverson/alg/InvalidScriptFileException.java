@@ -0,0 +1,7 @@
+package com.aleciverson.alg;
+
+public class InvalidScriptFileException extends RuntimeException {
+  public InvalidScriptFileException(String file, String reason) {
+    super(String.format("invalid script file '%s': %s", file, reason));
+  }
+}
@@ -0,0 +1,76 @@
+package com.aleciverson.alg;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in log-linear buckets, for percentiles that are cheap to
+ * record from many threads at once: recording is one atomic increment, with no
+ * locking or allocation.
+ *
+ * Each power of two is split into {@value #SUB_BUCKETS} buckets, so a
+ * percentile is reported as the upper end of its bucket, at most an eighth
+ * above the true value.
+ */
+class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+  void record(long nanos) {
+    counts.incrementAndGet(bucket(Math.max(nanos, 0)));
+  }
+
+  long count() {
+    long total = 0;
+    for (int i = 0; i < counts.length(); ++i)
+      total += counts.get(i);
+    return total;
+  }
+
+  /**
+   * The duration that the given fraction of recorded durations are at most,
+   * or 0 if none have been recorded.
+   */
+  long percentile(double fraction) {
+    long[] snapshot = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < snapshot.length; ++i) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0)
+      return 0;
+
+    long rank = Math.max(1, (long) Math.ceil(fraction * total));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; ++i) {
+      seen += snapshot[i];
+      if (seen >= rank)
+        return upperBound(i);
+    }
+    return upperBound(snapshot.length - 1);
+  }
+
+  /**
+   * Values below {@link #SUB_BUCKETS} get a bucket each; above that, the
+   * bucket is the value's power of two and its next {@link #SUB_BUCKET_BITS}
+   * bits.
+   */
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS)
+      return (int) value;
+    int magnitude = 63 - Long.numberOfLeadingZeros(value);
+    int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  private static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS)
+      return bucket;
+    int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long sub = bucket % SUB_BUCKETS;
+    long width = 1L << (magnitude - SUB_BUCKET_BITS);
+    return (1L << magnitude) + (sub + 1) * width - 1;
+  }
+}
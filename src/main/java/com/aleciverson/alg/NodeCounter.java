@@ -0,0 +1,60 @@
+package com.aleciverson.alg;
+
+/**
+ * Counts the nodes in an expression tree.
+ */
+class NodeCounter implements Expression.Visitor<Integer> {
+  public static int count(Expression expr) {
+    return expr.accept(new NodeCounter());
+  }
+
+  @Override
+  public Integer visitValue(Expression.Value expr) {
+    return 1;
+  }
+
+  @Override
+  public Integer visitVariable(Expression.Variable expr) {
+    return 1;
+  }
+
+  @Override
+  public Integer visitAddition(Expression.Addition expr) {
+    return 1 + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitSubtraction(Expression.Subtraction expr) {
+    return 1 + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitMultiplication(Expression.Multiplication expr) {
+    return 1 + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitDivision(Expression.Division expr) {
+    return 1 + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitPower(Expression.Power expr) {
+    return 1 + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitNegative(Expression.Negative expr) {
+    return 1 + expr.rhs().accept(this);
+  }
+
+  @Override
+  public Integer visitBuiltinCall(Expression.BuiltinCall expr) {
+    return 1 + expr.argument().accept(this);
+  }
+
+  @Override
+  public Integer visitBinaryCall(Expression.BinaryCall expr) {
+    return 1 + expr.lhs().accept(this) + expr.rhs().accept(this);
+  }
+}
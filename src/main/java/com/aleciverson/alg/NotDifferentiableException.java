@@ -0,0 +1,7 @@
+package com.aleciverson.alg;
+
+public class NotDifferentiableException extends RuntimeException {
+  public NotDifferentiableException(String function) {
+    super(String.format("function '%s' has no known derivative", function));
+  }
+}
@@ -0,0 +1,211 @@
+package com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simplifies parsed statements before they're run: folds constant subtrees,
+ * including the built-in constants such as pi, and rewrites operations into
+ * cheaper equivalents. Optimized statements never read the built-in constants
+ * from their environment, so setting one there has no effect on them.
+ *
+ * Every rewrite gives bit-identical results, with one exception:
+ * {@code x ^ 0.5} becomes {@code sqrt(x)}, which differs from {@code Math.pow}
+ * only for -0 and negative infinity.
+ *
+ * The optimizer keeps a running count of nodes seen and nodes produced, across
+ * every statement it has optimized.
+ */
+public class Optimizer {
+  private static final Functions.Function SQRT = Functions.lookup("sqrt");
+
+  private final Folder folder = new Folder();
+  private long nodesBefore = 0;
+  private long nodesAfter = 0;
+
+  public Statement optimize(Statement stmt) {
+    Expression expr = stmt.expression();
+    Expression optimized = expr.accept(folder);
+
+    nodesBefore += NodeCounter.count(expr);
+    nodesAfter += NodeCounter.count(optimized);
+
+    return optimized == expr ? stmt : stmt.withExpression(optimized);
+  }
+
+  public List<Statement> optimize(List<Statement> stmts) {
+    List<Statement> optimized = new ArrayList<>(stmts.size());
+
+    for (Statement stmt : stmts)
+      optimized.add(optimize(stmt));
+
+    return optimized;
+  }
+
+  /**
+   * The number of expression nodes in every statement before optimizing.
+   */
+  public long nodesBefore() {
+    return nodesBefore;
+  }
+
+  /**
+   * The number of expression nodes in every statement after optimizing.
+   */
+  public long nodesAfter() {
+    return nodesAfter;
+  }
+
+  /**
+   * Whether an expression is exactly the constant, telling 0 and -0 apart.
+   */
+  private static boolean isValue(Expression expr, double value) {
+    return expr instanceof Expression.Value && Double.compare(((Expression.Value) expr).constant(), value) == 0;
+  }
+
+  private static double constant(Expression expr) {
+    return ((Expression.Value) expr).constant();
+  }
+
+  private static class Folder extends Expression.Rewriter {
+    @Override
+    public Expression visitVariable(Expression.Variable expr) {
+      Double constant = Environment.CONSTANTS.get(expr.name());
+      return constant != null ? new Expression.Value(constant) : expr;
+    }
+
+    @Override
+    public Expression visitAddition(Expression.Addition expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+
+      if (lhs instanceof Expression.Value && rhs instanceof Expression.Value)
+        return new Expression.Value(constant(lhs) + constant(rhs));
+
+      // a + -b is exactly a - b
+      if (rhs instanceof Expression.Negative)
+        return new Expression.Subtraction(lhs, ((Expression.Negative) rhs).rhs());
+      if (lhs instanceof Expression.Negative)
+        return new Expression.Subtraction(rhs, ((Expression.Negative) lhs).rhs());
+
+      // x + 0 isn't folded: -0 + 0 is 0, not -0
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Expression.Addition(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitSubtraction(Expression.Subtraction expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+
+      if (lhs instanceof Expression.Value && rhs instanceof Expression.Value)
+        return new Expression.Value(constant(lhs) - constant(rhs));
+
+      if (isValue(rhs, 0))
+        return lhs;
+      if (rhs instanceof Expression.Negative)
+        return new Expression.Addition(lhs, ((Expression.Negative) rhs).rhs());
+
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Expression.Subtraction(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitMultiplication(Expression.Multiplication expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+
+      if (lhs instanceof Expression.Value && rhs instanceof Expression.Value)
+        return new Expression.Value(constant(lhs) * constant(rhs));
+
+      if (isValue(lhs, 1))
+        return rhs;
+      if (isValue(rhs, 1))
+        return lhs;
+      if (isValue(lhs, -1))
+        return negate(rhs);
+      if (isValue(rhs, -1))
+        return negate(lhs);
+      if (lhs instanceof Expression.Negative && rhs instanceof Expression.Negative)
+        return new Expression.Multiplication(((Expression.Negative) lhs).rhs(), ((Expression.Negative) rhs).rhs());
+
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Expression.Multiplication(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitDivision(Expression.Division expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+
+      if (lhs instanceof Expression.Value && rhs instanceof Expression.Value)
+        return new Expression.Value(constant(lhs) / constant(rhs));
+
+      if (isValue(rhs, 1))
+        return lhs;
+      if (isValue(rhs, -1))
+        return negate(lhs);
+      if (lhs instanceof Expression.Negative && rhs instanceof Expression.Negative)
+        return new Expression.Division(((Expression.Negative) lhs).rhs(), ((Expression.Negative) rhs).rhs());
+
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Expression.Division(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitPower(Expression.Power expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+
+      if (lhs instanceof Expression.Value && rhs instanceof Expression.Value)
+        return new Expression.Value(Math.pow(constant(lhs), constant(rhs)));
+
+      if (isValue(rhs, 0))
+        return new Expression.Value(1);
+      if (isValue(rhs, 1))
+        return lhs;
+      if (isValue(rhs, 0.5))
+        return new Expression.BuiltinCall(SQRT, lhs);
+      // only worth it when the base is cheap, since it's evaluated twice
+      if (isValue(rhs, 2) && lhs instanceof Expression.Variable)
+        return new Expression.Multiplication(lhs, lhs);
+
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Expression.Power(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitNegative(Expression.Negative expr) {
+      Expression rhs = expr.rhs().accept(this);
+
+      if (rhs == expr.rhs() && !(rhs instanceof Expression.Value) && !(rhs instanceof Expression.Negative))
+        return expr;
+
+      return negate(rhs);
+    }
+
+    @Override
+    public Expression visitBuiltinCall(Expression.BuiltinCall expr) {
+      Expression arg = expr.argument().accept(this);
+
+      if (arg instanceof Expression.Value)
+        return new Expression.Value(expr.apply(constant(arg)));
+
+      return arg == expr.argument() ? expr : expr.withArgument(arg);
+    }
+
+    @Override
+    public Expression visitBinaryCall(Expression.BinaryCall expr) {
+      Expression lhs = expr.lhs().accept(this);
+      Expression rhs = expr.rhs().accept(this);
+
+      if (lhs instanceof Expression.Value && rhs instanceof Expression.Value)
+        return new Expression.Value(expr.apply(constant(lhs), constant(rhs)));
+
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : expr.withArguments(lhs, rhs);
+    }
+
+    private static Expression negate(Expression expr) {
+      if (expr instanceof Expression.Value)
+        return new Expression.Value(-1 * constant(expr));
+      if (expr instanceof Expression.Negative)
+        return ((Expression.Negative) expr).rhs();
+      return new Expression.Negative(expr);
+    }
+  }
+}
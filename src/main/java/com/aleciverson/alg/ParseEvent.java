@@ -0,0 +1,22 @@
+package com.aleciverson.alg;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A JFR event for each call to {@link Parser}'s entry points. Costs next to
+ * nothing unless a recording enables it.
+ */
+@Name("com.aleciverson.alg.Parse")
+@Label("Parse")
+@Category("Alg")
+@Description("Parsing one or more statements")
+class ParseEvent extends jdk.jfr.Event {
+  @Label("Statements")
+  int statements;
+
+  @Label("Characters")
+  int characters;
+}
@@ -3,50 +3,161 @@ package com.aleciverson.alg;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Stack;
 
+/**
+ * Parses statements of the form {@code name = expression}, or a lone
+ * {@code name} to read a variable.
+ *
+ * Expressions are parsed with the shunting-yard algorithm in a single pass
+ * over the source, in place: numbers are converted straight from the
+ * characters and only variable names become strings. The operand and operator
+ * stacks are plain arrays.
+ *
+ * Function names are looked up in {@link Functions}. A call's arguments are
+ * separated by commas, and there must be as many as the function takes.
+ */
 public class Parser {
+  // every power of ten a double holds exactly
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+  private final CharSequence source;
+  private final int start;
+  private final int end;
+
+  private Expression[] output = new Expression[16];
+  private int outputSize = 0;
+  private Token[] operators = new Token[16];
+  // for each operator, the function it calls if it's a function, the output
+  // size when it was pushed, to count the operands of calls and parentheses,
+  // and the commas seen inside it, to count the arguments of calls
+  private Functions.Function[] functions = new Functions.Function[16];
+  private int[] outputMarks = new int[16];
+  private int[] commas = new int[16];
+  private int operatorsSize = 0;
+
+  private Parser(CharSequence source, int start, int end) {
+    this.source = source;
+    this.start = start;
+    this.end = end;
+  }
+
   public static Statement parse(String line) {
-    int equalsIdx = line.indexOf('=');
+    ParseEvent event = new ParseEvent();
+    event.begin();
+    Statement stmt = parseLine(line, 0, line.length());
+    commit(event, 1, line.length());
+    return stmt;
+  }
+
+  public static List<Statement> parse(List<String> lines) {
+    ParseEvent event = new ParseEvent();
+    event.begin();
+    List<Statement> statements = new ArrayList<>();
+
+    int characters = 0;
+    for (String line : lines) {
+      statements.add(parseLine(line, 0, line.length()));
+      characters += line.length();
+    }
+
+    commit(event, statements.size(), characters);
+    return statements;
+  }
+
+  /**
+   * Parses a whole script, one statement per line, without splitting it into
+   * strings first. Lines end with "\n" or "\r\n"; a final line ending doesn't
+   * start another statement.
+   */
+  public static List<Statement> parseLines(CharSequence text) {
+    ParseEvent event = new ParseEvent();
+    event.begin();
+    List<Statement> statements = new ArrayList<>();
+
+    int lineStart = 0;
+    int length = text.length();
+    while (lineStart < length) {
+      int lineEnd = lineStart;
+      while (lineEnd < length && text.charAt(lineEnd) != '\n')
+        ++lineEnd;
+
+      int next = lineEnd + 1;
+      if (lineEnd > lineStart && text.charAt(lineEnd - 1) == '\r')
+        --lineEnd;
+
+      statements.add(parseLine(text, lineStart, lineEnd));
+      lineStart = next;
+    }
+
+    commit(event, statements.size(), length);
+    return statements;
+  }
+
+  private static void commit(ParseEvent event, int statements, int characters) {
+    event.end();
+    if (event.shouldCommit()) {
+      event.statements = statements;
+      event.characters = characters;
+      event.commit();
+    }
+  }
+
+  static Statement parseLine(CharSequence text, int start, int end) {
+    int equalsIdx = -1;
+    for (int i = start; i < end; ++i) {
+      if (text.charAt(i) == '=') {
+        equalsIdx = i;
+        break;
+      }
+    }
 
     if (equalsIdx != -1) {
-      String outVar = line.substring(0, equalsIdx).trim();
+      String outVar = trimmed(text, start, equalsIdx);
 
       if (isConstant(outVar))
         throw new AssignConstantException(outVar);
 
-      Expression expr = parseExpression(line.substring(equalsIdx + 1).trim());
+      int exprStart = trimStart(text, equalsIdx + 1, end);
+      int exprEnd = trimEnd(text, exprStart, end);
+      Expression expr = new Parser(text, exprStart, exprEnd).parseExpression();
 
       return new Statement(outVar, expr);
     } else {
       // all we're doing is getting the value of a variable
-      String var = line.trim();
+      String var = trimmed(text, start, end);
       return new Statement(var, new Expression.Variable(var));
     }
   }
 
-  public static List<Statement> parse(List<String> lines) {
-    List<Statement> statements = new ArrayList<>();
-
-    for (String line : lines)
-      statements.add(parse(line));
+  /**
+   * Bounds trimmed the same way as {@link String#trim()}.
+   */
+  private static int trimStart(CharSequence text, int start, int end) {
+    while (start < end && text.charAt(start) <= ' ')
+      ++start;
+    return start;
+  }
 
-    return statements;
+  private static int trimEnd(CharSequence text, int start, int end) {
+    while (end > start && text.charAt(end - 1) <= ' ')
+      --end;
+    return end;
   }
 
-  private static Expression parseExpression(String expr) {
-    Stack<Expression> output = new Stack<>();
-    Stack<Token> operators = new Stack<>();
+  private static String trimmed(CharSequence text, int start, int end) {
+    start = trimStart(text, start, end);
+    return text.subSequence(start, trimEnd(text, start, end)).toString();
+  }
 
+  private Expression parseExpression() {
     // starts true due to assignment sort of being an operator
     boolean previousOperator = true;
 
-    int i = 0;
-    while (i < expr.length()) {
-      char token = expr.charAt(i);
-
-      int end;
-      Expression value;
+    int i = start;
+    while (i < end) {
+      char token = source.charAt(i);
 
       switch (token) {
       case '0':
@@ -59,21 +170,13 @@ public class Parser {
       case '7':
       case '8':
       case '9':
-        end = parseNumber(expr, i);
-        value = new Expression.Value(Double.parseDouble(expr.substring(i, end)));
-        // try and pop negative operators if possible
-        while (!operators.empty() && operators.peek() == Token.NEGATIVE) {
-          value = new Expression.Negative(value);
-          operators.pop();
-        }
-        output.add(value);
-        i = end;
+        i = parseNumber(i);
         previousOperator = false;
         break;
 
       case '+':
-        parseOperator(output, operators);
-        operators.push(Token.PLUS);
+        popOperators(0);
+        pushOperator(Token.PLUS);
         previousOperator = true;
         ++i;
         break;
@@ -81,49 +184,71 @@ public class Parser {
       case '-':
         if (previousOperator) {
           // it's a unary minus (negative)
-          operators.push(Token.NEGATIVE);
+          pushOperator(Token.NEGATIVE);
         } else {
-          parseOperator(output, operators);
-          operators.push(Token.MINUS);
+          popOperators(0);
+          pushOperator(Token.MINUS);
         }
         previousOperator = true;
         ++i;
         break;
 
       case '*':
-        parseOperator(output, operators, Token.PLUS, Token.MINUS);
-        operators.push(Token.MULTIPLY);
+        popOperators(Token.MULTIPLY.precedence);
+        pushOperator(Token.MULTIPLY);
         previousOperator = true;
         ++i;
         break;
 
       case '/':
-        parseOperator(output, operators, Token.PLUS, Token.MINUS);
-        operators.push(Token.DIVIDE);
+        popOperators(Token.DIVIDE.precedence);
+        pushOperator(Token.DIVIDE);
         previousOperator = true;
         ++i;
         break;
 
       case '^':
-        parseOperator(output, operators, Token.PLUS, Token.MINUS, Token.MULTIPLY, Token.DIVIDE);
-        operators.push(Token.POWER);
+        popOperators(Token.POWER.precedence);
+        pushOperator(Token.POWER);
         previousOperator = true;
         ++i;
         break;
 
       case '(':
-        operators.push(Token.PAREN_OPEN);
+        pushOperator(Token.PAREN_OPEN);
+        previousOperator = true;
+        ++i;
+        break;
+
+      case ',':
+        // ends an argument, which must be inside a call's parentheses
+        if (previousOperator)
+          throw invalid();
+        popOperators(0);
+        if (operatorsSize < 2 || !operators[operatorsSize - 2].isFunction())
+          throw invalid();
+        // one operand for each argument so far
+        if (arguments() != commas[operatorsSize - 1] + 1)
+          throw invalid();
+        ++commas[operatorsSize - 1];
         previousOperator = true;
         ++i;
         break;
 
       case ')':
-        parseOperator(output, operators);
-        operators.pop();
-        while (!operators.empty() && operators.peek().isFunction()) {
-          Expression func = addFunction(operators.pop(), output.pop());
-          output.push(func);
-        }
+        if (previousOperator)
+          throw invalid();
+        popOperators(0);
+        if (operatorsSize == 0)
+          throw invalid();
+        if (arguments() != commas[operatorsSize - 1] + 1)
+          throw invalid();
+        if (operatorsSize >= 2 && operators[operatorsSize - 2].isFunction())
+          commas[operatorsSize - 2] = commas[operatorsSize - 1];
+        --operatorsSize;
+        while (operatorsSize > 0 && peekOperator().isFunction())
+          applyFunction();
+        applyNegatives();
         ++i;
 
         previousOperator = false;
@@ -135,28 +260,22 @@ public class Parser {
         break;
 
       default:
-        end = parseIdentifier(expr, i);
-        if (end != i) {
-          String identifier = expr.substring(i, end);
-          Token function = switch (identifier) {
-          case "sin" -> Token.SINE;
-          case "cos" -> Token.COSINE;
-          case "tan" -> Token.TANGENT;
-          case "log" -> Token.LOG;
-          case "ln" -> Token.NATURAL_LOG;
-          case "sqrt" -> Token.SQUARE_ROOT;
-          default -> null;
-          };
+        int identEnd = parseIdentifier(i);
+        if (identEnd != i) {
+          String name = source.subSequence(i, identEnd).toString();
+          Functions.Function function = Functions.lookup(name);
 
           if (function != null) {
-            operators.push(function);
+            pushOperator(Token.FUNCTION);
+            functions[operatorsSize - 1] = function;
             previousOperator = true;
           } else {
-            output.add(new Expression.Variable(identifier));
+            pushOutput(new Expression.Variable(name));
+            applyNegatives();
             previousOperator = false;
           }
 
-          i = end;
+          i = identEnd;
         } else {
           throw new UnexpectedTokenException(token + "");
         }
@@ -164,40 +283,122 @@ public class Parser {
       }
     }
 
-    try {
-      while (!operators.empty()) {
-        Token op = operators.pop();
-        if (op.isFunction()) {
-          Expression subExpr = output.pop();
-          output.push(addFunction(op, subExpr));
-        } else {
-          Expression rhs = output.pop();
-          Expression lhs = output.pop();
-          output.push(addOperator(op, lhs, rhs));
-        }
+    while (operatorsSize > 0) {
+      Token op = peekOperator();
+      if (op.isFunction()) {
+        applyFunction();
+      } else if (op.isBinaryOperator()) {
+        --operatorsSize;
+        Expression rhs = popOutput();
+        Expression lhs = popOutput();
+        pushOutput(addOperator(op, lhs, rhs));
+      } else {
+        // unclosed parenthesis, or a negative with nothing to negate
+        throw invalid();
       }
-    } catch (Exception e) {
-      throw new InvalidExpressionException(expr);
     }
 
-    if (output.size() != 1)
-      throw new InvalidExpressionException(expr);
+    if (outputSize != 1)
+      throw invalid();
 
-    return output.pop();
+    return output[0];
   }
 
-  private static void parseOperator(Stack<Expression> output, Stack<Token> operators, Token... endConditions) {
-    while (!operators.empty()) {
-      Token top = operators.peek();
-      if (top == Token.PAREN_OPEN || Arrays.stream(endConditions).anyMatch(op -> top == op)) {
+  /**
+   * Applies everything on the operator stack that binds at least as tightly as
+   * the given precedence, stopping at an open parenthesis. Zero applies
+   * everything.
+   */
+  private void popOperators(int precedence) {
+    while (operatorsSize > 0) {
+      Token top = peekOperator();
+      if (top == Token.PAREN_OPEN || top.isBinaryOperator() && top.precedence < precedence)
         break;
-      } else {
-        Expression rhs = output.pop();
-        Expression lhs = output.pop();
-        Expression op = addOperator(operators.pop(), lhs, rhs);
-        output.push(op);
-      }
+
+      if (!top.isBinaryOperator())
+        throw new UnexpectedTokenException(top.toString());
+
+      Expression rhs = popOutput();
+      Expression lhs = popOutput();
+      pushOutput(addOperator(popOperator(), lhs, rhs));
+    }
+  }
+
+  /**
+   * Pops the function on top of the operator stack and applies it to the
+   * arguments pushed since, of which there must be as many as it takes, each
+   * separated by a comma.
+   */
+  private void applyFunction() {
+    Functions.Function function = functions[operatorsSize - 1];
+    if (arguments() != function.arity() || commas[operatorsSize - 1] + 1 != function.arity())
+      throw invalid();
+    --operatorsSize;
+
+    if (function.arity() == 1) {
+      Expression arg = popOutput();
+      pushOutput(new Expression.BuiltinCall(function, arg));
+    } else {
+      Expression rhs = popOutput();
+      Expression lhs = popOutput();
+      pushOutput(new Expression.BinaryCall(function, lhs, rhs));
+    }
+  }
+
+  /**
+   * The number of operands pushed since the operator on top of the stack was.
+   */
+  private int arguments() {
+    return outputSize - outputMarks[operatorsSize - 1];
+  }
+
+  /**
+   * Negates the operand just pushed once for every unary minus in front of it.
+   */
+  private void applyNegatives() {
+    while (operatorsSize > 0 && peekOperator() == Token.NEGATIVE) {
+      if (outputSize == 0)
+        throw invalid();
+      --operatorsSize;
+      output[outputSize - 1] = new Expression.Negative(output[outputSize - 1]);
+    }
+  }
+
+  private void pushOutput(Expression expr) {
+    if (outputSize == output.length)
+      output = Arrays.copyOf(output, outputSize * 2);
+    output[outputSize++] = expr;
+  }
+
+  private Expression popOutput() {
+    if (outputSize == 0)
+      throw invalid();
+    return output[--outputSize];
+  }
+
+  private void pushOperator(Token op) {
+    if (operatorsSize == operators.length) {
+      operators = Arrays.copyOf(operators, operatorsSize * 2);
+      functions = Arrays.copyOf(functions, operatorsSize * 2);
+      outputMarks = Arrays.copyOf(outputMarks, operatorsSize * 2);
+      commas = Arrays.copyOf(commas, operatorsSize * 2);
     }
+    functions[operatorsSize] = null;
+    outputMarks[operatorsSize] = outputSize;
+    commas[operatorsSize] = 0;
+    operators[operatorsSize++] = op;
+  }
+
+  private Token popOperator() {
+    return operators[--operatorsSize];
+  }
+
+  private Token peekOperator() {
+    return operators[operatorsSize - 1];
+  }
+
+  private InvalidExpressionException invalid() {
+    return new InvalidExpressionException(source.subSequence(start, end).toString());
   }
 
   private static Expression addOperator(Token op, Expression lhs, Expression rhs) {
@@ -217,32 +418,17 @@ public class Parser {
     }
   }
 
-  private static Expression addFunction(Token func, Expression subExpr) {
-    switch (func) {
-    case SINE:
-      return new Expression.Sine(subExpr);
-    case COSINE:
-      return new Expression.Cosine(subExpr);
-    case TANGENT:
-      return new Expression.Tangent(subExpr);
-    case LOG:
-      return new Expression.Log(subExpr);
-    case NATURAL_LOG:
-      return new Expression.NaturalLog(subExpr);
-    case SQUARE_ROOT:
-      return new Expression.SquareRoot(subExpr);
-    default:
-      throw new UnexpectedTokenException(func.toString());
-    }
-  }
-
-  private static int parseIdentifier(String line, int index) {
+  /**
+   * Identifiers are letters and underscores, and digits after the first
+   * character.
+   */
+  private int parseIdentifier(int index) {
     int i = index;
 
-    while (i < line.length()) {
-      char ch = line.charAt(i);
+    while (i < end) {
+      char ch = source.charAt(i);
 
-      if ('a' <= ch && ch <= 'z' || 'A' <= ch && ch <= 'Z' || ch == '_')
+      if ('a' <= ch && ch <= 'z' || 'A' <= ch && ch <= 'Z' || ch == '_' || i > index && '0' <= ch && ch <= '9')
         ++i;
       else
         break;
@@ -251,53 +437,50 @@ public class Parser {
     return i;
   }
 
-  private static int parseNumber(String line, int index) {
+  /**
+   * Parses the number starting at index, pushes it and returns the index after
+   * it. Numbers with up to 15 significant digits and a small enough exponent
+   * are exact as a long divided by a power of ten, which rounds correctly.
+   * Anything longer goes through {@link Double#parseDouble}.
+   */
+  private int parseNumber(int index) {
     boolean hasPeriod = false;
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = 0;
 
     int i = index;
-
-    while (i < line.length()) {
-      switch (line.charAt(i)) {
-      case '0':
-      case '1':
-      case '2':
-      case '3':
-      case '4':
-      case '5':
-      case '6':
-      case '7':
-      case '8':
-      case '9':
+    while (i < end) {
+      char ch = source.charAt(i);
+      if ('0' <= ch && ch <= '9') {
+        if (digits > 0 || ch != '0')
+          ++digits;
+        if (digits <= 18)
+          mantissa = mantissa * 10 + (ch - '0');
+        if (hasPeriod)
+          ++fractionDigits;
         ++i;
+      } else if (ch == '.' && !hasPeriod) {
+        hasPeriod = true;
+        ++i;
+      } else {
         break;
-
-      case '.':
-        if (!hasPeriod) {
-          hasPeriod = true;
-          ++i;
-        } else {
-          return i;
-        }
-        break;
-
-      default:
-        return i;
       }
     }
 
+    double value;
+    if (digits <= 15 && fractionDigits < POWERS_OF_TEN.length)
+      value = mantissa / POWERS_OF_TEN[fractionDigits];
+    else
+      value = Double.parseDouble(source.subSequence(index, i).toString());
+
+    pushOutput(new Expression.Value(value));
+    // try and pop negative operators if possible
+    applyNegatives();
     return i;
   }
 
-  private static boolean isConstant(String variable) {
-    switch (variable) {
-    case "pi":
-    case "PI":
-    case "e":
-    case "E":
-      return true;
-
-    default:
-      return false;
-    }
+  static boolean isConstant(String variable) {
+    return Environment.CONSTANTS.containsKey(variable);
   }
 }
@@ -0,0 +1,176 @@
+package com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a script's results up to date as its inputs change, spreadsheet
+ * style. Setting an input reruns only the statements that depend on it, and
+ * stops wherever a recomputed value comes out unchanged.
+ *
+ * Internally every assignment gets its own variable, so a name assigned twice
+ * is two separate variables ({@code y#1} then {@code y#2}), while inputs keep
+ * their plain names. That way each statement's result stays in place and any
+ * statement can be rerun alone. Inputs are the variables read before the
+ * script assigns them.
+ */
+public class ReactiveInterpreter {
+  private final Environment environment = new Environment(null);
+  private final Interpreter interpreter = new Interpreter(environment);
+  private final List<Statement> statements = new ArrayList<>();
+  // the statements that read each statement's result, and each input
+  private final List<int[]> dependents = new ArrayList<>();
+  private final Map<String, int[]> inputDependents = new HashMap<>();
+  // the internal name holding each name's final value
+  private final Map<String, String> finalNames = new HashMap<>();
+  private final BitSet dirty = new BitSet();
+  private int recomputed = 0;
+
+  /**
+   * Runs the script once, reading the values of its inputs from the given
+   * environment.
+   */
+  public ReactiveInterpreter(List<Statement> stmts, Environment inputs) {
+    Map<String, Integer> versions = new HashMap<>();
+    Map<String, Integer> producers = new HashMap<>();
+    Map<String, List<Integer>> inputReaders = new HashMap<>();
+    List<List<Integer>> readers = new ArrayList<>();
+
+    for (Statement stmt : stmts) {
+      int index = statements.size();
+
+      for (String read : VariableReads.of(stmt.expression())) {
+        String name = versioned(read, versions);
+        Integer producer = producers.get(name);
+        if (producer != null)
+          readers.get(producer).add(index);
+        else
+          inputReaders.computeIfAbsent(name, k -> new ArrayList<>()).add(index);
+      }
+
+      Expression renamed = stmt.expression().accept(new Renamer(versions));
+      String out = stmt.outputVariable();
+      int version = versions.merge(out, 1, Integer::sum);
+      String outName = out + "#" + version;
+
+      producers.put(outName, index);
+      finalNames.put(out, outName);
+      readers.add(new ArrayList<>());
+      statements.add(interpreter.bind(new Statement(outName, renamed)));
+    }
+
+    for (List<Integer> list : readers)
+      dependents.add(toArray(list));
+    inputReaders.forEach((name, list) -> inputDependents.put(name, toArray(list)));
+
+    for (String input : inputReaders.keySet()) {
+      if (!Environment.CONSTANTS.containsKey(input))
+        environment.set(input, inputs.get(input));
+    }
+
+    for (Statement stmt : statements)
+      interpreter.run(stmt);
+  }
+
+  private static String versioned(String name, Map<String, Integer> versions) {
+    int version = versions.getOrDefault(name, 0);
+    return version == 0 ? name : name + "#" + version;
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    return list.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Sets an input and reruns everything downstream of it. Returns the names
+   * whose final value changed, in the order the script assigns them, not
+   * counting the input itself or temporaries.
+   */
+  public Set<String> update(String name, double value) {
+    recomputed = 0;
+    Set<String> changed = new LinkedHashSet<>();
+
+    int[] readers = inputDependents.get(name);
+    if (readers == null) {
+      // nothing reads it, but keep it around for get()
+      environment.set(name, value);
+      return changed;
+    }
+
+    if (Double.compare(environment.get(name), value) == 0)
+      return changed;
+
+    environment.set(name, value);
+    for (int reader : readers)
+      dirty.set(reader);
+
+    for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+      dirty.clear(i);
+      Statement stmt = statements.get(i);
+      double before = environment.get(stmt.outputSlot(), stmt.outputVariable());
+      double after = interpreter.run(stmt);
+      ++recomputed;
+
+      if (Double.compare(before, after) == 0)
+        continue;
+
+      for (int dependent : dependents.get(i))
+        dirty.set(dependent);
+
+      String source = sourceName(stmt.outputVariable());
+      if (!stmt.isTemporary() && finalNames.get(source).equals(stmt.outputVariable()))
+        changed.add(source);
+    }
+
+    return changed;
+  }
+
+  /**
+   * Sets an input, like {@link #update}, without reporting what changed.
+   */
+  public void set(String name, double value) {
+    update(name, value);
+  }
+
+  /**
+   * The current value of a variable: its final value if the script assigns
+   * it, otherwise its value as an input.
+   */
+  public double get(String name) {
+    return environment.get(finalNames.getOrDefault(name, name));
+  }
+
+  /**
+   * The number of statements the last {@link #update} reran.
+   */
+  public int lastRecomputed() {
+    return recomputed;
+  }
+
+  private static String sourceName(String name) {
+    int hash = name.indexOf('#');
+    return hash == -1 ? name : name.substring(0, hash);
+  }
+
+  /**
+   * Points every variable at the current version of its name.
+   */
+  private static class Renamer extends Expression.Rewriter {
+    private final Map<String, Integer> versions;
+
+    Renamer(Map<String, Integer> versions) {
+      this.versions = versions;
+    }
+
+    @Override
+    public Expression visitVariable(Expression.Variable expr) {
+      String name = versioned(expr.name(), versions);
+      return name.equals(expr.name()) ? expr : new Expression.Variable(name);
+    }
+  }
+}
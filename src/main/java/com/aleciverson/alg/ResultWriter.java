@@ -0,0 +1,229 @@
+package com.aleciverson.alg;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Writes the results of statements to a stream, buffered, in one of a few
+ * formats. Nothing reaches the stream until the buffer fills or the writer is
+ * flushed.
+ *
+ * Numbers are formatted by hand, straight into the buffer, instead of through
+ * {@link java.util.Formatter}. The text is exactly what {@code %f} gives in a
+ * locale using "." as the decimal separator.
+ */
+public class ResultWriter implements Flushable, Closeable {
+  /**
+   * How results are written.
+   */
+  public enum Format {
+    /** One {@code name = value} line per result. */
+    TEXT,
+    /** A {@code name,value} header, then one {@code name,value} row per result. */
+    CSV,
+    /**
+     * Only the values, each as 8 bytes of a little-endian IEEE 754 double, in
+     * the order they were written.
+     */
+    BINARY,
+  }
+
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  // the longest %f of a double is a sign, 309 integer digits, the point and 6
+  // decimals
+  private static final int MAX_NUMBER_LENGTH = 320;
+  private static final int DECIMALS = 6;
+  private static final double SCALE = 1e6;
+  private static final long SCALE_LONG = 1_000_000;
+
+  private final OutputStream out;
+  private final Format format;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private int size = 0;
+  private boolean headerWritten = false;
+
+  public ResultWriter(OutputStream out, Format format) {
+    this.out = out;
+    this.format = format;
+  }
+
+  public Format getFormat() {
+    return format;
+  }
+
+  public void write(String name, double value) throws IOException {
+    switch (format) {
+    case TEXT:
+      putName(name);
+      putAscii(" = ");
+      putNumber(value);
+      putByte('\n');
+      break;
+
+    case CSV:
+      if (!headerWritten) {
+        putAscii("name,value\n");
+        headerWritten = true;
+      }
+      putName(name);
+      putByte(',');
+      putNumber(value);
+      putByte('\n');
+      break;
+
+    case BINARY:
+      reserve(Long.BYTES);
+      long bits = Double.doubleToRawLongBits(value);
+      for (int i = 0; i < Long.BYTES; ++i) {
+        buffer[size++] = (byte) bits;
+        bits >>>= 8;
+      }
+      break;
+    }
+  }
+
+  /**
+   * A writer in the same format for formatting part of the output elsewhere,
+   * whose bytes are then passed to {@link #append}. It leaves out the CSV
+   * header, which this writer writes.
+   */
+  ResultWriter fragment(OutputStream out) {
+    ResultWriter fragment = new ResultWriter(out, format);
+    fragment.headerWritten = true;
+    return fragment;
+  }
+
+  /**
+   * Writes the bytes a {@link #fragment} wrote, as if they'd been written
+   * here.
+   */
+  void append(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0)
+      return;
+    if (format == Format.CSV && !headerWritten) {
+      putAscii("name,value\n");
+      headerWritten = true;
+    }
+
+    if (length > buffer.length - size) {
+      flushBuffer();
+      out.write(bytes, offset, length);
+    } else {
+      System.arraycopy(bytes, offset, buffer, size, length);
+      size += length;
+    }
+  }
+
+  private void reserve(int length) throws IOException {
+    if (size + length > buffer.length)
+      flushBuffer();
+  }
+
+  private void putByte(char ch) throws IOException {
+    reserve(1);
+    buffer[size++] = (byte) ch;
+  }
+
+  private void putAscii(String text) throws IOException {
+    for (int i = 0; i < text.length(); ++i)
+      putByte(text.charAt(i));
+  }
+
+  /**
+   * Names from source are always ASCII; anything else is replaced with "?".
+   */
+  private void putName(String name) throws IOException {
+    for (int i = 0; i < name.length(); ++i) {
+      char ch = name.charAt(i);
+      putByte(ch < 0x80 ? ch : '?');
+    }
+  }
+
+  private void putNumber(double value) throws IOException {
+    reserve(MAX_NUMBER_LENGTH);
+
+    if (Double.isNaN(value)) {
+      putAscii("NaN");
+      return;
+    }
+
+    // %f keeps the sign of -0, and of anything that rounds to it
+    if (Double.doubleToRawLongBits(value) < 0)
+      buffer[size++] = '-';
+
+    double magnitude = Math.abs(value);
+    if (magnitude == Double.POSITIVE_INFINITY) {
+      putAscii("Infinity");
+      return;
+    }
+
+    long fixed = toFixed(magnitude);
+    if (fixed >= 0) {
+      putDigits(fixed / SCALE_LONG, 1);
+      buffer[size++] = '.';
+      putDigits(fixed % SCALE_LONG, DECIMALS);
+    } else {
+      putAscii(new BigDecimal(Double.toString(magnitude)).setScale(DECIMALS, RoundingMode.HALF_UP).toPlainString());
+    }
+  }
+
+  /**
+   * The magnitude in millionths, rounded the way %f rounds it, or -1 if that
+   * can't be told quickly.
+   *
+   * %f rounds the shortest decimal that reads back as the double, half up.
+   * That decimal is within an ulp of the double, so rounding the double
+   * itself gives the same answer unless it's within a few ulps of halfway
+   * between two millionths.
+   */
+  private static long toFixed(double magnitude) {
+    double scaled = magnitude * SCALE;
+    if (scaled >= 0x1p52)
+      return -1;
+
+    double floor = Math.floor(scaled);
+    double fraction = scaled - floor;
+    if (Math.abs(fraction - 0.5) <= 4 * Math.ulp(scaled))
+      return -1;
+
+    return (long) floor + (fraction > 0.5 ? 1 : 0);
+  }
+
+  /**
+   * Writes a non-negative number, zero padded to at least the given width.
+   */
+  private void putDigits(long number, int width) {
+    int length = 1;
+    for (long rest = number / 10; rest != 0; rest /= 10)
+      ++length;
+    length = Math.max(length, width);
+
+    for (int i = size + length - 1; i >= size; --i) {
+      buffer[i] = (byte) ('0' + number % 10);
+      number /= 10;
+    }
+    size += length;
+  }
+
+  private void flushBuffer() throws IOException {
+    out.write(buffer, 0, size);
+    size = 0;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    flushBuffer();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    flush();
+    out.close();
+  }
+}
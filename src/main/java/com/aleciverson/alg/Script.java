@@ -0,0 +1,203 @@
+package com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Statements bound once to a layout of their own, ready to be run any number
+ * of times from any number of threads.
+ *
+ * A script never changes after it's made. All the state of a run lives in an
+ * {@link Environment} from {@link #newEnvironment}, so threads sharing a script
+ * need no locking as long as each runs in its own environment. Environments
+ * can be kept and reused for later runs; every run overwrites what the script
+ * assigns and leaves the rest.
+ *
+ * A single run can also be spread over a {@link ForkJoinPool}, running
+ * statements that don't depend on each other at the same time.
+ */
+public final class Script {
+  /**
+   * The estimated cost, in {@link CostEstimator} units, that a group of
+   * independent statements needs before they're worth running in parallel.
+   */
+  static final long PARALLEL_COST = 4096;
+
+  private final List<Statement> statements;
+  private final CompiledStatement[] compiled;
+  private final VmProgram[] programs;
+  private final int maxStack;
+  private final SlotLayout layout = new SlotLayout();
+  private final StatementScheduler schedule;
+
+  public Script(List<Statement> stmts) {
+    this(stmts, Interpreter.Backend.TREE);
+  }
+
+  /**
+   * With the compiled or VM backends, every statement is compiled up front,
+   * rather than on first run as {@link Interpreter} does.
+   */
+  public Script(List<Statement> stmts, Interpreter.Backend backend) {
+    // environments start with the constants, so give them slots first
+    for (String constant : Environment.CONSTANTS.keySet())
+      layout.define(constant);
+
+    List<Statement> bound = new ArrayList<>(stmts.size());
+    for (Statement stmt : stmts)
+      bound.add(stmt.bind(layout));
+    layout.freeze();
+
+    statements = Collections.unmodifiableList(bound);
+    schedule = new StatementScheduler(bound);
+    compiled = new CompiledStatement[bound.size()];
+    if (backend == Interpreter.Backend.COMPILED) {
+      for (int i = 0; i < compiled.length; ++i)
+        compiled[i] = bound.get(i).compiled();
+    }
+
+    int stackSize = 0;
+    if (backend == Interpreter.Backend.VM) {
+      programs = new VmProgram[bound.size()];
+      for (int i = 0; i < programs.length; ++i) {
+        programs[i] = VmCompiler.compile(bound.get(i), layout);
+        stackSize = Math.max(stackSize, programs[i].maxStack());
+      }
+    } else {
+      programs = null;
+    }
+    maxStack = stackSize;
+  }
+
+  /**
+   * A new environment holding only the constants.
+   */
+  public Environment newEnvironment() {
+    return new Environment(layout, null);
+  }
+
+  /**
+   * A new environment holding the constants and the given variables.
+   */
+  public Environment newEnvironment(Map<String, Double> initial) {
+    return new Environment(layout, initial);
+  }
+
+  /**
+   * Runs every statement in order, reading and writing variables in the given
+   * environment, which must come from {@link #newEnvironment}.
+   */
+  public void run(Environment env) {
+    run(env, null);
+  }
+
+  /**
+   * Runs every statement in order, and if results isn't null, stores the value
+   * of each statement at its index in the script.
+   */
+  public void run(Environment env, double[] results) {
+    checkEnvironment(env, results);
+
+    double[] stack = newStack();
+    for (int i = 0; i < compiled.length; ++i)
+      runStatement(i, env, results, stack);
+  }
+
+  /**
+   * Runs the script with independent statements evaluated in parallel on the
+   * given pool. Variables end up as if the statements had run in order, and so
+   * do results, if given.
+   *
+   * Groups of statements too cheap to be worth handing to the pool run on the
+   * calling thread, so a short script runs entirely serially. If a statement
+   * fails, statements after it in the script may already have run.
+   */
+  public void run(Environment env, double[] results, ForkJoinPool pool) {
+    checkEnvironment(env, results);
+
+    for (int l = 0; l < schedule.levelCount(); ++l) {
+      int[] level = schedule.level(l);
+      if (level.length > 1 && schedule.cost(l) >= PARALLEL_COST) {
+        // aim for pieces of about a quarter of the threshold each
+        int grain = (int) Math.max(1, level.length * (PARALLEL_COST / 4) / schedule.cost(l));
+        pool.invoke(new LevelTask(level, 0, level.length, grain, env, results));
+      } else {
+        double[] stack = newStack();
+        for (int i : level)
+          runStatement(i, env, results, stack);
+      }
+    }
+  }
+
+  private void checkEnvironment(Environment env, double[] results) {
+    if (!env.layout().covers(layout))
+      throw new IllegalArgumentException("environment wasn't made by this script");
+    if (results != null && results.length < compiled.length)
+      throw new IllegalArgumentException("results needs room for " + compiled.length + " statements");
+  }
+
+  /**
+   * An operand stack for the VM, if the script runs on it.
+   */
+  private double[] newStack() {
+    return programs != null ? new double[maxStack] : null;
+  }
+
+  private void runStatement(int i, Environment env, double[] results, double[] stack) {
+    Statement stmt = statements.get(i);
+    double value;
+    if (programs != null)
+      value = programs[i].execute(env, stack);
+    else if (compiled[i] != null)
+      value = compiled[i].resolve(env);
+    else
+      value = stmt.resolve(env);
+
+    env.set(stmt.outputSlot(), stmt.outputVariable(), value);
+    if (results != null)
+      results[i] = value;
+  }
+
+  public List<Statement> statements() {
+    return statements;
+  }
+
+  /**
+   * Runs a range of the statements in one level, splitting it in half until
+   * it's no more than grain statements.
+   */
+  private class LevelTask extends RecursiveAction {
+    private final int[] level;
+    private final int from;
+    private final int to;
+    private final int grain;
+    private final Environment env;
+    private final double[] results;
+
+    LevelTask(int[] level, int from, int to, int grain, Environment env, double[] results) {
+      this.level = level;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+      this.env = env;
+      this.results = results;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= grain) {
+        double[] stack = newStack();
+        for (int i = from; i < to; ++i)
+          runStatement(level[i], env, results, stack);
+      } else {
+        int middle = (from + to) >>> 1;
+        invokeAll(new LevelTask(level, from, middle, grain, env, results),
+            new LevelTask(level, middle, to, grain, env, results));
+      }
+    }
+  }
+}
@@ -0,0 +1,417 @@
+package com.aleciverson.alg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes parsed scripts in a compact binary form, which loads much
+ * faster than parsing the source again.
+ *
+ * Everything is little-endian. A file is a 16 byte header followed by the
+ * payload:
+ *
+ * <pre>
+ * header   0x89 "ALG", int version, int CRC-32 of the payload, int payload length
+ * payload  varint name count, then each name as a varint length and ASCII
+ *          varint statement count, then per statement:
+ *            varint output name, varint node count, nodes in postfix order
+ * node     byte opcode, then for a value its raw 8 byte double, for a
+ *          variable or function call a varint name
+ * </pre>
+ *
+ * Variable and function names are stored once, in the name table, and
+ * referred to by index. A call takes as many arguments as the function of
+ * that name in {@link Functions}, so a file calling a registered function can
+ * only be read where the same function is registered.
+ *
+ * A file with a different version or a payload that doesn't match its
+ * checksum is rejected rather than loaded.
+ */
+public class ScriptFile {
+  static final int VERSION = 1;
+
+  // starts with a byte that isn't ASCII, so no source script starts like one
+  private static final byte[] MAGIC = { (byte) 0x89, 'A', 'L', 'G' };
+  private static final int HEADER_SIZE = 16;
+
+  private static final byte VALUE = 0;
+  private static final byte VARIABLE = 1;
+  private static final byte ADDITION = 2;
+  private static final byte SUBTRACTION = 3;
+  private static final byte MULTIPLICATION = 4;
+  private static final byte DIVISION = 5;
+  private static final byte POWER = 6;
+  private static final byte NEGATIVE = 7;
+  private static final byte CALL = 8;
+
+  private ScriptFile() {
+  }
+
+  /**
+   * Whether a file starts like a compiled script, as opposed to source.
+   */
+  public static boolean isScriptFile(Path file) throws IOException {
+    try (InputStream in = Files.newInputStream(file)) {
+      return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+    }
+  }
+
+  public static void write(List<Statement> stmts, Path file) throws IOException {
+    try (OutputStream out = Files.newOutputStream(file)) {
+      write(stmts, out);
+    }
+  }
+
+  public static void write(List<Statement> stmts, OutputStream out) throws IOException {
+    Encoder encoder = new Encoder();
+    Buffer body = new Buffer();
+
+    body.putVarint(stmts.size());
+    for (Statement stmt : stmts) {
+      body.putVarint(encoder.name(stmt.outputVariable()));
+      body.putVarint(NodeCounter.count(stmt.expression()));
+      stmt.expression().accept(encoder.into(body));
+    }
+
+    Buffer payload = new Buffer();
+    payload.putVarint(encoder.names.size());
+    for (String name : encoder.names.keySet()) {
+      byte[] bytes = name.getBytes(StandardCharsets.US_ASCII);
+      payload.putVarint(bytes.length);
+      payload.put(bytes, bytes.length);
+    }
+    payload.put(body.bytes, body.size);
+
+    CRC32 crc = new CRC32();
+    crc.update(payload.bytes, 0, payload.size);
+
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    header.put(MAGIC).putInt(VERSION).putInt((int) crc.getValue()).putInt(payload.size);
+
+    out.write(header.array());
+    out.write(payload.bytes, 0, payload.size);
+  }
+
+  /**
+   * Loads a compiled script by mapping it into memory.
+   */
+  public static List<Statement> read(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new InvalidScriptFileException(file.toString(), "too large");
+
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return read(mapped, file.toString());
+    }
+  }
+
+  static List<Statement> read(ByteBuffer buffer, String file) {
+    ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+
+    try {
+      byte[] magic = new byte[MAGIC.length];
+      in.get(magic);
+      if (!Arrays.equals(magic, MAGIC))
+        throw new InvalidScriptFileException(file, "not a compiled script");
+
+      int version = in.getInt();
+      if (version != VERSION)
+        throw new InvalidScriptFileException(file, "version " + version + ", expected " + VERSION);
+
+      int checksum = in.getInt();
+      int length = in.getInt();
+      if (length != in.remaining())
+        throw new InvalidScriptFileException(file, "truncated");
+
+      CRC32 crc = new CRC32();
+      crc.update(in.duplicate());
+      if ((int) crc.getValue() != checksum)
+        throw new InvalidScriptFileException(file, "checksum mismatch");
+
+      return new Decoder(in, file).statements();
+    } catch (BufferUnderflowException e) {
+      throw new InvalidScriptFileException(file, "truncated");
+    }
+  }
+
+  /**
+   * Writes expressions in postfix order, collecting names as it goes.
+   */
+  private static class Encoder implements Expression.Visitor<Void> {
+    private final Map<String, Integer> names = new LinkedHashMap<>();
+    private Buffer out;
+
+    Encoder into(Buffer out) {
+      this.out = out;
+      return this;
+    }
+
+    int name(String name) {
+      return names.computeIfAbsent(name, k -> names.size());
+    }
+
+    private Void binary(byte opcode, Expression lhs, Expression rhs) {
+      lhs.accept(this);
+      rhs.accept(this);
+      out.putByte(opcode);
+      return null;
+    }
+
+    @Override
+    public Void visitValue(Expression.Value expr) {
+      out.putByte(VALUE);
+      out.putLong(Double.doubleToRawLongBits(expr.constant()));
+      return null;
+    }
+
+    @Override
+    public Void visitVariable(Expression.Variable expr) {
+      out.putByte(VARIABLE);
+      out.putVarint(name(expr.name()));
+      return null;
+    }
+
+    @Override
+    public Void visitAddition(Expression.Addition expr) {
+      return binary(ADDITION, expr.lhs(), expr.rhs());
+    }
+
+    @Override
+    public Void visitSubtraction(Expression.Subtraction expr) {
+      return binary(SUBTRACTION, expr.lhs(), expr.rhs());
+    }
+
+    @Override
+    public Void visitMultiplication(Expression.Multiplication expr) {
+      return binary(MULTIPLICATION, expr.lhs(), expr.rhs());
+    }
+
+    @Override
+    public Void visitDivision(Expression.Division expr) {
+      return binary(DIVISION, expr.lhs(), expr.rhs());
+    }
+
+    @Override
+    public Void visitPower(Expression.Power expr) {
+      return binary(POWER, expr.lhs(), expr.rhs());
+    }
+
+    @Override
+    public Void visitNegative(Expression.Negative expr) {
+      expr.rhs().accept(this);
+      out.putByte(NEGATIVE);
+      return null;
+    }
+
+    @Override
+    public Void visitBuiltinCall(Expression.BuiltinCall expr) {
+      expr.argument().accept(this);
+      out.putByte(CALL);
+      out.putVarint(name(expr.name()));
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryCall(Expression.BinaryCall expr) {
+      expr.lhs().accept(this);
+      expr.rhs().accept(this);
+      out.putByte(CALL);
+      out.putVarint(name(expr.name()));
+      return null;
+    }
+  }
+
+  private static class Decoder {
+    private final ByteBuffer in;
+    private final String file;
+    private Expression[] stack = new Expression[16];
+    private int size = 0;
+
+    Decoder(ByteBuffer in, String file) {
+      this.in = in;
+      this.file = file;
+    }
+
+    List<Statement> statements() {
+      String[] names = new String[count()];
+      byte[] bytes = new byte[64];
+      for (int i = 0; i < names.length; ++i) {
+        int length = count();
+        if (length > bytes.length)
+          bytes = new byte[length];
+        in.get(bytes, 0, length);
+        names[i] = new String(bytes, 0, length, StandardCharsets.US_ASCII);
+      }
+
+      int count = count();
+      List<Statement> stmts = new ArrayList<>(count);
+      for (int i = 0; i < count; ++i) {
+        String outVar = name(names);
+        int nodes = count();
+
+        size = 0;
+        for (int n = 0; n < nodes; ++n)
+          node(names);
+        if (size != 1)
+          throw invalid("malformed statement");
+
+        stmts.add(new Statement(outVar, stack[0]));
+      }
+
+      if (in.hasRemaining())
+        throw invalid("trailing data");
+
+      return stmts;
+    }
+
+    private void node(String[] names) {
+      byte opcode = in.get();
+      switch (opcode) {
+      case VALUE:
+        push(new Expression.Value(Double.longBitsToDouble(in.getLong())));
+        break;
+      case VARIABLE:
+        push(new Expression.Variable(name(names)));
+        break;
+      case ADDITION: {
+        Expression rhs = pop();
+        push(new Expression.Addition(pop(), rhs));
+        break;
+      }
+      case SUBTRACTION: {
+        Expression rhs = pop();
+        push(new Expression.Subtraction(pop(), rhs));
+        break;
+      }
+      case MULTIPLICATION: {
+        Expression rhs = pop();
+        push(new Expression.Multiplication(pop(), rhs));
+        break;
+      }
+      case DIVISION: {
+        Expression rhs = pop();
+        push(new Expression.Division(pop(), rhs));
+        break;
+      }
+      case POWER: {
+        Expression rhs = pop();
+        push(new Expression.Power(pop(), rhs));
+        break;
+      }
+      case NEGATIVE:
+        push(new Expression.Negative(pop()));
+        break;
+      case CALL:
+        push(call(name(names)));
+        break;
+      default:
+        throw invalid("unknown opcode " + opcode);
+      }
+    }
+
+    private Expression call(String name) {
+      Functions.Function function = Functions.lookup(name);
+      if (function == null)
+        throw invalid("unknown function '" + name + "'");
+
+      if (function.arity() == 1)
+        return new Expression.BuiltinCall(function, pop());
+      Expression rhs = pop();
+      return new Expression.BinaryCall(function, pop(), rhs);
+    }
+
+    private String name(String[] names) {
+      int index = count();
+      if (index >= names.length)
+        throw invalid("name " + index + " out of range");
+      return names[index];
+    }
+
+    private int count() {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        byte b = in.get();
+        value |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          if (value < 0)
+            break;
+          return value;
+        }
+      }
+      throw invalid("malformed number");
+    }
+
+    private void push(Expression expr) {
+      if (size == stack.length)
+        stack = Arrays.copyOf(stack, size * 2);
+      stack[size++] = expr;
+    }
+
+    private Expression pop() {
+      if (size == 0)
+        throw invalid("malformed statement");
+      return stack[--size];
+    }
+
+    private InvalidScriptFileException invalid(String reason) {
+      return new InvalidScriptFileException(file, reason);
+    }
+  }
+
+  /**
+   * A growable byte array.
+   */
+  private static class Buffer {
+    private byte[] bytes = new byte[4096];
+    private int size = 0;
+
+    private void reserve(int length) {
+      if (size + length > bytes.length)
+        bytes = Arrays.copyOf(bytes, Math.max(size + length, bytes.length * 2));
+    }
+
+    void putByte(byte b) {
+      reserve(1);
+      bytes[size++] = b;
+    }
+
+    void put(byte[] b, int length) {
+      reserve(length);
+      System.arraycopy(b, 0, bytes, size, length);
+      size += length;
+    }
+
+    void putLong(long value) {
+      reserve(Long.BYTES);
+      for (int i = 0; i < Long.BYTES; ++i) {
+        bytes[size++] = (byte) value;
+        value >>>= 8;
+      }
+    }
+
+    void putVarint(int value) {
+      reserve(5);
+      while ((value & ~0x7f) != 0) {
+        bytes[size++] = (byte) (value & 0x7f | 0x80);
+        value >>>= 7;
+      }
+      bytes[size++] = (byte) value;
+    }
+  }
+}
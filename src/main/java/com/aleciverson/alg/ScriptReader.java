@@ -0,0 +1,129 @@
+package com.aleciverson.alg;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a script one statement at a time from a channel, so a script of any
+ * size runs in as much memory as its longest line. Lines are parsed straight
+ * out of the decode buffer, the same as {@link Parser#parseLines}.
+ */
+public class ScriptReader implements Closeable {
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  private final ReadableByteChannel channel;
+  private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+  private final ByteBuffer bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  // decoded text, with everything before lineStart already parsed. The
+  // buffer's own position stays at 0 so it can be handed to the parser as is.
+  private CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+  private int lineStart = 0;
+  private boolean endOfInput = false;
+  private Flushable beforeRead = null;
+
+  public ScriptReader(ReadableByteChannel channel) {
+    this.channel = channel;
+    chars.flip();
+  }
+
+  public static ScriptReader open(Path file) throws IOException {
+    return new ScriptReader(FileChannel.open(file, StandardOpenOption.READ));
+  }
+
+  /**
+   * Reads from standard input. Closing the reader leaves standard input open.
+   */
+  public static ScriptReader stdin() {
+    return new ScriptReader(Channels.newChannel(System.in)) {
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  /**
+   * Flushes the given output every time the reader runs out of input and has
+   * to read more, so results of everything read so far aren't held back while
+   * waiting on a slow source.
+   */
+  void flushBeforeRead(Flushable output) {
+    beforeRead = output;
+  }
+
+  /**
+   * Parses the next statement, or returns null at the end of the script.
+   */
+  public Statement next() throws IOException {
+    while (true) {
+      int start = lineStart;
+      int limit = chars.limit();
+      for (int i = start; i < limit; ++i) {
+        if (chars.get(i) == '\n') {
+          lineStart = i + 1;
+          int end = i > start && chars.get(i - 1) == '\r' ? i - 1 : i;
+          return Parser.parseLine(chars, start, end);
+        }
+      }
+
+      if (endOfInput) {
+        if (start == limit)
+          return null;
+
+        // the last line has no line ending
+        lineStart = limit;
+        return Parser.parseLine(chars, start, limit);
+      }
+
+      fill();
+    }
+  }
+
+  /**
+   * Decodes more input after whatever is left of the current line, growing
+   * the buffer if a single line doesn't fit.
+   */
+  private void fill() throws IOException {
+    chars.position(lineStart);
+    chars.compact();
+    lineStart = 0;
+    if (!chars.hasRemaining()) {
+      CharBuffer larger = CharBuffer.allocate(chars.capacity() * 2);
+      chars.flip();
+      larger.put(chars);
+      chars = larger;
+    }
+
+    if (beforeRead != null)
+      beforeRead.flush();
+
+    int read = channel.read(bytes);
+    bytes.flip();
+    CoderResult result = decoder.decode(bytes, chars, read == -1);
+    if (result.isError())
+      result.throwException();
+    bytes.compact();
+
+    if (read == -1 && !result.isOverflow()) {
+      decoder.flush(chars);
+      endOfInput = true;
+    }
+
+    chars.flip();
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,274 @@
+package com.aleciverson.alg;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Evaluates statements for clients over a local socket, so a JVM started once
+ * can serve any number of evaluations.
+ *
+ * Clients send one request per line and get one response line per request, in
+ * order. Requests may be pipelined: responses are buffered, and only flushed
+ * once every request already received has been answered, so a burst of
+ * requests costs one round-trip. The requests are:
+ *
+ * <pre>
+ * assign SESSION NAME VALUE    ok
+ * eval SESSION STMT[; STMT...] ok NAME=VALUE[ NAME=VALUE...]
+ * drop SESSION                 ok
+ * status                       ok sessions=N connections=N requests=N p50_us=N p90_us=N p99_us=N p999_us=N
+ * quit                         (closes the connection)
+ * </pre>
+ *
+ * Each session is named by its clients and has its own environment, created
+ * on first use and shared by every connection using the name. An eval runs
+ * its statements in order, stopping at the first that fails; a failed request
+ * gets {@code error MESSAGE} instead. Values are written in full precision.
+ *
+ * Each connection is handled on its own thread: a virtual thread where the
+ * JVM has them, otherwise a platform thread.
+ */
+public class Server implements Closeable {
+  private static final int CACHE_ENTRIES = 4096;
+  private static final long CACHE_WEIGHT = 256 * 1024;
+  // how many statements a session keeps bound before starting afresh
+  private static final int SESSION_BOUND_STATEMENTS = 1024;
+
+  private final ServerSocketChannel channel;
+  private final Path socketFile;
+  private final ExecutorService executor = newExecutor();
+  private final StatementCache cache = new StatementCache(CACHE_ENTRIES, CACHE_WEIGHT);
+  private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+  private final Set<SocketChannel> connections = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger connectionCount = new AtomicInteger();
+  private final LatencyHistogram latencies = new LatencyHistogram();
+
+  private Server(ServerSocketChannel channel, Path socketFile) {
+    this.channel = channel;
+    this.socketFile = socketFile;
+  }
+
+  /**
+   * Listens on a TCP port on the loopback address. Port 0 picks a free one.
+   */
+  public static Server tcp(int port) throws IOException {
+    ServerSocketChannel channel = ServerSocketChannel.open();
+    channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    return new Server(channel, null);
+  }
+
+  /**
+   * Listens on a Unix domain socket, which is removed again on close.
+   */
+  public static Server unix(Path file) throws IOException {
+    ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    channel.bind(UnixDomainSocketAddress.of(file));
+    return new Server(channel, file);
+  }
+
+  public SocketAddress address() throws IOException {
+    return channel.getLocalAddress();
+  }
+
+  /**
+   * Accepts connections until closed.
+   */
+  public void serve() throws IOException {
+    while (true) {
+      SocketChannel connection;
+      try {
+        connection = channel.accept();
+      } catch (ClosedChannelException e) {
+        return;
+      }
+
+      connections.add(connection);
+      executor.execute(() -> handle(connection));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+    for (SocketChannel connection : connections)
+      connection.close();
+
+    executor.shutdown();
+    try {
+      executor.awaitTermination(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (socketFile != null)
+      Files.deleteIfExists(socketFile);
+  }
+
+  private void handle(SocketChannel connection) {
+    connectionCount.incrementAndGet();
+    try (connection) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(connection),
+          StandardCharsets.UTF_8));
+      Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(connection),
+          StandardCharsets.UTF_8));
+
+      String line;
+      while ((line = in.readLine()) != null) {
+        long start = System.nanoTime();
+        if (line.trim().equals("quit"))
+          break;
+
+        out.write(respond(line));
+        out.write('\n');
+        latencies.record(System.nanoTime() - start);
+
+        // pipelined requests still waiting get answered before anything is sent
+        if (!in.ready())
+          out.flush();
+      }
+      out.flush();
+    } catch (IOException e) {
+      // the client went away, or the server is closing
+    } finally {
+      connectionCount.decrementAndGet();
+      connections.remove(connection);
+    }
+  }
+
+  private String respond(String line) {
+    String trimmed = line.trim();
+    int space = trimmed.indexOf(' ');
+    String command = space == -1 ? trimmed : trimmed.substring(0, space);
+    String rest = space == -1 ? "" : trimmed.substring(space + 1).trim();
+
+    try {
+      switch (command) {
+      case "assign":
+        return assign(rest);
+      case "eval":
+        return eval(rest);
+      case "drop":
+        sessions.remove(rest);
+        return "ok";
+      case "status":
+        return status();
+      default:
+        return String.format("error unknown request '%s'", command);
+      }
+    } catch (AssignConstantException | InvalidExpressionException | UnexpectedTokenException
+        | UnknownVariableException | IllegalArgumentException e) {
+      return "error " + e.getMessage();
+    }
+  }
+
+  private String assign(String args) {
+    String[] parts = args.split("\\s+");
+    if (parts.length != 3)
+      throw new IllegalArgumentException("usage: assign SESSION NAME VALUE");
+
+    if (Environment.CONSTANTS.containsKey(parts[1]))
+      throw new AssignConstantException(parts[1]);
+
+    Session session = session(parts[0]);
+    double value = Double.parseDouble(parts[2]);
+    synchronized (session) {
+      session.env.set(parts[1], value);
+    }
+    return "ok";
+  }
+
+  private String eval(String args) {
+    int space = args.indexOf(' ');
+    if (space == -1)
+      throw new IllegalArgumentException("usage: eval SESSION STMT[; STMT...]");
+
+    Session session = session(args.substring(0, space));
+    StringBuilder response = new StringBuilder("ok");
+    synchronized (session) {
+      for (String source : args.substring(space + 1).split(";")) {
+        Statement stmt = session.bound(cache.get(source));
+        double value = session.interpreter.run(stmt);
+        response.append(' ').append(stmt.outputVariable()).append('=').append(value);
+      }
+    }
+    return response.toString();
+  }
+
+  private String status() {
+    return String.format("ok sessions=%d connections=%d requests=%d p50_us=%.1f p90_us=%.1f p99_us=%.1f p999_us=%.1f",
+        sessions.size(), connectionCount.get(), latencies.count(), micros(0.5), micros(0.9), micros(0.99),
+        micros(0.999));
+  }
+
+  private double micros(double fraction) {
+    return latencies.percentile(fraction) / 1000.0;
+  }
+
+  private Session session(String name) {
+    if (name.isEmpty())
+      throw new IllegalArgumentException("a session needs a name");
+    return sessions.computeIfAbsent(name, n -> new Session());
+  }
+
+  /**
+   * Virtual threads suit connections that spend most of their time waiting,
+   * but only exist from Java 21, so they're looked up reflectively.
+   */
+  private static ExecutorService newExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      return Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "alg-connection");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  /**
+   * A named environment. Its methods are only called holding its lock.
+   */
+  private static final class Session {
+    final Environment env = new Environment(null);
+    final Interpreter interpreter = new Interpreter(env);
+    // statements from the cache, bound to this session's environment
+    final Map<Statement, Statement> bound = new IdentityHashMap<>();
+
+    Statement bound(Statement stmt) {
+      Statement result = bound.get(stmt);
+      if (result == null) {
+        if (bound.size() >= SESSION_BOUND_STATEMENTS)
+          bound.clear();
+        result = interpreter.bind(stmt);
+        bound.put(stmt, result);
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns each variable name a fixed index into a {@code double[]}, so that
+ * bound expressions can read variables without hashing.
+ *
+ * Slots are only ever appended; a slot, once handed out, always refers to the
+ * same name.
+ *
+ * A frozen layout can't have names added, so it can be shared between threads.
+ * Adding to one means {@link #derive() deriving} a private copy first. Since
+ * slots are only appended, anything bound to a layout stays valid for every
+ * layout derived from it.
+ */
+class SlotLayout {
+  private final Map<String, Integer> slots;
+  private final List<String> names;
+  private final SlotLayout parent;
+  private boolean frozen = false;
+
+  SlotLayout() {
+    this.slots = new HashMap<>();
+    this.names = new ArrayList<>();
+    this.parent = null;
+  }
+
+  private SlotLayout(SlotLayout parent) {
+    this.slots = new HashMap<>(parent.slots);
+    this.names = new ArrayList<>(parent.names);
+    this.parent = parent;
+  }
+
+  /**
+   * Returns the slot for a name, or -1 if the name has none.
+   */
+  public int slotOf(String name) {
+    Integer slot = slots.get(name);
+    return slot != null ? slot : -1;
+  }
+
+  /**
+   * Returns the slot for a name, assigning the next free one if needed.
+   */
+  public int define(String name) {
+    Integer slot = slots.get(name);
+    if (slot != null)
+      return slot;
+    if (frozen)
+      throw new IllegalStateException("can't define '" + name + "' in a frozen layout");
+
+    int next = names.size();
+    slots.put(name, next);
+    names.add(name);
+    return next;
+  }
+
+  public String name(int slot) {
+    return names.get(slot);
+  }
+
+  public int size() {
+    return names.size();
+  }
+
+  /**
+   * Stops any more names being added.
+   */
+  void freeze() {
+    frozen = true;
+  }
+
+  boolean isFrozen() {
+    return frozen;
+  }
+
+  /**
+   * Returns a new, unfrozen layout starting with every slot of this one. This
+   * layout must be frozen, so the copy can't fall behind it.
+   */
+  SlotLayout derive() {
+    if (!frozen)
+      throw new IllegalStateException("only a frozen layout can be derived from");
+    return new SlotLayout(this);
+  }
+
+  /**
+   * Whether something bound to the given layout can use this one: it's this
+   * layout, or one this layout was derived from.
+   */
+  boolean covers(SlotLayout layout) {
+    for (SlotLayout l = this; l != null; l = l.parent) {
+      if (l == layout)
+        return true;
+    }
+    return false;
+  }
+}
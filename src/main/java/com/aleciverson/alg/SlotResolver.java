@@ -0,0 +1,19 @@
+package com.aleciverson.alg;
+
+/**
+ * Rewrites every variable in an expression to read from its slot in a
+ * {@link SlotLayout}, defining slots for names the layout hasn't seen.
+ */
+class SlotResolver extends Expression.Rewriter {
+  private final SlotLayout layout;
+
+  public SlotResolver(SlotLayout layout) {
+    this.layout = layout;
+  }
+
+  @Override
+  public Expression visitVariable(Expression.Variable expr) {
+    int slot = layout.define(expr.name());
+    return slot == expr.slot() ? expr : new Expression.Variable(expr.name(), slot);
+  }
+}
@@ -1,12 +1,24 @@
 package com.aleciverson.alg;
 
 public class Statement {
-  private String outVar;
-  private Expression expression;
+  private final String outVar;
+  private final Expression expression;
+  private final SlotLayout layout;
+  private final int outSlot;
+  private CompiledStatement compiled;
+  private volatile boolean compileAttempted;
+  private volatile VmProgram program;
+  private volatile Statement bound;
 
   public Statement(String outVar, Expression expression) {
+    this(outVar, expression, null, -1);
+  }
+
+  private Statement(String outVar, Expression expression, SlotLayout layout, int outSlot) {
     this.outVar = outVar;
     this.expression = expression;
+    this.layout = layout;
+    this.outSlot = outSlot;
   }
 
   public double resolve(EnvironmentReadable env) {
@@ -16,4 +28,87 @@ public class Statement {
   public String outputVariable() {
     return outVar;
   }
+
+  /**
+   * Whether this statement computes a temporary introduced by
+   * {@link SubexpressionEliminator}, rather than a variable from source.
+   */
+  public boolean isTemporary() {
+    return outVar.startsWith("$");
+  }
+
+  Expression expression() {
+    return expression;
+  }
+
+  /**
+   * The layout this statement's variables are bound to, or null if unbound.
+   */
+  SlotLayout layout() {
+    return layout;
+  }
+
+  int outputSlot() {
+    return outSlot;
+  }
+
+  /**
+   * Returns a copy of this statement computing a different expression, bound to
+   * the same layout as this one.
+   */
+  Statement withExpression(Expression expression) {
+    return new Statement(outVar, expression, layout, outSlot);
+  }
+
+  /**
+   * Returns a copy of this statement with every variable, including the output,
+   * bound to a slot in the layout. Names not yet in the layout are added.
+   */
+  Statement bind(SlotLayout layout) {
+    int slot = layout.define(outVar);
+    Expression bound = expression.accept(new SlotResolver(layout));
+    return new Statement(outVar, bound, layout, slot);
+  }
+
+  /**
+   * Returns a copy of this statement bound to an environment's layout. Like
+   * {@link #program}, the copy is kept and reused for as long as it still fits
+   * the environment, and with it the copy's compiled form.
+   */
+  Statement bound(Environment env) {
+    Statement current = bound;
+    if (current == null || !env.layout().covers(current.layout())) {
+      current = bind(env.writableLayout());
+      env.ensureCapacity();
+      bound = current;
+    }
+    return current;
+  }
+
+  /**
+   * Returns this statement compiled to bytecode, compiling it on first use, or
+   * null if it can't be compiled.
+   */
+  CompiledStatement compiled() {
+    if (!compileAttempted) {
+      compiled = ExpressionCompiler.compile(this);
+      compileAttempted = true;
+    }
+    return compiled;
+  }
+
+  /**
+   * Returns this statement compiled for the stack VM against an environment's
+   * layout. The program is kept and reused for as long as it still fits the
+   * environment, so a statement needn't be bound first.
+   */
+  VmProgram program(Environment env) {
+    VmProgram current = program;
+    if (current == null || !env.layout().covers(current.layout())) {
+      current = VmCompiler.compile(this, env.writableLayout());
+      env.ensureCapacity();
+      program = current;
+    }
+    return current;
+  }
 }
@@ -0,0 +1,148 @@
+package com.aleciverson.alg;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers parsed and optimized statements by their source, so a line seen
+ * before skips parsing entirely. Sources that differ only in whitespace the
+ * parser ignores share an entry.
+ *
+ * The cache is bounded both by the number of entries and by their total
+ * weight, the number of expression nodes they hold, and evicts the least
+ * recently used entries first. It's safe to use from several threads; lines
+ * are parsed outside the lock, so two threads missing on the same line at
+ * once may both parse it, though both get back the same statement.
+ */
+public class StatementCache {
+  private final int maxEntries;
+  private final long maxWeight;
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long weight = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public StatementCache(int maxEntries, long maxWeight) {
+    if (maxEntries < 1 || maxWeight < 1)
+      throw new IllegalArgumentException("cache limits must be positive");
+
+    this.maxEntries = maxEntries;
+    this.maxWeight = maxWeight;
+  }
+
+  /**
+   * The statement a line parses to, after optimizing. Lines that fail to parse
+   * aren't cached, and throw every time.
+   */
+  public Statement get(String line) {
+    String key = normalize(line);
+
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        hits.incrementAndGet();
+        return entry.statement;
+      }
+    }
+
+    misses.incrementAndGet();
+    Statement stmt = new Optimizer().optimize(Parser.parse(line));
+    Entry entry = new Entry(stmt, NodeCounter.count(stmt.expression()));
+
+    synchronized (this) {
+      // another thread parsing the same line got here first
+      Entry existing = entries.get(key);
+      if (existing != null)
+        return existing.statement;
+
+      entries.put(key, entry);
+      weight += entry.weight;
+
+      Iterator<Entry> eldest = entries.values().iterator();
+      while (entries.size() > maxEntries || weight > maxWeight && entries.size() > 1) {
+        weight -= eldest.next().weight;
+        eldest.remove();
+        evictions.incrementAndGet();
+      }
+    }
+
+    return stmt;
+  }
+
+  /**
+   * Drops the whitespace the parser ignores: anything around the output name
+   * and the expression, as {@link String#trim()} would, and spaces inside the
+   * expression, except a single one where removing it would join two tokens
+   * into one, such as the numbers in {@code 1 2}. Anything else, such as a tab
+   * inside the expression, is kept, so a line the parser rejects never matches
+   * one it accepts.
+   */
+  static String normalize(String line) {
+    int equals = line.indexOf('=');
+    if (equals == -1)
+      return line.trim();
+
+    String expr = line.substring(equals + 1).trim();
+    StringBuilder normalized = new StringBuilder(line.length());
+    normalized.append(line.substring(0, equals).trim()).append('=');
+    int exprStart = normalized.length();
+    boolean pendingSpace = false;
+
+    for (int i = 0; i < expr.length(); ++i) {
+      char ch = expr.charAt(i);
+      if (ch == ' ') {
+        pendingSpace = true;
+        continue;
+      }
+
+      if (pendingSpace && normalized.length() > exprStart && isWordChar(normalized.charAt(normalized.length() - 1))
+          && isWordChar(ch))
+        normalized.append(' ');
+      pendingSpace = false;
+      normalized.append(ch);
+    }
+
+    return normalized.toString();
+  }
+
+  private static boolean isWordChar(char ch) {
+    return 'a' <= ch && ch <= 'z' || 'A' <= ch && ch <= 'Z' || '0' <= ch && ch <= '9' || ch == '_' || ch == '.';
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  public long evictions() {
+    return evictions.get();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * The total weight of every entry, in expression nodes.
+   */
+  public synchronized long weight() {
+    return weight;
+  }
+
+  private static class Entry {
+    final Statement statement;
+    final int weight;
+
+    Entry(Statement statement, int weight) {
+      this.statement = statement;
+      this.weight = weight;
+    }
+  }
+}
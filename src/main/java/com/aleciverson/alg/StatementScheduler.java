@@ -0,0 +1,80 @@
+package com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups a script's statements into levels, where every statement only
+ * depends on statements in earlier levels. The statements within a level can
+ * run in any order, or all at once, and still give the same results as
+ * running the whole script in order.
+ *
+ * A statement depends on an earlier one if it reads what the earlier one
+ * assigns, assigns what the earlier one reads, or assigns the same variable.
+ */
+class StatementScheduler {
+  private final int[][] levels;
+  private final long[] costs;
+
+  StatementScheduler(List<Statement> stmts) {
+    // the level of the latest assignment to each name, and the highest level
+    // reading that assignment
+    Map<String, Integer> assigned = new HashMap<>();
+    Map<String, Integer> read = new HashMap<>();
+    int[] levelOf = new int[stmts.size()];
+    int levelCount = 0;
+
+    for (int i = 0; i < stmts.size(); ++i) {
+      Statement stmt = stmts.get(i);
+      Set<String> reads = VariableReads.of(stmt.expression());
+      String out = stmt.outputVariable();
+
+      int level = Math.max(assigned.getOrDefault(out, -1), read.getOrDefault(out, -1)) + 1;
+      for (String name : reads)
+        level = Math.max(level, assigned.getOrDefault(name, -1) + 1);
+
+      levelOf[i] = level;
+      levelCount = Math.max(levelCount, level + 1);
+
+      for (String name : reads)
+        read.merge(name, level, Math::max);
+      assigned.put(out, level);
+      read.remove(out);
+    }
+
+    List<List<Integer>> grouped = new ArrayList<>();
+    for (int l = 0; l < levelCount; ++l)
+      grouped.add(new ArrayList<>());
+    for (int i = 0; i < levelOf.length; ++i)
+      grouped.get(levelOf[i]).add(i);
+
+    levels = new int[levelCount][];
+    costs = new long[levelCount];
+    for (int l = 0; l < levelCount; ++l) {
+      levels[l] = grouped.get(l).stream().mapToInt(Integer::intValue).toArray();
+      for (int i : levels[l])
+        costs[l] += CostEstimator.estimate(stmts.get(i).expression());
+    }
+  }
+
+  int levelCount() {
+    return levels.length;
+  }
+
+  /**
+   * The indexes of the statements in a level, in script order.
+   */
+  int[] level(int level) {
+    return levels[level];
+  }
+
+  /**
+   * The estimated cost of every statement in a level together.
+   */
+  long cost(int level) {
+    return costs[level];
+  }
+}
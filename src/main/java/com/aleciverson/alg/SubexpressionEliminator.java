@@ -0,0 +1,187 @@
+package com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Eliminates common subexpressions across a whole script. A subexpression that
+ * is computed more than once is computed once into a temporary variable, by a
+ * statement inserted just before its first use, and every use reads the
+ * temporary instead.
+ *
+ * A computed subexpression stays available until a statement assigns one of
+ * the variables it reads. After that, the same subexpression is a new value and
+ * is computed again.
+ *
+ * Temporaries are named {@code $0}, {@code $1}, ... which can't clash with
+ * names from source. Statements computing them report
+ * {@link Statement#isTemporary()}.
+ */
+public class SubexpressionEliminator {
+  private int temporaries = 0;
+
+  public List<Statement> eliminate(List<Statement> stmts) {
+    // first count how often each available subexpression is used, then replay
+    // the same walk and rewrite the ones used more than once
+    Scan counting = new Scan(null);
+    for (Statement stmt : stmts)
+      counting.statement(stmt);
+
+    Scan rewriting = new Scan(counting.uses);
+    List<Statement> out = new ArrayList<>(stmts.size());
+    for (Statement stmt : stmts) {
+      Expression expr = rewriting.statement(stmt);
+      out.addAll(rewriting.pending);
+      rewriting.pending.clear();
+      out.add(expr == stmt.expression() ? stmt : stmt.withExpression(expr));
+    }
+
+    return out;
+  }
+
+  /**
+   * The number of temporaries introduced so far.
+   */
+  public int temporaries() {
+    return temporaries;
+  }
+
+  /**
+   * Whether a subexpression is worth a temporary. Reading a temporary costs
+   * about as much as a variable read plus a negation, so those are left alone.
+   */
+  private static boolean isCandidate(Expression expr) {
+    if (expr instanceof Expression.Value || expr instanceof Expression.Variable)
+      return false;
+    if (expr instanceof Expression.Negative) {
+      Expression rhs = ((Expression.Negative) expr).rhs();
+      return !(rhs instanceof Expression.Value || rhs instanceof Expression.Variable);
+    }
+    return true;
+  }
+
+  /**
+   * Walks statements in order, tracking which subexpressions are available.
+   * Each newly available subexpression gets the next id, so two scans over the
+   * same statements hand out the same ids.
+   *
+   * Without use counts, a scan only counts. With them, it rewrites every
+   * subexpression used more than once to read a temporary.
+   */
+  private class Scan extends Expression.Rewriter {
+    private final List<Integer> counts;
+    private final List<Integer> uses = new ArrayList<>();
+    private final Map<Expression, Integer> available = new HashMap<>();
+    private final Map<String, List<Expression>> readers = new HashMap<>();
+    private final Map<Integer, String> names = new HashMap<>();
+    private final List<Statement> pending = new ArrayList<>();
+
+    Scan(List<Integer> counts) {
+      this.counts = counts;
+    }
+
+    Expression statement(Statement stmt) {
+      Expression expr = visit(stmt.expression());
+
+      // anything that read the old value is stale now
+      List<Expression> stale = readers.remove(stmt.outputVariable());
+      if (stale != null) {
+        for (Expression e : stale)
+          available.remove(e);
+      }
+
+      return expr;
+    }
+
+    private Expression visit(Expression expr) {
+      if (!isCandidate(expr))
+        return expr.accept(this);
+
+      Integer id = available.get(expr);
+      if (id != null) {
+        uses.set(id, uses.get(id) + 1);
+        // the temporary was already created by the first use
+        return counts != null && counts.get(id) > 1 ? temporary(id) : expr;
+      }
+
+      id = uses.size();
+      uses.add(1);
+      available.put(expr, id);
+      Set<String> reads = VariableReads.of(expr);
+      for (String name : reads)
+        readers.computeIfAbsent(name, k -> new ArrayList<>()).add(expr);
+
+      Expression rewritten = expr.accept(this);
+      if (counts == null || counts.get(id) < 2)
+        return rewritten;
+
+      String name = "$" + temporaries++;
+      names.put(id, name);
+      pending.add(new Statement(name, rewritten));
+      return temporary(id);
+    }
+
+    private Expression temporary(int id) {
+      return new Expression.Variable(names.get(id));
+    }
+
+    // children go through visit() so every level is checked
+
+    @Override
+    public Expression visitAddition(Expression.Addition expr) {
+      Expression lhs = visit(expr.lhs());
+      Expression rhs = visit(expr.rhs());
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Expression.Addition(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitSubtraction(Expression.Subtraction expr) {
+      Expression lhs = visit(expr.lhs());
+      Expression rhs = visit(expr.rhs());
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Expression.Subtraction(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitMultiplication(Expression.Multiplication expr) {
+      Expression lhs = visit(expr.lhs());
+      Expression rhs = visit(expr.rhs());
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Expression.Multiplication(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitDivision(Expression.Division expr) {
+      Expression lhs = visit(expr.lhs());
+      Expression rhs = visit(expr.rhs());
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Expression.Division(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitPower(Expression.Power expr) {
+      Expression lhs = visit(expr.lhs());
+      Expression rhs = visit(expr.rhs());
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : new Expression.Power(lhs, rhs);
+    }
+
+    @Override
+    public Expression visitNegative(Expression.Negative expr) {
+      Expression rhs = visit(expr.rhs());
+      return rhs == expr.rhs() ? expr : new Expression.Negative(rhs);
+    }
+
+    @Override
+    public Expression visitBuiltinCall(Expression.BuiltinCall expr) {
+      Expression arg = visit(expr.argument());
+      return arg == expr.argument() ? expr : expr.withArgument(arg);
+    }
+
+    @Override
+    public Expression visitBinaryCall(Expression.BinaryCall expr) {
+      Expression lhs = visit(expr.lhs());
+      Expression rhs = visit(expr.rhs());
+      return lhs == expr.lhs() && rhs == expr.rhs() ? expr : expr.withArguments(lhs, rhs);
+    }
+  }
+}
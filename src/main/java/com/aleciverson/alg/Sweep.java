@@ -0,0 +1,231 @@
+package com.aleciverson.alg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs a script once per point of the Cartesian product of some ranges of
+ * input values, such as {@code r=1..100:0.5 theta=0..360}.
+ *
+ * The points are never all held at once: they're numbered, with the last
+ * range varying fastest, and each block of consecutive points is generated,
+ * evaluated with a {@link BatchEvaluator} and formatted as a task of its own.
+ * Blocks run in parallel, but are written in order, so the output is the same
+ * however many threads run it.
+ */
+public class Sweep {
+  private static final int BLOCK_SIZE = BatchEvaluator.CHUNK_SIZE * 16;
+
+  /**
+   * The values {@code start}, {@code start + step}, ... up to and including
+   * {@code end}, or as close to it as the step allows.
+   */
+  public static final class Range {
+    private final String name;
+    private final double start;
+    private final double step;
+    private final long count;
+
+    public Range(String name, double start, double end, double step) {
+      if (Environment.CONSTANTS.containsKey(name))
+        throw new AssignConstantException(name);
+      if (!Double.isFinite(start) || !Double.isFinite(end) || !Double.isFinite(step) || step == 0)
+        throw new IllegalArgumentException(String.format("invalid range for '%s'", name));
+      if (start != end && (end - start < 0) != (step < 0))
+        throw new IllegalArgumentException(String.format("the range for '%s' is empty", name));
+
+      // allowing for rounding, so 0..1:0.1 ends at 1
+      double steps = Math.floor((end - start) / step + 1e-9);
+      if (steps >= Long.MAX_VALUE)
+        throw new IllegalArgumentException(String.format("the range for '%s' is too long", name));
+
+      this.name = name;
+      this.start = start;
+      this.step = step;
+      this.count = (long) steps + 1;
+    }
+
+    /**
+     * Parses {@code START..END} or {@code START..END:STEP}. The step is 1 by
+     * default.
+     */
+    public static Range parse(String name, String text) {
+      int dots = text.indexOf("..");
+      if (dots == -1)
+        throw new IllegalArgumentException(String.format("'%s' isn't a range", text));
+
+      int colon = text.indexOf(':', dots);
+      double start = Double.parseDouble(text.substring(0, dots));
+      double end = Double.parseDouble(text.substring(dots + 2, colon == -1 ? text.length() : colon));
+      double step = colon == -1 ? 1 : Double.parseDouble(text.substring(colon + 1));
+      return new Range(name, start, end, step);
+    }
+
+    /**
+     * Whether an argument's value is a range rather than a number.
+     */
+    public static boolean isRange(String text) {
+      return text.contains("..");
+    }
+
+    public String name() {
+      return name;
+    }
+
+    public long count() {
+      return count;
+    }
+
+    public double value(long index) {
+      return start + index * step;
+    }
+  }
+
+  private final List<Statement> stmts;
+  private final Range[] ranges;
+  private final long size;
+
+  public Sweep(List<Statement> stmts, List<Range> ranges) {
+    this.stmts = stmts;
+    this.ranges = ranges.toArray(new Range[0]);
+
+    long size = 1;
+    for (Range range : ranges) {
+      try {
+        size = Math.multiplyExact(size, range.count());
+      } catch (ArithmeticException e) {
+        throw new IllegalArgumentException("the sweep has too many points");
+      }
+    }
+    this.size = size;
+  }
+
+  /**
+   * How many points there are.
+   */
+  public long size() {
+    return size;
+  }
+
+  /**
+   * Runs the script at every point, writing the final value of every variable
+   * it assigns, other than temporaries, after each. Variables set in the
+   * environment are the same at every point; the ranges take precedence.
+   */
+  public void run(Environment env, ResultWriter out, ForkJoinPool pool) throws IOException {
+    Map<String, Double> fixed = new LinkedHashMap<>();
+    for (Map.Entry<String, Double> var : env) {
+      if (!Environment.CONSTANTS.containsKey(var.getKey()))
+        fixed.put(var.getKey(), var.getValue());
+    }
+
+    // enough workers that every thread has a block to run while the oldest is
+    // being written
+    Deque<Worker> idle = new ArrayDeque<>();
+    for (int i = 0; i < 2 * pool.getParallelism() + 1; ++i)
+      idle.add(new Worker(fixed, out));
+
+    Deque<ForkJoinTask<Worker>> running = new ArrayDeque<>();
+    long next = 0;
+    while (next < size || !running.isEmpty()) {
+      if (next < size && !idle.isEmpty()) {
+        Worker worker = idle.remove();
+        long first = next;
+        int rows = (int) Math.min(BLOCK_SIZE, size - next);
+        running.add(pool.submit(() -> worker.run(first, rows)));
+        next += rows;
+      } else {
+        Worker worker = running.remove().join();
+        worker.bytes.appendTo(out);
+        idle.add(worker);
+      }
+    }
+  }
+
+  /**
+   * Evaluates and formats one block at a time, reusing its columns and
+   * buffer from block to block.
+   */
+  private final class Worker {
+    final BatchEvaluator evaluator = new BatchEvaluator(stmts);
+    final double[][] columns = new double[ranges.length][BLOCK_SIZE];
+    final Map<String, double[]> inputs = new LinkedHashMap<>();
+    final Bytes bytes = new Bytes();
+    final ResultWriter writer;
+    final long[] digits = new long[ranges.length];
+
+    Worker(Map<String, Double> fixed, ResultWriter out) {
+      fixed.forEach((name, value) -> {
+        double[] column = new double[BLOCK_SIZE];
+        Arrays.fill(column, value);
+        inputs.put(name, column);
+      });
+      for (int i = 0; i < ranges.length; ++i)
+        inputs.put(ranges[i].name(), columns[i]);
+
+      writer = out.fragment(bytes);
+    }
+
+    Worker run(long first, int rows) throws IOException {
+      generate(first, rows);
+
+      Map<String, double[]> block = inputs;
+      // only the last block is short
+      if (rows < BLOCK_SIZE) {
+        block = new LinkedHashMap<>();
+        for (Map.Entry<String, double[]> input : inputs.entrySet())
+          block.put(input.getKey(), Arrays.copyOf(input.getValue(), rows));
+      }
+
+      List<Map.Entry<String, double[]>> outputs = List.copyOf(evaluator.run(block).entrySet());
+      bytes.reset();
+      for (int row = 0; row < rows; ++row) {
+        for (Map.Entry<String, double[]> output : outputs)
+          writer.write(output.getKey(), output.getValue()[row]);
+      }
+      writer.flush();
+      return this;
+    }
+
+    /**
+     * Fills the columns with the points from {@code first} on, counting
+     * through each range's index like an odometer.
+     */
+    private void generate(long first, int rows) {
+      long rest = first;
+      for (int i = ranges.length - 1; i >= 0; --i) {
+        digits[i] = rest % ranges[i].count();
+        rest /= ranges[i].count();
+      }
+
+      for (int row = 0; row < rows; ++row) {
+        for (int i = 0; i < ranges.length; ++i)
+          columns[i][row] = ranges[i].value(digits[i]);
+
+        for (int i = ranges.length - 1; i >= 0 && ++digits[i] == ranges[i].count(); --i)
+          digits[i] = 0;
+      }
+    }
+  }
+
+  /**
+   * Exposes its buffer, so it can be written without copying it first.
+   */
+  private static final class Bytes extends ByteArrayOutputStream {
+    Bytes() {
+      super(BLOCK_SIZE * 16);
+    }
+
+    void appendTo(ResultWriter out) throws IOException {
+      out.append(buf, 0, count);
+    }
+  }
+}
@@ -1,10 +1,23 @@
 package com.aleciverson.alg;
 
 enum Token {
-  PLUS, MINUS, MULTIPLY, DIVIDE, POWER, NEGATIVE, SINE, COSINE, TANGENT, LOG, NATURAL_LOG, SQUARE_ROOT, PAREN_OPEN;
+  PLUS(1), MINUS(1), MULTIPLY(2), DIVIDE(2), POWER(3), NEGATIVE(0), FUNCTION(0), PAREN_OPEN(0);
+
+  /**
+   * Binding strength of binary operators, higher binds tighter. Zero for
+   * everything else.
+   */
+  public final int precedence;
+
+  Token(int precedence) {
+    this.precedence = precedence;
+  }
 
   public boolean isFunction() {
-    return this == SINE || this == COSINE || this == TANGENT || this == LOG || this == NATURAL_LOG
-        || this == SQUARE_ROOT;
+    return this == FUNCTION;
+  }
+
+  public boolean isBinaryOperator() {
+    return precedence > 0;
   }
 }
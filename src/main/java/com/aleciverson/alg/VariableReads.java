@@ -0,0 +1,24 @@
+package com.aleciverson.alg;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Collects the names of the variables an expression reads, in the order they
+ * are first read.
+ */
+class VariableReads extends Expression.Rewriter {
+  private final Set<String> names = new LinkedHashSet<>();
+
+  public static Set<String> of(Expression expr) {
+    VariableReads reads = new VariableReads();
+    expr.accept(reads);
+    return reads.names;
+  }
+
+  @Override
+  public Expression visitVariable(Expression.Variable expr) {
+    names.add(expr.name());
+    return expr;
+  }
+}
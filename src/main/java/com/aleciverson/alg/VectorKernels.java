@@ -0,0 +1,144 @@
+package com.aleciverson.alg;
+
+import java.util.Map;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Column loops written with the Vector API, a full vector of rows at a time,
+ * with a scalar loop for the rows left over.
+ *
+ * Only {@link BatchEvaluator} creates these, and only once it has checked
+ * that the incubating jdk.incubator.vector module is present: the JVM only
+ * resolves it when started with {@code --add-modules jdk.incubator.vector}.
+ *
+ * Arithmetic, square roots, abs, min and max give exactly the same results as
+ * the scalar loops. Powers, logarithms, exponentials and trigonometry are only
+ * guaranteed to within an ulp or so of {@link Math}.
+ */
+class VectorKernels implements ColumnKernels {
+  private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+  private static final Map<String, VectorOperators.Unary> builtins = Map.ofEntries(
+      Map.entry("sin", VectorOperators.SIN),
+      Map.entry("cos", VectorOperators.COS),
+      Map.entry("tan", VectorOperators.TAN),
+      Map.entry("asin", VectorOperators.ASIN),
+      Map.entry("acos", VectorOperators.ACOS),
+      Map.entry("atan", VectorOperators.ATAN),
+      Map.entry("log", VectorOperators.LOG10),
+      Map.entry("ln", VectorOperators.LOG),
+      Map.entry("exp", VectorOperators.EXP),
+      Map.entry("sqrt", VectorOperators.SQRT),
+      Map.entry("abs", VectorOperators.ABS));
+
+  private static final Map<String, VectorOperators.Binary> binaryBuiltins = Map.of(
+      "atan2", VectorOperators.ATAN2,
+      "hypot", VectorOperators.HYPOT,
+      "min", VectorOperators.MIN,
+      "max", VectorOperators.MAX);
+
+  @Override
+  public void add(double[] lhs, double[] rhs, double[] out, int length) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+      DoubleVector a = DoubleVector.fromArray(SPECIES, lhs, i);
+      DoubleVector b = DoubleVector.fromArray(SPECIES, rhs, i);
+      a.add(b).intoArray(out, i);
+    }
+    for (; i < length; ++i)
+      out[i] = lhs[i] + rhs[i];
+  }
+
+  @Override
+  public void subtract(double[] lhs, double[] rhs, double[] out, int length) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+      DoubleVector a = DoubleVector.fromArray(SPECIES, lhs, i);
+      DoubleVector b = DoubleVector.fromArray(SPECIES, rhs, i);
+      a.sub(b).intoArray(out, i);
+    }
+    for (; i < length; ++i)
+      out[i] = lhs[i] - rhs[i];
+  }
+
+  @Override
+  public void multiply(double[] lhs, double[] rhs, double[] out, int length) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+      DoubleVector a = DoubleVector.fromArray(SPECIES, lhs, i);
+      DoubleVector b = DoubleVector.fromArray(SPECIES, rhs, i);
+      a.mul(b).intoArray(out, i);
+    }
+    for (; i < length; ++i)
+      out[i] = lhs[i] * rhs[i];
+  }
+
+  @Override
+  public void divide(double[] lhs, double[] rhs, double[] out, int length) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+      DoubleVector a = DoubleVector.fromArray(SPECIES, lhs, i);
+      DoubleVector b = DoubleVector.fromArray(SPECIES, rhs, i);
+      a.div(b).intoArray(out, i);
+    }
+    for (; i < length; ++i)
+      out[i] = lhs[i] / rhs[i];
+  }
+
+  @Override
+  public void power(double[] lhs, double[] rhs, double[] out, int length) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+      DoubleVector a = DoubleVector.fromArray(SPECIES, lhs, i);
+      DoubleVector b = DoubleVector.fromArray(SPECIES, rhs, i);
+      a.lanewise(VectorOperators.POW, b).intoArray(out, i);
+    }
+    for (; i < length; ++i)
+      out[i] = Math.pow(lhs[i], rhs[i]);
+  }
+
+  @Override
+  public void negate(double[] arg, double[] out, int length) {
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length())
+      DoubleVector.fromArray(SPECIES, arg, i).neg().intoArray(out, i);
+    for (; i < length; ++i)
+      out[i] = -arg[i];
+  }
+
+  @Override
+  public void call(Expression.BuiltinCall func, double[] arg, double[] out, int length) {
+    VectorOperators.Unary op = builtins.get(func.name());
+    if (op == null) {
+      ColumnKernels.Scalar.INSTANCE.call(func, arg, out, length);
+      return;
+    }
+
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length())
+      DoubleVector.fromArray(SPECIES, arg, i).lanewise(op).intoArray(out, i);
+    for (; i < length; ++i)
+      out[i] = func.apply(arg[i]);
+  }
+
+  @Override
+  public void call(Expression.BinaryCall func, double[] lhs, double[] rhs, double[] out, int length) {
+    VectorOperators.Binary op = binaryBuiltins.get(func.name());
+    if (op == null) {
+      ColumnKernels.Scalar.INSTANCE.call(func, lhs, rhs, out, length);
+      return;
+    }
+
+    int i = 0;
+    for (int bound = SPECIES.loopBound(length); i < bound; i += SPECIES.length()) {
+      DoubleVector a = DoubleVector.fromArray(SPECIES, lhs, i);
+      DoubleVector b = DoubleVector.fromArray(SPECIES, rhs, i);
+      a.lanewise(op, b).intoArray(out, i);
+    }
+    for (; i < length; ++i)
+      out[i] = func.apply(lhs[i], rhs[i]);
+  }
+}
@@ -0,0 +1,201 @@
+package com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles statements to {@link VmProgram}s.
+ *
+ * The tree is walked with an explicit stack rather than a visitor, and
+ * variables are resolved against the layout as they're reached, so compiling
+ * doesn't recurse either: statements too deep for the tree walker, or even for
+ * binding, still compile and run.
+ */
+class VmCompiler {
+  private static final Map<String, Integer> builtins = Map.ofEntries(
+      Map.entry("sin", VmProgram.SIN),
+      Map.entry("cos", VmProgram.COS),
+      Map.entry("tan", VmProgram.TAN),
+      Map.entry("asin", VmProgram.ASIN),
+      Map.entry("acos", VmProgram.ACOS),
+      Map.entry("atan", VmProgram.ATAN),
+      Map.entry("log", VmProgram.LOG10),
+      Map.entry("ln", VmProgram.LN),
+      Map.entry("exp", VmProgram.EXP),
+      Map.entry("sqrt", VmProgram.SQRT),
+      Map.entry("abs", VmProgram.ABS),
+      Map.entry("atan2", VmProgram.ATAN2),
+      Map.entry("hypot", VmProgram.HYPOT),
+      Map.entry("min", VmProgram.MIN),
+      Map.entry("max", VmProgram.MAX));
+
+  private int[] code = new int[16];
+  private int size = 0;
+  private final List<Double> constants = new ArrayList<>();
+  private final Map<Long, Integer> constantIndexes = new HashMap<>();
+  private final List<Functions.Function> calls = new ArrayList<>();
+  private final List<Functions.Function> binaryCalls = new ArrayList<>();
+  private final Map<Integer, String> reads = new LinkedHashMap<>();
+  private int depth = 0;
+  private int maxDepth = 0;
+
+  private VmCompiler() {
+  }
+
+  /**
+   * Compiles a statement, bound or not, against a layout. Names missing from
+   * the layout are added to it, so unless it already has them all, it mustn't
+   * be frozen.
+   */
+  static VmProgram compile(Statement stmt, SlotLayout layout) {
+    VmCompiler compiler = new VmCompiler();
+    compiler.emitTree(stmt.expression(), layout);
+
+    int[] readSlots = compiler.reads.keySet().stream().mapToInt(Integer::intValue).toArray();
+    String[] readNames = compiler.reads.values().toArray(new String[0]);
+    double[] constants = compiler.constants.stream().mapToDouble(Double::doubleValue).toArray();
+
+    return new VmProgram(layout, layout.define(stmt.outputVariable()), Arrays.copyOf(compiler.code, compiler.size),
+        constants, compiler.calls.toArray(new Functions.Function[0]),
+        compiler.binaryCalls.toArray(new Functions.Function[0]), compiler.maxDepth, readSlots, readNames);
+  }
+
+  /**
+   * Emits the tree in postorder. Each node goes on the work stack twice: the
+   * first time its children are pushed after it, the second time it's
+   * emitted.
+   */
+  private void emitTree(Expression root, SlotLayout layout) {
+    Expression[] nodes = new Expression[16];
+    boolean[] expanded = new boolean[16];
+    int top = 0;
+    nodes[0] = root;
+
+    while (top >= 0) {
+      Expression node = nodes[top];
+      if (expanded[top]) {
+        --top;
+        emit(node, layout);
+        continue;
+      }
+      expanded[top] = true;
+
+      Expression lhs = null;
+      Expression rhs = null;
+      if (node instanceof Expression.Addition) {
+        lhs = ((Expression.Addition) node).lhs();
+        rhs = ((Expression.Addition) node).rhs();
+      } else if (node instanceof Expression.Subtraction) {
+        lhs = ((Expression.Subtraction) node).lhs();
+        rhs = ((Expression.Subtraction) node).rhs();
+      } else if (node instanceof Expression.Multiplication) {
+        lhs = ((Expression.Multiplication) node).lhs();
+        rhs = ((Expression.Multiplication) node).rhs();
+      } else if (node instanceof Expression.Division) {
+        lhs = ((Expression.Division) node).lhs();
+        rhs = ((Expression.Division) node).rhs();
+      } else if (node instanceof Expression.Power) {
+        lhs = ((Expression.Power) node).lhs();
+        rhs = ((Expression.Power) node).rhs();
+      } else if (node instanceof Expression.Negative) {
+        rhs = ((Expression.Negative) node).rhs();
+      } else if (node instanceof Expression.BuiltinCall) {
+        rhs = ((Expression.BuiltinCall) node).argument();
+      } else if (node instanceof Expression.BinaryCall) {
+        lhs = ((Expression.BinaryCall) node).lhs();
+        rhs = ((Expression.BinaryCall) node).rhs();
+      }
+
+      if (top + 2 >= nodes.length) {
+        nodes = Arrays.copyOf(nodes, nodes.length * 2);
+        expanded = Arrays.copyOf(expanded, expanded.length * 2);
+      }
+      // the right child goes first, so the left one is emitted first
+      if (rhs != null) {
+        nodes[++top] = rhs;
+        expanded[top] = false;
+      }
+      if (lhs != null) {
+        nodes[++top] = lhs;
+        expanded[top] = false;
+      }
+    }
+  }
+
+  private void emit(Expression node, SlotLayout layout) {
+    if (node instanceof Expression.Value) {
+      push(VmProgram.CONSTANT, constant(((Expression.Value) node).constant()));
+    } else if (node instanceof Expression.Variable) {
+      String name = ((Expression.Variable) node).name();
+      int slot = layout.define(name);
+      reads.putIfAbsent(slot, name);
+      push(VmProgram.LOAD, slot);
+    } else if (node instanceof Expression.Addition) {
+      pop(VmProgram.ADD);
+    } else if (node instanceof Expression.Subtraction) {
+      pop(VmProgram.SUBTRACT);
+    } else if (node instanceof Expression.Multiplication) {
+      pop(VmProgram.MULTIPLY);
+    } else if (node instanceof Expression.Division) {
+      pop(VmProgram.DIVIDE);
+    } else if (node instanceof Expression.Power) {
+      pop(VmProgram.POWER);
+    } else if (node instanceof Expression.Negative) {
+      instruction(VmProgram.NEGATE, 0);
+    } else if (node instanceof Expression.BuiltinCall) {
+      Expression.BuiltinCall call = (Expression.BuiltinCall) node;
+      Integer opcode = builtins.get(call.name());
+      if (opcode != null) {
+        instruction(opcode, 0);
+      } else {
+        instruction(VmProgram.CALL, calls.size());
+        calls.add(call.function());
+      }
+    } else if (node instanceof Expression.BinaryCall) {
+      Expression.BinaryCall call = (Expression.BinaryCall) node;
+      Integer opcode = builtins.get(call.name());
+      if (opcode != null) {
+        pop(opcode);
+      } else {
+        pop(VmProgram.CALL_BINARY, binaryCalls.size());
+        binaryCalls.add(call.function());
+      }
+    } else {
+      throw new IllegalArgumentException("can't compile " + node.getClass().getSimpleName());
+    }
+  }
+
+  private int constant(double value) {
+    // keyed by bits, so 0 and -0 (and every NaN) are kept apart
+    return constantIndexes.computeIfAbsent(Double.doubleToRawLongBits(value), bits -> {
+      constants.add(value);
+      return constants.size() - 1;
+    });
+  }
+
+  private void push(int opcode, int operand) {
+    instruction(opcode, operand);
+    maxDepth = Math.max(maxDepth, ++depth);
+  }
+
+  private void pop(int opcode) {
+    pop(opcode, 0);
+  }
+
+  private void pop(int opcode, int operand) {
+    instruction(opcode, operand);
+    --depth;
+  }
+
+  private void instruction(int opcode, int operand) {
+    if (operand >>> (32 - VmProgram.OPCODE_BITS) != 0)
+      throw new IllegalArgumentException("expression too large");
+    if (size == code.length)
+      code = Arrays.copyOf(code, size * 2);
+    code[size++] = opcode | operand << VmProgram.OPCODE_BITS;
+  }
+}
@@ -0,0 +1,223 @@
+package com.aleciverson.alg;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * A statement compiled by {@link VmCompiler} to instructions for a stack
+ * machine.
+ *
+ * Each instruction is one int: the opcode in the low 8 bits and an operand,
+ * a constant index, slot or function index, in the rest. Builtins have an
+ * opcode each; registered functions are called through {@link #CALL} or
+ * {@link #CALL_BINARY}.
+ *
+ * Evaluation is a single loop over the instructions working on a
+ * {@code double[]} operand stack, so it needs no recursion however deep the
+ * expression is.
+ */
+class VmProgram {
+  static final int CONSTANT = 0;
+  static final int LOAD = 1;
+  static final int ADD = 2;
+  static final int SUBTRACT = 3;
+  static final int MULTIPLY = 4;
+  static final int DIVIDE = 5;
+  static final int POWER = 6;
+  static final int NEGATE = 7;
+  static final int SIN = 8;
+  static final int COS = 9;
+  static final int TAN = 10;
+  static final int LOG10 = 11;
+  static final int LN = 12;
+  static final int SQRT = 13;
+  static final int CALL = 14;
+  static final int ASIN = 15;
+  static final int ACOS = 16;
+  static final int ATAN = 17;
+  static final int EXP = 18;
+  static final int ABS = 19;
+  static final int ATAN2 = 20;
+  static final int HYPOT = 21;
+  static final int MIN = 22;
+  static final int MAX = 23;
+  static final int CALL_BINARY = 24;
+
+  static final int OPCODE_BITS = 8;
+  static final int OPCODE_MASK = (1 << OPCODE_BITS) - 1;
+
+  private final SlotLayout layout;
+  private final int outSlot;
+  private final int[] code;
+  private final double[] constants;
+  private final Functions.Function[] functions;
+  private final Functions.Function[] binaryFunctions;
+  private final DoubleUnaryOperator[] calls;
+  private final DoubleBinaryOperator[] binaryCalls;
+  private final int maxStack;
+  private final int[] readSlots;
+  private final String[] readNames;
+
+  VmProgram(SlotLayout layout, int outSlot, int[] code, double[] constants, Functions.Function[] functions,
+      Functions.Function[] binaryFunctions, int maxStack, int[] readSlots, String[] readNames) {
+    this.layout = layout;
+    this.outSlot = outSlot;
+    this.code = code;
+    this.constants = constants;
+    this.functions = functions;
+    this.binaryFunctions = binaryFunctions;
+    this.calls = new DoubleUnaryOperator[functions.length];
+    for (int i = 0; i < functions.length; ++i)
+      calls[i] = functions[i].unary();
+    this.binaryCalls = new DoubleBinaryOperator[binaryFunctions.length];
+    for (int i = 0; i < binaryFunctions.length; ++i)
+      binaryCalls[i] = binaryFunctions[i].binary();
+    this.maxStack = maxStack;
+    this.readSlots = readSlots;
+    this.readNames = readNames;
+  }
+
+  /**
+   * The layout the program's slots refer to.
+   */
+  SlotLayout layout() {
+    return layout;
+  }
+
+  int outputSlot() {
+    return outSlot;
+  }
+
+  /**
+   * The operand stack size the program needs.
+   */
+  int maxStack() {
+    return maxStack;
+  }
+
+  int[] code() {
+    return code;
+  }
+
+  double[] constants() {
+    return constants;
+  }
+
+  /**
+   * The function a {@link #CALL} or {@link #CALL_BINARY} instruction calls.
+   */
+  Functions.Function function(int instruction) {
+    int index = instruction >>> OPCODE_BITS;
+    return (instruction & OPCODE_MASK) == CALL ? functions[index] : binaryFunctions[index];
+  }
+
+  /**
+   * Evaluates the program, using the given stack, which must hold at least
+   * {@link #maxStack()} values.
+   */
+  double execute(Environment env, double[] stack) {
+    for (int i = 0; i < readSlots.length; ++i) {
+      if (!env.isDefined(readSlots[i]))
+        throw new UnknownVariableException(readNames[i]);
+    }
+
+    double[] slots = env.slots();
+    int[] code = this.code;
+    int top = -1;
+
+    for (int pc = 0; pc < code.length; ++pc) {
+      int instruction = code[pc];
+      switch (instruction & OPCODE_MASK) {
+      case CONSTANT:
+        stack[++top] = constants[instruction >>> OPCODE_BITS];
+        break;
+      case LOAD:
+        stack[++top] = slots[instruction >>> OPCODE_BITS];
+        break;
+      case ADD:
+        stack[top - 1] = stack[top - 1] + stack[top];
+        --top;
+        break;
+      case SUBTRACT:
+        stack[top - 1] = stack[top - 1] - stack[top];
+        --top;
+        break;
+      case MULTIPLY:
+        stack[top - 1] = stack[top - 1] * stack[top];
+        --top;
+        break;
+      case DIVIDE:
+        stack[top - 1] = stack[top - 1] / stack[top];
+        --top;
+        break;
+      case POWER:
+        stack[top - 1] = Math.pow(stack[top - 1], stack[top]);
+        --top;
+        break;
+      case NEGATE:
+        stack[top] = -stack[top];
+        break;
+      case SIN:
+        stack[top] = Math.sin(stack[top]);
+        break;
+      case COS:
+        stack[top] = Math.cos(stack[top]);
+        break;
+      case TAN:
+        stack[top] = Math.tan(stack[top]);
+        break;
+      case LOG10:
+        stack[top] = Math.log10(stack[top]);
+        break;
+      case LN:
+        stack[top] = Math.log(stack[top]);
+        break;
+      case SQRT:
+        stack[top] = Math.sqrt(stack[top]);
+        break;
+      case CALL:
+        stack[top] = calls[instruction >>> OPCODE_BITS].applyAsDouble(stack[top]);
+        break;
+      case ASIN:
+        stack[top] = Math.asin(stack[top]);
+        break;
+      case ACOS:
+        stack[top] = Math.acos(stack[top]);
+        break;
+      case ATAN:
+        stack[top] = Math.atan(stack[top]);
+        break;
+      case EXP:
+        stack[top] = Math.exp(stack[top]);
+        break;
+      case ABS:
+        stack[top] = Math.abs(stack[top]);
+        break;
+      case ATAN2:
+        stack[top - 1] = Math.atan2(stack[top - 1], stack[top]);
+        --top;
+        break;
+      case HYPOT:
+        stack[top - 1] = Math.hypot(stack[top - 1], stack[top]);
+        --top;
+        break;
+      case MIN:
+        stack[top - 1] = Math.min(stack[top - 1], stack[top]);
+        --top;
+        break;
+      case MAX:
+        stack[top - 1] = Math.max(stack[top - 1], stack[top]);
+        --top;
+        break;
+      case CALL_BINARY:
+        stack[top - 1] = binaryCalls[instruction >>> OPCODE_BITS].applyAsDouble(stack[top - 1], stack[top]);
+        --top;
+        break;
+      default:
+        throw new IllegalStateException("bad opcode " + (instruction & OPCODE_MASK));
+      }
+    }
+
+    return stack[0];
+  }
+}
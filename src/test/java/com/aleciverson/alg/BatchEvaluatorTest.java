@@ -0,0 +1,116 @@
+package test.com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.aleciverson.alg.BatchEvaluator;
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.Statement;
+import com.aleciverson.alg.UnknownVariableException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BatchEvaluatorTest
+{
+    @Test
+    void matchesInterpreter()
+    {
+        List<String> lines = new ArrayList<>();
+        lines.add("x = r * cos(theta)");
+        lines.add("y = r * sin(theta)");
+        lines.add("h = sqrt(x ^ 2 + y ^ 2) - -2 * pi");
+        lines.add("y = 2 * (3 * x - 4) / y");
+
+        List<Statement> stmts = Parser.parse(lines);
+
+        // not a multiple of the chunk size, so the last chunk is partial
+        int      rows  = BatchEvaluator.CHUNK_SIZE * 2 + 17;
+        double[] r     = new double[rows];
+        double[] theta = new double[rows];
+        for (int i = 0; i < rows; ++i)
+        {
+            r[i]     = 1 + i * 0.25;
+            theta[i] = i * 0.01;
+        }
+
+        Map<String, double[]> inputs = new HashMap<>();
+        inputs.put("r", r);
+        inputs.put("theta", theta);
+
+        Map<String, double[]> outputs = new BatchEvaluator(stmts).run(inputs);
+
+        assertEquals(List.of("x", "y", "h"), new ArrayList<>(outputs.keySet()));
+
+        for (int i = 0; i < rows; ++i)
+        {
+            Environment env = new Environment(null);
+            env.set("r", r[i]);
+            env.set("theta", theta[i]);
+
+            Interpreter interpreter = new Interpreter(env);
+            for (Statement stmt : stmts)
+                interpreter.run(stmt);
+
+            for (String var : outputs.keySet())
+                assertEquals(interpreter.get(var), outputs.get(var)[i]);
+        }
+    }
+
+    @Test
+    void vectorMatchesScalar()
+    {
+        List<Statement> stmts = Parser.parse(List.of(
+            "x = r * cos(theta) - r / 3",
+            "y = -r * sin(theta) + tan(theta / 4)",
+            "z = sqrt(x * x + y * y) ^ 1.5 + log(r) - ln(r + 1)"));
+
+        int      rows  = BatchEvaluator.CHUNK_SIZE + 5;
+        double[] r     = new double[rows];
+        double[] theta = new double[rows];
+        for (int i = 0; i < rows; ++i)
+        {
+            r[i]     = 0.5 + i * 0.125;
+            theta[i] = i * 0.003 - 1.5;
+        }
+
+        Map<String, double[]> inputs = new HashMap<>();
+        inputs.put("r", r);
+        inputs.put("theta", theta);
+
+        BatchEvaluator vector = new BatchEvaluator(stmts, BatchEvaluator.Backend.VECTOR);
+
+        Map<String, double[]> expected = new BatchEvaluator(stmts, BatchEvaluator.Backend.SCALAR).run(inputs);
+        Map<String, double[]> actual   = vector.run(inputs);
+
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String var : expected.keySet())
+        {
+            for (int i = 0; i < rows; ++i)
+            {
+                double want = expected.get(var)[i];
+                if (vector.getBackend() == BatchEvaluator.Backend.SCALAR)
+                    assertEquals(want, actual.get(var)[i]);
+                else
+                    // the vector functions are only accurate to about an ulp
+                    assertEquals(want, actual.get(var)[i], 1e-12 * Math.max(1, Math.abs(want)));
+            }
+        }
+    }
+
+    @Test
+    void unknownVariable()
+    {
+        BatchEvaluator batch = new BatchEvaluator(Parser.parse(List.of("y = x + z")));
+
+        Map<String, double[]> inputs = new HashMap<>();
+        inputs.put("x", new double[] { 1, 2, 3 });
+
+        assertThrows(UnknownVariableException.class, () -> batch.run(inputs));
+    }
+}
@@ -0,0 +1,160 @@
+package test.com.aleciverson.alg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.aleciverson.alg.App;
+import com.aleciverson.alg.DatasetReader;
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.InvalidDatasetException;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.ResultWriter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DatasetReaderTest
+{
+    @Test
+    void csvMatchesParseDouble() throws IOException
+    {
+        Random       random  = new Random(23);
+        List<String> numbers = new ArrayList<>(List.of(
+            "0", "-0", "+1", "1.", ".5", "1e5", "1E-5", "-2.5e+3", "123456789012345", "1234567890123456789",
+            "0.1", "0.30000000000000004", "1e22", "1e23", "4.9e-324", "1.7976931348623157e308", "1e400",
+            "00012.3400", "NaN", "-Infinity"));
+        for (int i = 0; i < 3000; ++i)
+        {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (Double.isNaN(value))
+                continue;
+            numbers.add(Double.toString(value));
+            numbers.add(String.format(Locale.ROOT, "%.6f", random.nextDouble() * 2000 - 1000));
+            numbers.add(String.format(Locale.ROOT, "%.3e", random.nextGaussian() * 1e10));
+        }
+
+        StringBuilder csv = new StringBuilder(" a , b \r\n");
+        for (int i = 0; i + 1 < numbers.size(); i += 2)
+            csv.append(numbers.get(i)).append(i % 3 == 0 ? " ,\t" : ",").append(numbers.get(i + 1))
+               .append(i % 5 == 0 ? "\r\n" : "\n");
+        csv.append("\n\n");
+
+        Path file = write(csv.toString());
+        try (DatasetReader reader = DatasetReader.csv(file))
+        {
+            assertEquals(List.of("a", "b"), reader.columns());
+
+            // odd sized blocks, to cross block boundaries
+            double[][] columns = new double[2][7];
+            int        index   = 0;
+            int        rows;
+            while ((rows = reader.read(columns, 7)) > 0)
+            {
+                for (int row = 0; row < rows; ++row)
+                {
+                    for (int column = 0; column < 2; ++column)
+                    {
+                        String number = numbers.get(index++);
+                        assertEquals(Double.parseDouble(number), columns[column][row], number);
+                    }
+                }
+            }
+            assertEquals(numbers.size() / 2 * 2, index);
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void binaryRoundTrip() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ResultWriter          out   = new ResultWriter(bytes, ResultWriter.Format.BINARY);
+        for (int i = 0; i < 1000; ++i)
+        {
+            out.write("x", i);
+            out.write("y", -i / 3.0);
+        }
+        out.flush();
+
+        Path file = Files.createTempFile("alg", ".bin");
+        Files.write(file, bytes.toByteArray());
+        try (DatasetReader reader = DatasetReader.binary(file, List.of("x", "y")))
+        {
+            double[][] columns = new double[2][600];
+            assertEquals(600, reader.read(columns, 600));
+            assertEquals(599, columns[0][599]);
+            assertEquals(-599 / 3.0, columns[1][599]);
+            assertEquals(400, reader.read(columns, 600));
+            assertEquals(999, columns[0][399]);
+            assertEquals(0, reader.read(columns, 600));
+        }
+
+        assertThrows(InvalidDatasetException.class, () -> DatasetReader.binary(file, List.of("x", "y", "z")));
+        Files.delete(file);
+    }
+
+    @Test
+    void invalid() throws IOException
+    {
+        for (String csv : List.of("", "a,,b\n1,2,3\n", "a,b\n1,2,3\n", "a,b\n1\n", "a,b\n1,x\n", "a,b\n1,2 3\n"))
+        {
+            Path file = write(csv);
+            try
+            {
+                assertThrows(InvalidDatasetException.class, () -> {
+                    try (DatasetReader reader = DatasetReader.csv(file))
+                    {
+                        reader.read(new double[reader.columns().size()][4], 4);
+                    }
+                }, csv);
+            }
+            finally
+            {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void runDataset() throws IOException
+    {
+        Path file = write("x,y\n3,4\n5,12\n8,15");
+        try (DatasetReader reader = DatasetReader.csv(file))
+        {
+            Environment env = new Environment(null);
+            env.set("scale", 10);
+            env.set("y", 1000);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ResultWriter          out   = new ResultWriter(bytes, ResultWriter.Format.TEXT);
+            App.runDataset(Parser.parse(List.of("h = hypot(x, y)", "s = h * scale")), reader, env, out);
+            out.flush();
+
+            // the dataset's y takes precedence over the environment's
+            assertEquals("h = 5.000000\ns = 50.000000\nh = 13.000000\ns = 130.000000\nh = 17.000000\ns = 170.000000\n",
+                         bytes.toString(StandardCharsets.UTF_8));
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    private static Path write(String text) throws IOException
+    {
+        Path file = Files.createTempFile("alg", ".csv");
+        Files.writeString(file, text);
+        return file;
+    }
+}
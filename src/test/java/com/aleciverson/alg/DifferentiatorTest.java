@@ -0,0 +1,176 @@
+package test.com.aleciverson.alg;
+
+import java.util.List;
+import java.util.Random;
+
+import com.aleciverson.alg.Differentiator;
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.NotDifferentiableException;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.Script;
+import com.aleciverson.alg.Statement;
+import com.aleciverson.alg.SubexpressionEliminator;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DifferentiatorTest
+{
+    /**
+     * Every builtin and operator, each differentiable in x and y around
+     * (1.5, 0.75).
+     */
+    static final List<String> BUILTINS = List.of(
+        "x ^ 3 - 2 * x", "y ^ x", "x ^ y", "1 / (x * y)", "-x / (2 + y)",
+        "sin(x * y)", "cos(x) * sin(y)", "tan(x / 4)", "asin(x / 8)", "acos(x / 8)", "atan(x * y)",
+        "log(x + y)", "ln(x * x)", "exp(x - y)", "sqrt(x + y)", "abs(y - x)",
+        "atan2(y, x * x)", "hypot(x, 2 * y)", "min(x, y * y)", "max(2 * x, y)", "pi * x + e");
+
+    @Test
+    void builtins()
+    {
+        for (String function : BUILTINS)
+        {
+            Statement stmt = Parser.parse("z = " + function);
+            for (String var : List.of("x", "y"))
+            {
+                Statement derivative = Differentiator.derive(stmt, var);
+                assertEquals("dz/d" + var, derivative.outputVariable());
+
+                double exact = evaluate(derivative, 1.5, 0.75);
+                assertEquals(finiteDifference(stmt, var, 1.5, 0.75), exact, 1e-6 * Math.max(1, Math.abs(exact)),
+                             "d/d" + var + " " + function);
+            }
+        }
+    }
+
+    @Test
+    void randomExpressions()
+    {
+        Random random = new Random(18);
+        for (int i = 0; i < 2000; ++i)
+        {
+            Statement stmt = Parser.parse("z = " + expression(random, 5));
+            double x = 0.5 + random.nextDouble();
+            double y = 0.5 + random.nextDouble();
+
+            for (String var : List.of("x", "y"))
+            {
+                double exact  = evaluate(Differentiator.derive(stmt, var), x, y);
+                double approx = finiteDifference(stmt, var, x, y);
+                assertEquals(approx, exact, 1e-5 * Math.max(1, Math.abs(exact)), stmt.outputVariable());
+            }
+        }
+    }
+
+    @Test
+    void gradient()
+    {
+        List<Statement> stmts = Parser.parse(List.of(
+            "x = r * cos(theta)",
+            "y = r * sin(theta)",
+            "h = hypot(x, y)",
+            "r = r * r",
+            "s = r * theta"));
+
+        List<Statement> gradient = Differentiator.gradient(stmts, List.of("r", "theta"));
+
+        Script      script = new Script(gradient);
+        Environment env    = script.newEnvironment();
+        env.set("r", 5);
+        env.set("theta", 0.5);
+        script.run(env);
+
+        assertEquals(Math.cos(0.5), env.get("dx/dr"));
+        assertEquals(-5 * Math.sin(0.5), env.get("dx/dtheta"));
+        assertEquals(Math.sin(0.5), env.get("dy/dr"));
+        assertEquals(5 * Math.cos(0.5), env.get("dy/dtheta"));
+        assertEquals(1, env.get("dh/dr"), 1e-15);
+        assertEquals(0, env.get("dh/dtheta"), 1e-15);
+        // r was reassigned, so later statements see the derivatives of r * r
+        assertEquals(10, env.get("dr/dr"));
+        assertEquals(0, env.get("dr/dtheta"));
+        assertEquals(10 * 0.5, env.get("ds/dr"));
+        assertEquals(25, env.get("ds/dtheta"));
+    }
+
+    @Test
+    void temporaries()
+    {
+        List<Statement> stmts = new SubexpressionEliminator().eliminate(Parser.parse(List.of("y = sin(x) * sin(x) + 1")));
+
+        List<Statement> gradient = Differentiator.gradient(stmts, List.of("x"));
+
+        Script      script = new Script(gradient);
+        Environment env    = script.newEnvironment();
+        env.set("x", 0.25);
+        script.run(env);
+
+        for (Statement stmt : gradient)
+            assertEquals(stmt.outputVariable().startsWith("$"), stmt.isTemporary(), stmt.outputVariable());
+        assertEquals(2 * Math.sin(0.25) * Math.cos(0.25), env.get("dy/dx"));
+    }
+
+    @Test
+    void registeredFunction()
+    {
+        Statement stmt = Parser.parse("y = " + FunctionsTest.opaque() + "(x) + z");
+        assertThrows(NotDifferentiableException.class, () -> Differentiator.derive(stmt, "x"));
+        // it doesn't depend on z, so it needn't be differentiated
+        assertEquals(1.0, evaluate(Differentiator.derive(stmt, "z"), 0, 0));
+    }
+
+    /**
+     * Runs a statement of x and y, with z also defined, returning its result.
+     */
+    static double evaluate(Statement stmt, double x, double y)
+    {
+        Environment env = new Environment(null);
+        env.set("x", x);
+        env.set("y", y);
+        env.set("z", 0);
+        return new Interpreter(env).run(stmt);
+    }
+
+    static double finiteDifference(Statement stmt, String var, double x, double y)
+    {
+        double h = 1e-6;
+        if (var.equals("x"))
+            return (evaluate(stmt, x + h, y) - evaluate(stmt, x - h, y)) / (2 * h);
+        else
+            return (evaluate(stmt, x, y + h) - evaluate(stmt, x, y - h)) / (2 * h);
+    }
+
+    /**
+     * A smooth, well-conditioned expression of x and y near 1.
+     */
+    static String expression(Random random, int depth)
+    {
+        if (depth == 0 || random.nextInt(4) == 0)
+        {
+            switch (random.nextInt(3))
+            {
+            case 0:
+                return Integer.toString(1 + random.nextInt(3));
+            default:
+                return random.nextBoolean() ? "x" : "y";
+            }
+        }
+
+        switch (random.nextInt(6))
+        {
+        case 0:
+            return "-" + expression(random, depth - 1);
+        case 1:
+            return List.of("sin", "cos", "atan", "exp").get(random.nextInt(4))
+                + "(" + expression(random, depth - 1) + " / 4)";
+        case 2:
+            return "(" + expression(random, depth - 1) + ")";
+        default:
+            String op = List.of(" + ", " - ", " * ").get(random.nextInt(3));
+            return expression(random, depth - 1) + op + expression(random, depth - 1);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package test.com.aleciverson.alg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import com.aleciverson.alg.BatchEvaluator;
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.FastMath;
+import com.aleciverson.alg.FastMathRewriter;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.Optimizer;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.ScriptFile;
+import com.aleciverson.alg.Statement;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the documented error bounds against {@link StrictMath} across each
+ * function's domain.
+ */
+class FastMathTest
+{
+    private static final int SAMPLES = 200_000;
+
+    @Test
+    void sinAndCos()
+    {
+        Random random = new Random(25);
+        for (int i = 0; i < SAMPLES; ++i)
+        {
+            // every binade up to the reduction limit, and just past it
+            double x = (random.nextDouble() * 2 - 1) * Math.scalb(1.0, random.nextInt(52) - 30);
+            assertUlps(3, StrictMath::sin, FastMath::sin, x);
+            assertUlps(3, StrictMath::cos, FastMath::cos, x);
+        }
+
+        // near the roots, where the reduction cancels the most
+        for (int k = 1; k < 100_000; ++k)
+        {
+            assertUlps(3, StrictMath::sin, FastMath::sin, k * Math.PI);
+            assertUlps(3, StrictMath::cos, FastMath::cos, k * Math.PI / 2);
+            assertUlps(3, StrictMath::sin, FastMath::sin, Math.nextUp(k * Math.PI));
+            assertUlps(3, StrictMath::cos, FastMath::cos, Math.nextDown(k * Math.PI / 2));
+        }
+
+        for (double x : new double[] { 0.0, -0.0, 1e-300, -Double.MIN_VALUE, 0x1p20, -0x1p20, 1e300,
+                                       Double.MAX_VALUE, Double.POSITIVE_INFINITY, Double.NaN })
+        {
+            assertEquals(Math.sin(x), FastMath.sin(x), Math.ulp(Math.sin(x)), "sin " + x);
+            assertEquals(Math.cos(x), FastMath.cos(x), Math.ulp(Math.cos(x)), "cos " + x);
+        }
+        assertEquals(Double.doubleToRawLongBits(-0.0), Double.doubleToRawLongBits(FastMath.sin(-0.0)));
+    }
+
+    @Test
+    void log10()
+    {
+        Random random = new Random(25);
+        for (int i = 0; i < SAMPLES; ++i)
+        {
+            // every binade, including the subnormals
+            assertUlps(3, StrictMath::log10, FastMath::log10, random.nextDouble() * Math.scalb(1.0, random.nextInt(2098) - 1074));
+            // either side of 1, where the result is smallest
+            assertUlps(3, StrictMath::log10, FastMath::log10, 1 + (random.nextDouble() - 0.5) * Math.scalb(1.0, -random.nextInt(50)));
+        }
+
+        for (double x : new double[] { 0.0, -0.0, -1, 1, 10, Double.MIN_VALUE, Double.MIN_NORMAL, Double.MAX_VALUE,
+                                       Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NaN })
+            assertEquals(Math.log10(x), FastMath.log10(x), Math.ulp(Math.log10(x)), "log10 " + x);
+    }
+
+    @Test
+    void pow()
+    {
+        Random random = new Random(25);
+        for (int i = 0; i < SAMPLES; ++i)
+        {
+            double x = random.nextDouble() * Math.scalb(1.0, random.nextInt(200) - 100);
+            double y = random.nextGaussian() * Math.scalb(1.0, random.nextInt(8));
+            double t = Math.abs(y * Math.log(x));
+            assertUlps(4 * (1 + t), StrictMath::pow, FastMath::pow, x, y);
+        }
+
+        double[] specials = { 0.0, -0.0, 1, -1, 2, -2, 0.5, -3.5, 1e-310, 1e300, Double.POSITIVE_INFINITY,
+                              Double.NEGATIVE_INFINITY, Double.NaN };
+        for (double x : specials)
+        {
+            for (double y : specials)
+            {
+                double t = Math.abs(y * Math.log(Math.abs(x)));
+                assertUlps(Double.isFinite(t) ? 4 * (1 + t) : 1, StrictMath::pow, FastMath::pow, x, y);
+            }
+        }
+        // handed to Math where the result would overflow or be subnormal
+        assertEquals(Math.pow(10, 320), FastMath.pow(10, 320));
+        assertEquals(Math.pow(10, -320), FastMath.pow(10, -320));
+    }
+
+    @Test
+    void rewrite() throws IOException
+    {
+        List<Statement> stmts = new Optimizer().optimize(Parser.parse(List.of(
+            "x = r * cos(theta) + log(r ^ 3)",
+            "y = r * sin(theta) - (x + 1) ^ 0.5 + 2 ^ 10",
+            "z = atan2(y, x) + sin(pi / 6)")));
+        List<Statement> fast = new FastMathRewriter().rewrite(stmts);
+
+        double r     = 5;
+        double theta = 30;
+        double x     = r * FastMath.cos(theta) + FastMath.log10(FastMath.pow(r, 3));
+        // constants were folded exactly before the rewrite, and ^ 0.5 is still sqrt
+        double y     = r * FastMath.sin(theta) - Math.sqrt(x + 1) + 1024;
+        double z     = Math.atan2(y, x) + Math.sin(Math.PI / 6);
+
+        for (Interpreter.Backend backend : Interpreter.Backend.values())
+        {
+            Interpreter interpreter = new Interpreter(inputs(r, theta));
+            interpreter.setBackend(backend);
+            assertEquals(x, interpreter.run(fast.get(0)), backend.toString());
+            assertEquals(y, interpreter.run(fast.get(1)), backend.toString());
+            assertEquals(z, interpreter.run(fast.get(2)), backend.toString());
+
+            Interpreter exact = new Interpreter(inputs(r, theta));
+            for (int i = 0; i < stmts.size(); ++i)
+                assertEquals(exact.run(stmts.get(i)), interpreter.get(stmts.get(i).outputVariable()), 1e-12);
+        }
+
+        Map<String, double[]> inputs = new HashMap<>();
+        inputs.put("r", new double[] { r, 0.25 });
+        inputs.put("theta", new double[] { theta, -2 });
+        Map<String, double[]> exact   = new BatchEvaluator(stmts).run(inputs);
+        Map<String, double[]> results = new BatchEvaluator(fast).run(inputs);
+        assertEquals(y, results.get("y")[0]);
+        for (String var : exact.keySet())
+        {
+            for (int i = 0; i < 2; ++i)
+                assertEquals(exact.get(var)[i], results.get(var)[i], 1e-12, var);
+        }
+
+        // the fast builtins survive being compiled to a file
+        Path file = Files.createTempFile("script", ".algc");
+        try
+        {
+            ScriptFile.write(fast, file);
+            List<Statement> loaded      = ScriptFile.read(file);
+            Interpreter     interpreter = new Interpreter(inputs(r, theta));
+            interpreter.run(loaded.get(0));
+            assertEquals(y, interpreter.run(loaded.get(1)));
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    private static Environment inputs(double r, double theta)
+    {
+        Environment env = new Environment(null);
+        env.set("r", r);
+        env.set("theta", theta);
+        return env;
+    }
+
+    private static void assertUlps(double ulps, DoubleUnaryOperator exact, DoubleUnaryOperator fast, double x)
+    {
+        double expected = exact.applyAsDouble(x);
+        double actual   = fast.applyAsDouble(x);
+        assertTrue(within(ulps, expected, actual), String.format("f(%s) = %s, expected %s", x, actual, expected));
+    }
+
+    private static void assertUlps(double ulps, DoubleBinaryOperator exact, DoubleBinaryOperator fast, double x, double y)
+    {
+        double expected = exact.applyAsDouble(x, y);
+        double actual   = fast.applyAsDouble(x, y);
+        assertTrue(within(ulps, expected, actual), String.format("f(%s, %s) = %s, expected %s", x, y, actual, expected));
+    }
+
+    private static boolean within(double ulps, double expected, double actual)
+    {
+        if (Double.isNaN(expected) || Double.isInfinite(expected))
+            return Double.compare(expected, actual) == 0;
+        return Math.abs(actual - expected) <= ulps * Math.ulp(expected);
+    }
+}
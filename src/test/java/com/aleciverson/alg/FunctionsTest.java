@@ -0,0 +1,159 @@
+package test.com.aleciverson.alg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import com.aleciverson.alg.BatchEvaluator;
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Functions;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.InvalidExpressionException;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.ScriptFile;
+import com.aleciverson.alg.Statement;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FunctionsTest
+{
+    static
+    {
+        Functions.register("cube", x -> x * x * x);
+        Functions.register("avg", (x, y) -> (x + y) / 2);
+        Functions.register("opaque", x -> x);
+    }
+
+    /**
+     * The name of a registered function, for the tests of passes that can't
+     * see into one. Registrations last as long as the JVM, so it's registered
+     * once, here, rather than by each test.
+     */
+    static String opaque()
+    {
+        return "opaque";
+    }
+
+    @Test
+    void binaryBuiltins()
+    {
+        assertResult(Math.atan2(1, 2), "z = atan2(1, 2)");
+        assertResult(Math.hypot(3, 4), "z = hypot(x, y)");
+        assertResult(-4, "z = min(-y, x)");
+        assertResult(3, "z = max(x , -y)");
+        assertResult(Math.max(-3, Math.min(4 * 3, 2)) - Math.hypot(3, -4),
+                     "z = max(-x, min(y * x, 2)) - hypot(3, -4)");
+        assertResult(Math.atan2(Math.sin(3), -Math.abs(-4)) + Math.exp(1), "z = atan2(sin(x), -abs(-y)) + exp(1)");
+    }
+
+    @Test
+    void registeredFunctions()
+    {
+        assertTrue(Functions.isDefined("cube"));
+        assertTrue(Functions.names().containsAll(List.of("sin", "atan2", "cube", "avg")));
+
+        assertResult(27, "z = cube(x)");
+        assertResult(-27, "z = -cube(x)");
+        assertResult(3.5, "z = avg(x, y)");
+        assertResult(Math.sqrt(3.5 * 3.5 * 3.5), "z = sqrt(cube(avg(x, y)))");
+        assertResult((27 + 4) / 2.0 - 3, "z = avg(cube(x), y) - x");
+    }
+
+    @Test
+    void rejectsBadRegistrations()
+    {
+        assertThrows(IllegalArgumentException.class, () -> Functions.register("sin", Math::cos));
+        assertThrows(IllegalArgumentException.class, () -> Functions.register("cube", Math::min));
+        assertThrows(IllegalArgumentException.class, () -> Functions.register("pi", Math::abs));
+        assertThrows(IllegalArgumentException.class, () -> Functions.register("2f", Math::abs));
+        assertThrows(IllegalArgumentException.class, () -> Functions.register("f(x)", Math::abs));
+        assertThrows(IllegalArgumentException.class, () -> Functions.register("", Math::abs));
+        assertFalse(Functions.isDefined("2f"));
+    }
+
+    @Test
+    void wrongArguments()
+    {
+        for (String line : List.of("z = atan2(1)", "z = sin(1, 2)", "z = max(1,, 2)", "z = max(, 1, 2)",
+                                   "z = max(1, 2,)", "z = cube()", "z = (1, 2)", "z = 1, 2", "z = max((1, 2))",
+                                   "z = avg(1, 2, 3)", "z = max(1 2)", "z = hypot(3 4)", "z = max(1 2, 3)",
+                                   "z = max(1, 2 3)"))
+        {
+            assertThrows(InvalidExpressionException.class, () -> Parser.parse(line), line);
+        }
+    }
+
+    @Test
+    void batch()
+    {
+        List<Statement> stmts = Parser.parse(List.of("z = hypot(x, y) + cube(x) - avg(max(x, y), min(x, 1))",
+                                                     "w = atan2(y, x) * abs(x)"));
+
+        double[] x = new double[BatchEvaluator.CHUNK_SIZE + 3];
+        double[] y = new double[x.length];
+        for (int i = 0; i < x.length; ++i)
+        {
+            x[i] = i * 0.5 - 100;
+            y[i] = 50 - i * 0.25;
+        }
+
+        Map<String, double[]> outputs = new BatchEvaluator(stmts).run(Map.of("x", x, "y", y));
+        for (int i = 0; i < x.length; ++i)
+        {
+            double z = Math.hypot(x[i], y[i]) + x[i] * x[i] * x[i] - (Math.max(x[i], y[i]) + Math.min(x[i], 1)) / 2;
+            assertEquals(z, outputs.get("z")[i]);
+            assertEquals(Math.atan2(y[i], x[i]) * Math.abs(x[i]), outputs.get("w")[i]);
+        }
+    }
+
+    @Test
+    void scriptFile() throws IOException
+    {
+        List<Statement> stmts = Parser.parse(List.of("z = atan2(y, x) - avg(cube(x), y)", "w = min(z, max(x, y))"));
+
+        Path file = Files.createTempFile("script", ".algc");
+        try
+        {
+            ScriptFile.write(stmts, file);
+            List<Statement> loaded = ScriptFile.read(file);
+
+            Interpreter parsed = new Interpreter(inputs());
+            Interpreter read   = new Interpreter(inputs());
+            for (int i = 0; i < stmts.size(); ++i)
+                assertEquals(parsed.run(stmts.get(i)), read.run(loaded.get(i)));
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Checks every interpreter backend gives the expected result.
+     */
+    private static void assertResult(double expected, String line)
+    {
+        Statement stmt = Parser.parse(line);
+        for (Interpreter.Backend backend : Interpreter.Backend.values())
+        {
+            Interpreter interpreter = new Interpreter(inputs());
+            interpreter.setBackend(backend);
+            assertEquals(expected, interpreter.run(interpreter.bind(stmt)), line + " on " + backend);
+        }
+    }
+
+    private static Environment inputs()
+    {
+        Environment env = new Environment(null);
+        env.set("x", 3);
+        env.set("y", 4);
+        return env;
+    }
+}
@@ -0,0 +1,128 @@
+package test.com.aleciverson.alg;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.aleciverson.alg.Differentiator;
+import com.aleciverson.alg.GradientEvaluator;
+import com.aleciverson.alg.NotDifferentiableException;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.Statement;
+import com.aleciverson.alg.SubexpressionEliminator;
+import com.aleciverson.alg.UnknownVariableException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GradientEvaluatorTest
+{
+    @Test
+    void builtins()
+    {
+        for (String function : DifferentiatorTest.BUILTINS)
+        {
+            Statement                 stmt = Parser.parse("z = " + function);
+            GradientEvaluator.Tape    tape = new GradientEvaluator(List.of(stmt)).record(Map.of("x", 1.5, "y", 0.75));
+            Map<String, Double>       gradient = tape.gradient("z");
+
+            assertEquals(DifferentiatorTest.evaluate(stmt, 1.5, 0.75), tape.value("z"), function);
+            for (String var : List.of("x", "y"))
+            {
+                double approx = DifferentiatorTest.finiteDifference(stmt, var, 1.5, 0.75);
+                double forward = tape.tangents(var).get("z");
+                assertEquals(approx, gradient.get(var), 1e-6 * Math.max(1, Math.abs(approx)), "reverse d/d" + var + " " + function);
+                assertEquals(gradient.get(var), forward, 1e-12 * Math.max(1, Math.abs(forward)), "forward d/d" + var + " " + function);
+            }
+        }
+    }
+
+    @Test
+    void randomExpressions()
+    {
+        Random random = new Random(19);
+        for (int i = 0; i < 2000; ++i)
+        {
+            Statement              stmt = Parser.parse("z = " + DifferentiatorTest.expression(random, 5));
+            double                 x    = 0.5 + random.nextDouble();
+            double                 y    = 0.5 + random.nextDouble();
+            GradientEvaluator.Tape tape = new GradientEvaluator(List.of(stmt)).record(Map.of("x", x, "y", y));
+            Map<String, Double>    gradient = tape.gradient("z");
+
+            for (String var : List.of("x", "y"))
+            {
+                double symbolic = DifferentiatorTest.evaluate(Differentiator.derive(stmt, var), x, y);
+                double approx   = DifferentiatorTest.finiteDifference(stmt, var, x, y);
+                assertEquals(approx, gradient.get(var), 1e-5 * Math.max(1, Math.abs(symbolic)));
+                assertEquals(symbolic, gradient.get(var), 1e-12 * Math.max(1, Math.abs(symbolic)));
+                assertEquals(symbolic, tape.tangents(var).get("z"), 1e-12 * Math.max(1, Math.abs(symbolic)));
+            }
+        }
+    }
+
+    @Test
+    void script()
+    {
+        List<Statement> stmts = Parser.parse(List.of(
+            "x = r * cos(theta)",
+            "y = r * sin(theta)",
+            "h = hypot(x, y)",
+            "r = r * r",
+            "s = r * theta"));
+
+        GradientEvaluator.Tape tape = new GradientEvaluator(stmts).record(Map.of("r", 5.0, "theta", 0.5));
+
+        assertEquals(25, tape.value("r"));
+        assertEquals(12.5, tape.value("s"));
+        assertEquals(Map.of("r", 10.0 * 0.5, "theta", 25.0), tape.gradient("s"));
+        assertEquals(Map.of("r", 10.0, "theta", 0.0), tape.gradient("r"));
+        assertEquals(Math.cos(0.5), (double) tape.gradient("x").get("r"));
+        assertEquals(-5 * Math.sin(0.5), (double) tape.gradient("x").get("theta"));
+
+        Map<String, Double> tangents = tape.tangents("theta");
+        assertEquals(List.of("x", "y", "h", "r", "s"), List.copyOf(tangents.keySet()));
+        assertEquals(-5 * Math.sin(0.5), (double) tangents.get("x"));
+        assertEquals(5 * Math.cos(0.5), (double) tangents.get("y"));
+        assertEquals(0, (double) tangents.get("h"), 1e-15);
+        assertEquals(0, (double) tangents.get("r"));
+        assertEquals(25, (double) tangents.get("s"));
+    }
+
+    @Test
+    void temporaries()
+    {
+        List<Statement> stmts = new SubexpressionEliminator().eliminate(Parser.parse(List.of("y = sin(x) * sin(x) + 1")));
+
+        GradientEvaluator.Tape tape = new GradientEvaluator(stmts).record(Map.of("x", 0.25));
+
+        assertEquals(2 * Math.sin(0.25) * Math.cos(0.25), (double) tape.gradient("y").get("x"));
+        assertEquals(List.of("y"), List.copyOf(tape.tangents("x").keySet()));
+    }
+
+    @Test
+    void unknownVariables()
+    {
+        GradientEvaluator evaluator = new GradientEvaluator(List.of(Parser.parse("y = x * z")));
+
+        assertThrows(UnknownVariableException.class, () -> evaluator.record(Map.of("x", 1.0)));
+
+        GradientEvaluator.Tape tape = evaluator.record(Map.of("x", 1.0, "z", 2.0));
+        assertThrows(UnknownVariableException.class, () -> tape.gradient("w"));
+        assertThrows(UnknownVariableException.class, () -> tape.tangents("y"));
+    }
+
+    @Test
+    void registeredFunction()
+    {
+        List<Statement>        stmts = Parser.parse(List.of("a = " + FunctionsTest.opaque() + "(x)", "b = a + z", "c = z * z"));
+        GradientEvaluator.Tape tape  = new GradientEvaluator(stmts).record(Map.of("x", 1.0, "z", 3.0));
+
+        assertEquals(4, tape.value("b"));
+        assertThrows(NotDifferentiableException.class, () -> tape.gradient("b"));
+        assertThrows(NotDifferentiableException.class, () -> tape.tangents("x"));
+        // c doesn't depend on the call, so it needn't be differentiated
+        assertEquals(6, (double) tape.gradient("c").get("z"));
+        assertEquals(Map.of("a", 0.0, "b", 1.0, "c", 6.0), tape.tangents("z"));
+    }
+}
@@ -0,0 +1,113 @@
+package test.com.aleciverson.alg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.InterpreterStats;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.Statement;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InterpreterStatsTest
+{
+    @Test
+    void counts()
+    {
+        for (Interpreter.Backend backend : Interpreter.Backend.values())
+        {
+            Interpreter      interpreter = new Interpreter(new Environment(null));
+            InterpreterStats stats       = new InterpreterStats();
+            interpreter.setBackend(backend);
+            interpreter.setStats(stats);
+
+            List<Statement> stmts = Parser.parse(List.of("x = 2", "y = sin(x) * -x + atan2(x, 1)", "x = x + 1"));
+            for (int i = 0; i < 3; ++i)
+            {
+                for (Statement stmt : stmts)
+                    interpreter.run(stmt);
+            }
+
+            InterpreterStats.Snapshot snapshot = stats.snapshot();
+            assertEquals(3, snapshot.statements().size(), backend.name());
+            assertEquals("x", snapshot.statements().get(0).variable());
+            assertEquals("y", snapshot.statements().get(1).variable());
+            assertEquals("x", snapshot.statements().get(2).variable());
+            for (InterpreterStats.StatementStats stmt : snapshot.statements())
+            {
+                assertEquals(3, stmt.invocations());
+                assertTrue(stmt.nanos() > 0);
+            }
+            assertEquals(9, snapshot.invocations());
+
+            Map<String, Long> nodes = Map.of(
+                "Value", 9L, "Variable", 12L, "Addition", 6L, "Multiplication", 3L, "Negative", 3L,
+                "BuiltinCall", 3L, "BinaryCall", 3L);
+            assertEquals(nodes, snapshot.nodeCounts());
+
+            // a snapshot doesn't change, and reset starts over
+            interpreter.run(stmts.get(0));
+            assertEquals(9, snapshot.invocations());
+            stats.reset();
+            assertEquals(0, stats.snapshot().invocations());
+        }
+    }
+
+    @Test
+    void disabledByDefault()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(null));
+        assertNull(interpreter.getStats());
+        assertEquals(4, interpreter.run(Parser.parse("x = 2 * 2")));
+    }
+
+    @Test
+    void events() throws IOException
+    {
+        Path file = Files.createTempFile("alg", ".jfr");
+        try (Recording recording = new Recording())
+        {
+            recording.enable("com.aleciverson.alg.Parse").withoutThreshold();
+            recording.enable("com.aleciverson.alg.Evaluate").withoutThreshold();
+            recording.start();
+
+            Interpreter interpreter = new Interpreter(new Environment(null));
+            interpreter.setStats(new InterpreterStats());
+            for (Statement stmt : Parser.parse(List.of("a = 1", "b = a * 2")))
+                interpreter.run(stmt);
+            // without stats, runs aren't recorded
+            interpreter.setStats(null);
+            interpreter.run(Parser.parse("c = 3"));
+
+            recording.stop();
+            recording.dump(file);
+
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            List<RecordedEvent> parses = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.aleciverson.alg.Parse")).toList();
+            List<String> evaluated = events.stream()
+                .filter(e -> e.getEventType().getName().equals("com.aleciverson.alg.Evaluate"))
+                .map(e -> e.getString("variable")).toList();
+
+            assertEquals(2, parses.size());
+            assertEquals(2, parses.get(0).getInt("statements"));
+            assertEquals(1, parses.get(1).getInt("statements"));
+            assertEquals(List.of("a", "b"), evaluated);
+        }
+        finally
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -1,18 +1,40 @@
 package test.com.aleciverson.alg;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 
 import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Functions;
 import com.aleciverson.alg.Interpreter;
 import com.aleciverson.alg.Parser;
 import com.aleciverson.alg.Statement;
+import com.aleciverson.alg.UnknownVariableException;
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class AlgTest
 {
+    private static final StackWalker walker = StackWalker.getInstance(
+        EnumSet.of(StackWalker.Option.RETAIN_CLASS_REFERENCE, StackWalker.Option.SHOW_HIDDEN_FRAMES));
+    // the interpreter class that called caller(), most recent last
+    private static final List<Class<?>> callers = new ArrayList<>();
+
+    static
+    {
+        Functions.register("caller", x ->
+        {
+            callers.add(walker.walk(frames -> frames.map(StackWalker.StackFrame::getDeclaringClass)
+                                                    .filter(c -> c.getPackageName().equals("com.aleciverson.alg"))
+                                                    .findFirst()
+                                                    .orElseThrow()));
+            return x;
+        });
+    }
+
     @Test
     void add()
     {
@@ -191,4 +213,111 @@ class AlgTest
         assertEquals(2.0, y, Math.ulp(y));
         assertEquals(-Math.sqrt(2.0) / 2.0, z, Math.ulp(z));
     }
+
+    @Test
+    void boundStatements()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(null));
+
+        List<String> lines = new ArrayList<>();
+        lines.add("x = 3");
+        lines.add("y = x * 2");
+        lines.add("x = y + x");
+
+        List<Statement> stmts = interpreter.bind(Parser.parse(lines));
+
+        for (int i = 0; i < 2; ++i)
+            for (Statement stmt : stmts)
+                interpreter.run(stmt);
+
+        double x = interpreter.get("x");
+        double y = interpreter.get("y");
+
+        assertEquals(9.0, x);
+        assertEquals(6.0, y);
+    }
+
+    @Test
+    void boundUnknownVariable()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(null));
+        Statement   stmt        = interpreter.bind(Parser.parse("x = y + 1"));
+
+        assertThrows(UnknownVariableException.class, () -> interpreter.run(stmt));
+    }
+
+    @Test
+    void compiledBackend()
+    {
+        List<String> lines = new ArrayList<>();
+        lines.add("x = 3");
+        lines.add("y = -2.5");
+        lines.add("z = sin((10 - x) * pi / y ^ 2) + cos(x) * tan(y) - log(x) / ln(e ^ 2) + sqrt(x)");
+        lines.add("x = x * 2");
+        lines.add("w = x - z");
+
+        Interpreter tree     = new Interpreter(new Environment(null));
+        Interpreter compiled = new Interpreter(new Environment(null));
+        compiled.setBackend(Interpreter.Backend.COMPILED);
+
+        List<Statement> stmts = compiled.bind(Parser.parse(lines));
+
+        for (Statement stmt : stmts)
+            assertEquals(tree.run(stmt), compiled.run(stmt));
+
+        Statement unknown = compiled.bind(Parser.parse("v = q * 2"));
+        assertThrows(UnknownVariableException.class, () -> compiled.run(unknown));
+    }
+
+    @Test
+    void compiledBackendCompilesOnce()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(null));
+        interpreter.setBackend(Interpreter.Backend.COMPILED);
+        interpreter.run(Parser.parse("x = 2"));
+
+        // run unbound, as the REPL and streaming do, and then bound
+        Statement stmt = Parser.parse("y = caller(x) * 3");
+        callers.clear();
+        for (int i = 0; i < 10; ++i)
+            assertEquals(6.0, interpreter.run(stmt));
+        Statement bound = interpreter.bind(stmt);
+        for (int i = 0; i < 10; ++i)
+            assertEquals(6.0, interpreter.run(bound));
+
+        // compiled code is a hidden class; the tree walker isn't
+        assertEquals(20, callers.size());
+        assertTrue(callers.get(0).isHidden(), callers.get(0).getName());
+        assertEquals(1, callers.subList(0, 10).stream().distinct().count());
+        assertEquals(1, callers.subList(10, 20).stream().distinct().count());
+    }
+
+    @Test
+    void negatedOperands()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(null));
+
+        interpreter.run(Parser.parse("x = 3"));
+
+        assertEquals(-3.0, interpreter.run(Parser.parse("y = -x")));
+        assertEquals(-5.0, interpreter.run(Parser.parse("y = -(x + 2)")));
+        assertEquals(3.0, interpreter.run(Parser.parse("y = --x")));
+        assertEquals(-Math.sqrt(9.0), interpreter.run(Parser.parse("y = -sqrt(x * x)")));
+        assertEquals(2.0 * -3.0, interpreter.run(Parser.parse("y = 2 * -x")));
+    }
+
+    @Test
+    void parseLines()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(null));
+
+        List<Statement> stmts = Parser.parseLines("x = 1.5\r\ny = x * 0.25\nz = x + y\n");
+
+        assertEquals(3, stmts.size());
+
+        for (Statement stmt : stmts)
+            interpreter.run(stmt);
+
+        assertEquals(1.5 + 1.5 * 0.25, interpreter.get("z"));
+    }
 }
@@ -0,0 +1,241 @@
+package test.com.aleciverson.alg;
+
+import java.util.List;
+import java.util.Random;
+
+import com.aleciverson.alg.IntervalEvaluator;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.Statement;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntervalEvaluatorTest
+{
+    @Test
+    void containsEveryPoint()
+    {
+        List<String> functions = List.of(
+            "x ^ 3 - 2 * x", "x ^ 2", "x ^ -2", "x ^ -1", "x ^ 0.5", "x ^ 1.5", "y ^ x", "x ^ y", "2 ^ x",
+            "1 / (x * y)", "x / (y - 1)", "-x / (2 + y)",
+            "sin(x * y)", "cos(x) * sin(y)", "sin(4 * x)", "cos(7 * y)", "tan(x)", "tan(x / 4)",
+            "asin(x / 2)", "acos(y)", "atan(x * y)",
+            "log(x + y)", "ln(x)", "exp(x - y)", "sqrt(x)", "abs(y - x)",
+            "atan2(y, x)", "atan2(x, y - 1)", "hypot(x, 2 * y)", "min(x, y * y)", "max(2 * x, y)");
+
+        Random random = new Random(20);
+        for (String function : functions)
+        {
+            Statement         stmt      = Parser.parse("z = " + function);
+            IntervalEvaluator evaluator = new IntervalEvaluator(List.of(stmt));
+
+            for (int box = 0; box < 200; ++box)
+            {
+                double xLower = -4 + 8 * random.nextDouble();
+                double yLower = -4 + 8 * random.nextDouble();
+                double xUpper = xLower + (box % 4 == 0 ? 0 : 4 * random.nextDouble());
+                double yUpper = yLower + (box % 3 == 0 ? 0 : 4 * random.nextDouble());
+
+                double[] z = bounds(evaluator, xLower, xUpper, yLower, yUpper);
+                for (int point = 0; point < 100; ++point)
+                {
+                    double x = point < 2 ? (point == 0 ? xLower : xUpper) : xLower + (xUpper - xLower) * random.nextDouble();
+                    double y = point < 2 ? (point == 0 ? yUpper : yLower) : yLower + (yUpper - yLower) * random.nextDouble();
+                    double value = DifferentiatorTest.evaluate(stmt, x, y);
+                    if (Double.isNaN(value))
+                        continue;
+
+                    assertTrue(z[0] <= value && value <= z[1], String.format("%s at x=%s, y=%s is %s, outside [%s, %s]",
+                                                                             function, x, y, value, z[0], z[1]));
+                }
+            }
+        }
+    }
+
+    @Test
+    void randomExpressions()
+    {
+        Random random = new Random(20);
+        for (int i = 0; i < 2000; ++i)
+        {
+            Statement         stmt      = Parser.parse("z = " + DifferentiatorTest.expression(random, 5));
+            IntervalEvaluator evaluator = new IntervalEvaluator(List.of(stmt));
+
+            double   xLower = 0.5 + random.nextDouble();
+            double   yLower = 0.5 + random.nextDouble();
+            double[] z      = bounds(evaluator, xLower, xLower + 0.25, yLower, yLower + 0.25);
+
+            for (int point = 0; point < 20; ++point)
+            {
+                double value = DifferentiatorTest.evaluate(stmt, xLower + 0.25 * random.nextDouble(), yLower + 0.25 * random.nextDouble());
+                assertTrue(z[0] <= value && value <= z[1], stmt.toString());
+            }
+        }
+    }
+
+    @Test
+    void periodicity()
+    {
+        IntervalEvaluator sine   = evaluator("z = sin(x)");
+        IntervalEvaluator cosine = evaluator("z = cos(x)");
+        IntervalEvaluator tan    = evaluator("z = tan(x)");
+
+        // a maximum inside, one end at a minimum
+        double[] z = bounds(sine, 0, 3 * Math.PI / 2, 0, 0);
+        assertEquals(-1, z[0]);
+        assertEquals(1, z[1]);
+
+        // monotonic between extrema, far from zero
+        z = bounds(sine, 100 * Math.PI + 0.1, 100 * Math.PI + 0.2, 0, 0);
+        assertEquals(Math.sin(100 * Math.PI + 0.1), z[0], 1e-15);
+        assertEquals(Math.sin(100 * Math.PI + 0.2), z[1], 1e-15);
+
+        z = bounds(cosine, -0.5, 1, 0, 0);
+        assertEquals(Math.cos(1), z[0], 1e-15);
+        assertEquals(1, z[1]);
+
+        z = bounds(cosine, 3, 4, 0, 0);
+        assertEquals(-1, z[0]);
+        assertEquals(Math.max(Math.cos(3), Math.cos(4)), z[1], 1e-15);
+
+        z = bounds(tan, -1, 1, 0, 0);
+        assertEquals(Math.tan(-1), z[0], 1e-15);
+        assertEquals(Math.tan(1), z[1], 1e-15);
+
+        z = bounds(tan, 1, 2, 0, 0);
+        assertEquals(Double.NEGATIVE_INFINITY, z[0]);
+        assertEquals(Double.POSITIVE_INFINITY, z[1]);
+    }
+
+    @Test
+    void division()
+    {
+        IntervalEvaluator reciprocal = evaluator("z = 1 / x");
+
+        double[] z = bounds(reciprocal, 2, 4, 0, 0);
+        assertEquals(0.25, z[0], 1e-15);
+        assertEquals(0.5, z[1], 1e-15);
+
+        z = bounds(reciprocal, 0, 4, 0, 0);
+        assertEquals(0.25, z[0], 1e-15);
+        assertEquals(Double.POSITIVE_INFINITY, z[1]);
+
+        z = bounds(reciprocal, -4, 0, 0, 0);
+        assertEquals(Double.NEGATIVE_INFINITY, z[0]);
+        assertEquals(-0.25, z[1], 1e-15);
+
+        z = bounds(reciprocal, -1, 1, 0, 0);
+        assertEquals(Double.NEGATIVE_INFINITY, z[0]);
+        assertEquals(Double.POSITIVE_INFINITY, z[1]);
+
+        z = bounds(reciprocal, 0, 0, 0, 0);
+        assertTrue(Double.isNaN(z[0]) && Double.isNaN(z[1]));
+
+        // zero over anything but zero is zero
+        z = bounds(evaluator("z = 0 * y / x"), -1, 1, 2, 3);
+        assertEquals(0, z[0]);
+        assertEquals(0, z[1]);
+    }
+
+    @Test
+    void powers()
+    {
+        double[] z = bounds(evaluator("z = x ^ 2"), -1, 2, 0, 0);
+        assertEquals(0, z[0]);
+        assertEquals(4, z[1], 1e-15);
+
+        z = bounds(evaluator("z = x * x"), -1, 2, 0, 0);
+        assertEquals(-2, z[0], 1e-15);
+        assertEquals(4, z[1], 1e-15);
+
+        z = bounds(evaluator("z = x ^ 3"), -2, 1, 0, 0);
+        assertEquals(-8, z[0], 1e-14);
+        assertEquals(1, z[1], 1e-15);
+
+        // only defined for the part of the base at least zero
+        z = bounds(evaluator("z = x ^ 0.5"), -1, 4, 0, 0);
+        assertEquals(0, z[0]);
+        assertEquals(2, z[1], 1e-15);
+
+        z = bounds(evaluator("z = x ^ 0.5"), -4, -1, 0, 0);
+        assertTrue(Double.isNaN(z[0]) && Double.isNaN(z[1]));
+
+        // negative bases with integer exponents somewhere between
+        z = bounds(evaluator("z = x ^ y"), -2, -1, 1, 3);
+        assertEquals(Double.NEGATIVE_INFINITY, z[0]);
+        assertEquals(Double.POSITIVE_INFINITY, z[1]);
+
+        z = bounds(evaluator("z = x ^ y"), 0.5, 2, -1, 2);
+        assertEquals(0.25, z[0], 1e-15);
+        assertEquals(4, z[1], 1e-15);
+    }
+
+    @Test
+    void script()
+    {
+        IntervalEvaluator evaluator = new IntervalEvaluator(Parser.parse(List.of(
+            "r = hypot(x, y)",
+            "theta = atan2(y, x)",
+            "x = x * 2",
+            "s = r + pi")));
+
+        double[] lower = new double[evaluator.size()];
+        double[] upper = new double[evaluator.size()];
+        lower[evaluator.slotOf("x")] = 3;
+        upper[evaluator.slotOf("x")] = 4;
+        lower[evaluator.slotOf("y")] = 0;
+        upper[evaluator.slotOf("y")] = 4;
+        evaluator.run(lower, upper);
+
+        assertEquals(3, lower[evaluator.slotOf("r")], 1e-15);
+        assertEquals(Math.sqrt(32), upper[evaluator.slotOf("r")], 1e-15);
+        assertEquals(0, lower[evaluator.slotOf("theta")], 1e-15);
+        assertEquals(Math.atan2(4, 3), upper[evaluator.slotOf("theta")], 1e-15);
+        assertEquals(6, lower[evaluator.slotOf("x")], 1e-15);
+        assertEquals(8, upper[evaluator.slotOf("x")], 1e-14);
+        assertEquals(3 + Math.PI, lower[evaluator.slotOf("s")], 1e-14);
+        assertEquals(-1, evaluator.slotOf("w"));
+
+        assertThrows(IllegalArgumentException.class, () -> evaluator.run(new double[1], new double[1]));
+    }
+
+    @Test
+    void registeredFunction()
+    {
+        double[] z = bounds(evaluator("z = 1 + " + FunctionsTest.opaque() + "(x)"), 0, 1, 0, 0);
+        assertEquals(Double.NEGATIVE_INFINITY, z[0]);
+        assertEquals(Double.POSITIVE_INFINITY, z[1]);
+    }
+
+    private static IntervalEvaluator evaluator(String stmt)
+    {
+        return new IntervalEvaluator(List.of(Parser.parse(stmt)));
+    }
+
+    /**
+     * Runs an evaluator assigning z, returning z's bounds.
+     */
+    private static double[] bounds(IntervalEvaluator evaluator, double xLower, double xUpper, double yLower, double yUpper)
+    {
+        double[] lower = new double[evaluator.size()];
+        double[] upper = new double[evaluator.size()];
+        set(evaluator, lower, upper, "x", xLower, xUpper);
+        set(evaluator, lower, upper, "y", yLower, yUpper);
+        evaluator.run(lower, upper);
+
+        int z = evaluator.slotOf("z");
+        return new double[]{lower[z], upper[z]};
+    }
+
+    private static void set(IntervalEvaluator evaluator, double[] lower, double[] upper, String var, double min, double max)
+    {
+        int slot = evaluator.slotOf(var);
+        if (slot != -1)
+        {
+            lower[slot] = min;
+            upper[slot] = max;
+        }
+    }
+}
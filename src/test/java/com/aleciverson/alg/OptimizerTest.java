@@ -0,0 +1,58 @@
+package test.com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.Optimizer;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.Statement;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OptimizerTest
+{
+    @Test
+    void foldsConstants()
+    {
+        Optimizer optimizer = new Optimizer();
+        Statement stmt      = optimizer.optimize(Parser.parse("x = 2 * 3 + sin(pi / 2) - -4"));
+
+        assertEquals(11, optimizer.nodesBefore());
+        assertEquals(1, optimizer.nodesAfter());
+        assertEquals(11.0, new Interpreter(new Environment(null)).run(stmt));
+    }
+
+    @Test
+    void simplifies()
+    {
+        Optimizer optimizer = new Optimizer();
+        optimizer.optimize(Parser.parse("y = x ^ 2 + x ^ 1 * 1 - x ^ 0.5 / -1 + -1 * x"));
+
+        // x * x + x + sqrt(x) - x
+        assertEquals(10, optimizer.nodesAfter());
+    }
+
+    @Test
+    void sameResults()
+    {
+        List<String> lines = new ArrayList<>();
+        lines.add("a = 3");
+        lines.add("b = -0.5");
+        lines.add("c = a ^ 2 + a ^ 1 * 1 - a ^ 0.5 / -1 + -1 * a");
+        lines.add("d = b * -1 - 0 + (b / 1) ^ 0 - 2 * 4 ^ 2 * e");
+        lines.add("f = ln(e) * log(100) - sqrt(2 ^ 2) + c / d");
+        lines.add("g = a + -2 * b - -3 * a / -2");
+
+        List<Statement> stmts     = Parser.parse(lines);
+        List<Statement> optimized = new Optimizer().optimize(stmts);
+
+        Interpreter plain = new Interpreter(new Environment(null));
+        Interpreter fast  = new Interpreter(new Environment(null));
+
+        for (int i = 0; i < stmts.size(); ++i)
+            assertEquals(plain.run(stmts.get(i)), fast.run(optimized.get(i)));
+    }
+}
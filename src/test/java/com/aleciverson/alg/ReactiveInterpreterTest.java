@@ -0,0 +1,62 @@
+package test.com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.ReactiveInterpreter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReactiveInterpreterTest
+{
+    private static ReactiveInterpreter circle()
+    {
+        List<String> lines = new ArrayList<>();
+        lines.add("x = r * cos(theta)");
+        lines.add("y = r * sin(theta)");
+        lines.add("s = r * 2");
+        lines.add("h = sqrt(x ^ 2 + y ^ 2)");
+        lines.add("y = y + s");
+
+        Environment inputs = new Environment(null);
+        inputs.set("r", 5);
+        inputs.set("theta", 0);
+
+        return new ReactiveInterpreter(Parser.parse(lines), inputs);
+    }
+
+    @Test
+    void recomputesDownstream()
+    {
+        ReactiveInterpreter reactive = circle();
+
+        assertEquals(5.0, reactive.get("x"));
+        assertEquals(10.0, reactive.get("y"));
+
+        Set<String> changed = reactive.update("theta", Math.PI / 2);
+
+        // s doesn't read theta, and h comes out the same
+        assertEquals(Set.of("x", "y"), changed);
+        assertEquals(4, reactive.lastRecomputed());
+        assertEquals(5.0 * Math.cos(Math.PI / 2), reactive.get("x"));
+        assertEquals(5.0 + 10.0, reactive.get("y"));
+        assertEquals(5.0, reactive.get("h"), 1e-12);
+    }
+
+    @Test
+    void unchangedInput()
+    {
+        ReactiveInterpreter reactive = circle();
+
+        assertEquals(Set.of(), reactive.update("r", 5));
+        assertEquals(0, reactive.lastRecomputed());
+
+        assertEquals(Set.of("x", "y", "s", "h"), reactive.update("r", 1));
+        assertEquals(5, reactive.lastRecomputed());
+        assertEquals(0.0 + 2.0, reactive.get("y"));
+    }
+}
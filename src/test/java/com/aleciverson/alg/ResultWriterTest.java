@@ -0,0 +1,89 @@
+package test.com.aleciverson.alg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.aleciverson.alg.ResultWriter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResultWriterTest
+{
+    @Test
+    void textMatchesPrintf() throws IOException
+    {
+        List<Double> values = new ArrayList<>();
+        double[] edges = {
+            0.0, -0.0, 1.0, -1.0, 0.5, 1e-7, -1e-7, 4.9e-7, 5e-7, 5.5e-7, 0.0000005, 0.1234565, 2.0000005,
+            123456.7890125, 1e9, 4.5e9, 1e15, 1e20, 1e300, -1e300, Double.MAX_VALUE, Double.MIN_VALUE,
+            Double.MIN_NORMAL, Math.PI, Math.E, Double.NaN, Double.POSITIVE_INFINITY,
+            Double.NEGATIVE_INFINITY,
+        };
+        for (double edge : edges)
+            values.add(edge);
+
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; ++i)
+        {
+            values.add(random.nextDouble() * Math.pow(10, random.nextInt(24) - 8) * (random.nextBoolean() ? 1 : -1));
+            // exactly halfway between two millionths, give or take an ulp
+            double half = (random.nextInt(2_000_000) + 0.5) / 1e6;
+            values.add(Math.nextUp(half));
+            values.add(half);
+            values.add(Math.nextDown(half));
+            values.add(Double.longBitsToDouble(random.nextLong()));
+        }
+
+        ByteArrayOutputStream bytes    = new ByteArrayOutputStream();
+        StringBuilder         expected = new StringBuilder();
+        try (ResultWriter out = new ResultWriter(bytes, ResultWriter.Format.TEXT))
+        {
+            for (double value : values)
+            {
+                out.write("x", value);
+                expected.append(String.format(Locale.ROOT, "%s = %f\n", "x", value));
+            }
+        }
+
+        assertEquals(expected.toString(), bytes.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void csv() throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ResultWriter out = new ResultWriter(bytes, ResultWriter.Format.CSV))
+        {
+            out.write("x", 1.5);
+            out.write("y", -2);
+        }
+
+        assertEquals("name,value\nx,1.500000\ny,-2.000000\n", bytes.toString(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void binary() throws IOException
+    {
+        double[] values = { 1.5, -0.0, Math.PI, Double.NaN };
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ResultWriter out = new ResultWriter(bytes, ResultWriter.Format.BINARY))
+        {
+            for (double value : values)
+                out.write("x", value);
+        }
+
+        ByteBuffer written = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(values.length * Double.BYTES, written.remaining());
+        for (double value : values)
+            assertEquals(Double.doubleToRawLongBits(value), Double.doubleToRawLongBits(written.getDouble()));
+    }
+}
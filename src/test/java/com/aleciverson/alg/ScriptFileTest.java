@@ -0,0 +1,111 @@
+package test.com.aleciverson.alg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.aleciverson.alg.App;
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.InvalidScriptFileException;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.ResultWriter;
+import com.aleciverson.alg.ScriptFile;
+import com.aleciverson.alg.Statement;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScriptFileTest
+{
+    private static final List<String> LINES = List.of(
+        "x = r * cos(theta)",
+        "y = r * sin(theta) - -0",
+        "z = sqrt(x ^ 2 + y ^ 2) / tan(0.1) + log(r) * ln(e)",
+        "x = -(x - y) * 1234567.875",
+        "w = x");
+
+    @Test
+    void roundTrip() throws IOException
+    {
+        Path file = Files.createTempFile("script", ".algc");
+        try
+        {
+            List<Statement> stmts = Parser.parse(LINES);
+            ScriptFile.write(stmts, file);
+
+            assertTrue(ScriptFile.isScriptFile(file));
+            List<Statement> loaded = ScriptFile.read(file);
+            assertEquals(stmts.size(), loaded.size());
+
+            Interpreter parsed   = new Interpreter(inputs());
+            Interpreter compiled = new Interpreter(inputs());
+            for (int i = 0; i < stmts.size(); ++i)
+            {
+                assertEquals(stmts.get(i).outputVariable(), loaded.get(i).outputVariable());
+                assertEquals(parsed.run(stmts.get(i)), compiled.run(loaded.get(i)));
+            }
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void rejectsDamagedFiles() throws IOException
+    {
+        Path file = Files.createTempFile("script", ".algc");
+        try
+        {
+            ScriptFile.write(Parser.parse(LINES), file);
+            byte[] good = Files.readAllBytes(file);
+
+            // a flipped bit in the payload
+            byte[] corrupt = good.clone();
+            corrupt[corrupt.length - 3] ^= 0x10;
+            Files.write(file, corrupt);
+            assertThrows(InvalidScriptFileException.class, () -> ScriptFile.read(file));
+
+            // a file from another version of the format
+            byte[] version = good.clone();
+            version[4] = 99;
+            Files.write(file, version);
+            assertThrows(InvalidScriptFileException.class, () -> ScriptFile.read(file));
+
+            byte[] truncated = new byte[good.length - 5];
+            System.arraycopy(good, 0, truncated, 0, truncated.length);
+            Files.write(file, truncated);
+            assertThrows(InvalidScriptFileException.class, () -> ScriptFile.read(file));
+
+            Files.write(file, String.join("\n", LINES).getBytes());
+            assertTrue(!ScriptFile.isScriptFile(file));
+            assertThrows(InvalidScriptFileException.class, () -> ScriptFile.read(file));
+
+            // source that happens to start with the format's name still runs
+            Files.write(file, List.of("ALGCount = 3", "y = ALGCount * 2"));
+            assertTrue(!ScriptFile.isScriptFile(file));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ResultWriter          out   = new ResultWriter(bytes, ResultWriter.Format.CSV);
+            App.runFile(file.toString(), new Environment(null), out);
+            out.flush();
+            assertEquals("name,value\nALGCount,3.000000\ny,6.000000\n", bytes.toString());
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    private static Environment inputs()
+    {
+        Environment env = new Environment(null);
+        env.set("r", 2.5);
+        env.set("theta", 0.75);
+        return env;
+    }
+}
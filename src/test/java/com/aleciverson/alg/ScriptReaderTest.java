@@ -0,0 +1,57 @@
+package test.com.aleciverson.alg;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.ScriptReader;
+import com.aleciverson.alg.Statement;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ScriptReaderTest
+{
+    @Test
+    void matchesParseLines() throws IOException
+    {
+        StringBuilder script = new StringBuilder();
+        script.append("x = 0\n");
+        for (int i = 0; i < 5000; ++i)
+            script.append("x = x + ").append(i % 7).append(i % 2 == 0 ? "\n" : "\r\n");
+
+        // longer than the read buffer, so it has to grow
+        script.append("y =");
+        for (int i = 0; i < 100_000; ++i)
+            script.append(' ');
+        script.append("x * 2\n");
+
+        // no line ending on the last line
+        script.append("z = y - x");
+
+        List<Statement> expected = Parser.parseLines(script);
+        Interpreter     parsed   = new Interpreter(new Environment(null));
+        Interpreter     streamed = new Interpreter(new Environment(null));
+
+        byte[] bytes = script.toString().getBytes(StandardCharsets.UTF_8);
+        try (ScriptReader reader = new ScriptReader(Channels.newChannel(new ByteArrayInputStream(bytes))))
+        {
+            for (Statement stmt : expected)
+            {
+                Statement next = reader.next();
+                assertEquals(stmt.outputVariable(), next.outputVariable());
+                assertEquals(parsed.run(stmt), streamed.run(next));
+            }
+
+            assertNull(reader.next());
+        }
+
+        assertEquals(5003, expected.size());
+    }
+}
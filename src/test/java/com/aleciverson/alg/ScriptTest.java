@@ -0,0 +1,220 @@
+package test.com.aleciverson.alg;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.aleciverson.alg.App;
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.ResultWriter;
+import com.aleciverson.alg.Script;
+import com.aleciverson.alg.Statement;
+import com.aleciverson.alg.UnknownVariableException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ScriptTest
+{
+    private static final List<String> LINES = List.of(
+        "x = r * cos(theta)",
+        "y = r * sin(theta)",
+        "h = sqrt(x ^ 2 + y ^ 2) + ln(r + 1)",
+        "x = x * 2 - y",
+        "z = x / (h + 1)");
+
+    @Test
+    void concurrentRuns() throws Exception
+    {
+        for (Interpreter.Backend backend : Interpreter.Backend.values())
+        {
+            Script script = new Script(Parser.parse(LINES), backend);
+
+            int             threads = 16;
+            int             runs    = 2000;
+            CountDownLatch  start   = new CountDownLatch(1);
+            ExecutorService pool    = Executors.newFixedThreadPool(threads);
+
+            try
+            {
+                List<Future<?>> results = new ArrayList<>();
+                for (int t = 0; t < threads; ++t)
+                {
+                    int thread = t;
+                    results.add(pool.submit(() ->
+                    {
+                        start.await();
+
+                        // one environment per thread, reused for every run
+                        Environment env = script.newEnvironment();
+                        for (int i = 0; i < runs; ++i)
+                        {
+                            double r     = thread + 1;
+                            double theta = i * 0.001;
+                            env.set("r", r);
+                            env.set("theta", theta);
+                            script.run(env);
+
+                            Environment inputs = new Environment(null);
+                            inputs.set("r", r);
+                            inputs.set("theta", theta);
+
+                            Interpreter expected = new Interpreter(inputs);
+                            for (String line : LINES)
+                                expected.run(Parser.parse(line));
+
+                            for (String var : List.of("x", "y", "h", "z"))
+                                assertEquals(expected.get(var), env.get(var));
+                        }
+                        return null;
+                    }));
+                }
+
+                start.countDown();
+                for (Future<?> result : results)
+                    result.get();
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    void environmentsAreIndependent()
+    {
+        Script script = new Script(Parser.parse(List.of("y = x + 1")));
+
+        Environment first  = script.newEnvironment();
+        Environment second = script.newEnvironment();
+        first.set("x", 1);
+        second.set("x", 2);
+
+        // a name the script doesn't know stays in the environment it was set in
+        first.set("w", 5);
+
+        script.run(first);
+        script.run(second);
+
+        assertEquals(2.0, first.get("y"));
+        assertEquals(3.0, second.get("y"));
+        assertEquals(5.0, first.get("w"));
+        assertThrows(UnknownVariableException.class, () -> second.get("w"));
+        assertThrows(UnknownVariableException.class, () -> script.run(script.newEnvironment()));
+        assertThrows(IllegalArgumentException.class, () -> script.run(new Environment(null)));
+    }
+
+    @Test
+    void interpreterRunsScriptStatements()
+    {
+        Script      script      = new Script(Parser.parse(List.of("y = x * 3")));
+        Interpreter interpreter = new Interpreter(new Environment(null));
+
+        interpreter.run(Parser.parse("x = 2"));
+        for (Statement stmt : script.statements())
+            interpreter.run(stmt);
+
+        assertEquals(6.0, interpreter.get("y"));
+    }
+
+    @Test
+    void parallelMatchesSerial()
+    {
+        // wide levels of expensive statements, with reassignments between them
+        // so reads, writes and rewrites all have to stay ordered
+        List<String> lines = new ArrayList<>();
+        for (int round = 0; round < 4; ++round)
+        {
+            for (int i = 0; i < 300; ++i)
+            {
+                String name = name(i);
+                lines.add(name + " = sin(x * " + i + ") + cos(y + " + i + ") * sqrt(x + " + round + ") + " + name);
+            }
+            lines.add("x = x + " + name(round) + " / 100");
+            lines.add("y = x * y + " + name(299 - round));
+            lines.add("x = y - x");
+        }
+
+        Map<String, Double> inputs = new HashMap<>();
+        inputs.put("x", 0.5);
+        inputs.put("y", 1.5);
+        for (int i = 0; i < 300; ++i)
+            inputs.put(name(i), (double) i);
+
+        Script script = new Script(Parser.parse(lines));
+
+        Environment serial        = script.newEnvironment(inputs);
+        double[]    serialResults = new double[lines.size()];
+        script.run(serial, serialResults);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            for (int run = 0; run < 20; ++run)
+            {
+                Environment parallel        = script.newEnvironment(inputs);
+                double[]    parallelResults = new double[lines.size()];
+                script.run(parallel, parallelResults, pool);
+
+                for (int i = 0; i < lines.size(); ++i)
+                    assertEquals(serialResults[i], parallelResults[i]);
+                for (Map.Entry<String, Double> var : serial)
+                    assertEquals((double) var.getValue(), parallel.get(var.getKey()));
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void runFile() throws Exception
+    {
+        Path file = Files.createTempFile("script", ".alg");
+        try
+        {
+            Files.write(file, List.of("a = 1", "b = a / q + 1", "c = a * r", "d = a + b"));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ResultWriter          out   = new ResultWriter(bytes, ResultWriter.Format.CSV);
+            Environment           env   = new Environment(null);
+            env.set("r", 3);
+
+            // results before a failing statement are still written and set
+            assertThrows(UnknownVariableException.class, () -> App.runFile(file.toString(), env, out));
+            out.flush();
+            assertEquals("name,value\na,1.000000\n", bytes.toString());
+            assertEquals(1, env.get("a"));
+            assertThrows(UnknownVariableException.class, () -> env.get("b"));
+
+            env.set("q", 2);
+            App.runFile(file.toString(), env, out);
+            out.flush();
+            assertEquals("name,value\na,1.000000\na,1.000000\nb,1.500000\nc,3.000000\nd,2.500000\n",
+                         bytes.toString());
+            assertEquals(2.5, env.get("d"));
+        }
+        finally
+        {
+            Files.delete(file);
+        }
+    }
+
+    private static String name(int i)
+    {
+        return "v" + (char) ('a' + i / 26 % 26) + (char) ('a' + i % 26);
+    }
+}
@@ -0,0 +1,159 @@
+package test.com.aleciverson.alg;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.aleciverson.alg.Server;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ServerTest
+{
+    @Test
+    void pipelinedRequests() throws Exception
+    {
+        try (Server server = start(Server.tcp(0));
+             Client client = new Client(SocketChannel.open(server.address())))
+        {
+            List<String> responses = client.exchange(List.of(
+                "assign a x 3",
+                "assign b x 10",
+                "eval a y = x * 2",
+                "eval b y = x * 2; z = y + pi",
+                "eval a y = y + 1",
+                "eval a w = nope",
+                "eval a y = (",
+                "assign a pi 3",
+                "frobnicate",
+                "drop b",
+                "eval b y = x"));
+
+            assertEquals(List.of(
+                "ok",
+                "ok",
+                "ok y=6.0",
+                "ok y=20.0 z=" + (20 + Math.PI),
+                "ok y=7.0",
+                "error unknown variable 'nope'",
+                responses.get(6),
+                "error cannot assign to constant 'pi'",
+                "error unknown request 'frobnicate'",
+                "ok",
+                "error unknown variable 'x'"), responses);
+            assertTrue(responses.get(6).startsWith("error "), responses.get(6));
+        }
+    }
+
+    @Test
+    void sessionsAreShared() throws Exception
+    {
+        try (Server server = start(Server.tcp(0));
+             Client first = new Client(SocketChannel.open(server.address()));
+             Client second = new Client(SocketChannel.open(server.address())))
+        {
+            assertEquals(List.of("ok"), first.exchange(List.of("assign s x 1.5")));
+            assertEquals(List.of("ok y=3.0"), second.exchange(List.of("eval s y = 2 * x")));
+
+            String status = first.exchange(List.of("status")).get(0);
+            assertTrue(status.matches("ok sessions=1 connections=2 requests=\\d+ p50_us=\\S+ p90_us=\\S+ p99_us=\\S+ p999_us=\\S+"),
+                       status);
+        }
+    }
+
+    @Test
+    void unixSocket() throws Exception
+    {
+        Path dir  = Files.createTempDirectory("alg");
+        Path file = dir.resolve("alg.sock");
+        try (Server server = start(Server.unix(file));
+             Client client = new Client(SocketChannel.open(server.address())))
+        {
+            assertEquals(List.of("ok x=4.0"), client.exchange(List.of("eval u x = 2 ^ 2")));
+        }
+        finally
+        {
+            assertFalse(Files.exists(file));
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void quit() throws Exception
+    {
+        try (Server server = start(Server.tcp(0));
+             Client client = new Client(SocketChannel.open(server.address())))
+        {
+            client.out.write("eval q x = 1\nquit\neval q x = 2\n");
+            client.out.flush();
+
+            assertEquals("ok x=1.0", client.in.readLine());
+            assertNull(client.in.readLine());
+        }
+    }
+
+    private static Server start(Server server)
+    {
+        Thread thread = new Thread(() -> {
+            try
+            {
+                server.serve();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return server;
+    }
+
+    private static final class Client implements AutoCloseable
+    {
+        final SocketChannel  channel;
+        final Writer         out;
+        final BufferedReader in;
+
+        Client(SocketChannel channel)
+        {
+            this.channel = channel;
+            this.out     = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            this.in      = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Sends every request at once, then reads a response for each.
+         */
+        List<String> exchange(List<String> requests) throws IOException
+        {
+            for (String request : requests)
+                out.write(request + "\n");
+            out.flush();
+
+            List<String> responses = new ArrayList<>();
+            for (int i = 0; i < requests.size(); ++i)
+                responses.add(in.readLine());
+            return responses;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            channel.close();
+        }
+    }
+}
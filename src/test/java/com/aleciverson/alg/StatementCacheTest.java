@@ -0,0 +1,140 @@
+package test.com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.InvalidExpressionException;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.Statement;
+import com.aleciverson.alg.StatementCache;
+import com.aleciverson.alg.UnexpectedTokenException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StatementCacheTest
+{
+    @Test
+    void whitespaceInsensitive()
+    {
+        StatementCache cache = new StatementCache(16, 1000);
+
+        Statement first = cache.get("y = 2 * (x + 1)");
+        assertSame(first, cache.get("y=2*(x+1)"));
+        assertSame(first, cache.get("  y =\t2 *( x+ 1 ) "));
+
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.size());
+
+        // the space keeps these two numbers apart
+        assertThrows(InvalidExpressionException.class, () -> cache.get("y = 1 2"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void rejectsWhatTheParserRejects()
+    {
+        StatementCache cache = new StatementCache(16, 1000);
+
+        cache.get("y = x + 1");
+        // the parser only skips spaces inside an expression, so a tab there is
+        // an error whether or not the line with a space is cached
+        assertThrows(UnexpectedTokenException.class, () -> Parser.parse("y = x\t+ 1"));
+        assertThrows(UnexpectedTokenException.class, () -> cache.get("y = x\t+ 1"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void cachedStatementsRun()
+    {
+        StatementCache cache       = new StatementCache(16, 1000);
+        Interpreter    interpreter = new Interpreter(new Environment(null));
+
+        interpreter.run(cache.get("x = 3"));
+        assertEquals(8.0, interpreter.run(cache.get("y = 2 * (x + 1)")));
+        interpreter.run(cache.get("x = 5"));
+        assertEquals(12.0, interpreter.run(cache.get("y = 2*(x+1)")));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed()
+    {
+        StatementCache cache = new StatementCache(2, 1000);
+
+        Statement a = cache.get("a = 1");
+        cache.get("b = 2");
+        cache.get("a = 1");
+        cache.get("c = 3");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertSame(a, cache.get("a = 1"));
+
+        cache.get("b = 2");
+        assertEquals(4, cache.misses());
+    }
+
+    @Test
+    void evictsByWeight()
+    {
+        // each statement below is 3 nodes, so only two fit
+        StatementCache cache = new StatementCache(100, 7);
+
+        cache.get("a = x + 1");
+        cache.get("b = x + 2");
+        cache.get("c = x + 3");
+
+        assertEquals(2, cache.size());
+        assertEquals(6, cache.weight());
+        assertEquals(1, cache.evictions());
+    }
+
+    @Test
+    void concurrentAccess() throws Exception
+    {
+        StatementCache  cache = new StatementCache(64, 10_000);
+        ExecutorService pool  = Executors.newFixedThreadPool(8);
+
+        try
+        {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 8; ++t)
+            {
+                results.add(pool.submit(() ->
+                {
+                    for (int i = 0; i < 20_000; ++i)
+                    {
+                        int       n    = i % 100;
+                        Statement stmt = cache.get("y = x * " + n);
+
+                        Environment env = new Environment(null);
+                        env.set("x", 2);
+                        assertEquals(2.0 * n, new Interpreter(env).run(stmt));
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> result : results)
+                result.get();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        assertEquals(8 * 20_000, cache.hits() + cache.misses());
+        // threads missing on the same line at once don't add an entry each
+        assertTrue(cache.evictions() <= cache.misses() - cache.size());
+        assertTrue(cache.size() <= 64);
+    }
+}
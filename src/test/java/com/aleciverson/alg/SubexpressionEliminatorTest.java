@@ -0,0 +1,78 @@
+package test.com.aleciverson.alg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.Statement;
+import com.aleciverson.alg.SubexpressionEliminator;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SubexpressionEliminatorTest
+{
+    @Test
+    void sharesAcrossStatements()
+    {
+        List<String> lines = new ArrayList<>();
+        lines.add("a = x ^ 2 + y ^ 2");
+        lines.add("b = sqrt(x ^ 2 + y ^ 2) * 2");
+        lines.add("c = (x ^ 2 + y ^ 2) / x ^ 2");
+
+        SubexpressionEliminator cse   = new SubexpressionEliminator();
+        List<Statement>         stmts = cse.eliminate(Parser.parse(lines));
+
+        // $0 = x ^ 2, $1 = $0 + y ^ 2
+        assertEquals(2, cse.temporaries());
+        assertEquals(5, stmts.size());
+        assertEquals("$0", stmts.get(0).outputVariable());
+        assertEquals("$1", stmts.get(1).outputVariable());
+
+        assertSameResults(lines, stmts);
+    }
+
+    @Test
+    void recomputesAfterReassignment()
+    {
+        List<String> lines = new ArrayList<>();
+        lines.add("a = x * y + 1");
+        lines.add("x = x * y + 2");
+        lines.add("b = x * y + 3");
+        lines.add("c = x * y + 4");
+
+        SubexpressionEliminator cse   = new SubexpressionEliminator();
+        List<Statement>         stmts = cse.eliminate(Parser.parse(lines));
+
+        // x * y before x is reassigned, then again after
+        assertEquals(2, cse.temporaries());
+        assertSameResults(lines, stmts);
+    }
+
+    private static void assertSameResults(List<String> lines, List<Statement> eliminated)
+    {
+        Environment plainEnv = new Environment(null);
+        plainEnv.set("x", 3);
+        plainEnv.set("y", 4);
+        Interpreter plain = new Interpreter(plainEnv);
+
+        Environment cseEnv = new Environment(null);
+        cseEnv.set("x", 3);
+        cseEnv.set("y", 4);
+        Interpreter cse = new Interpreter(cseEnv);
+
+        for (Statement stmt : Parser.parse(lines))
+            plain.run(stmt);
+
+        for (Statement stmt : eliminated)
+            cse.run(stmt);
+
+        for (Statement stmt : eliminated)
+        {
+            if (!stmt.isTemporary())
+                assertEquals(plain.get(stmt.outputVariable()), cse.get(stmt.outputVariable()));
+        }
+    }
+}
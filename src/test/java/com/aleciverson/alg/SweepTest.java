@@ -0,0 +1,119 @@
+package test.com.aleciverson.alg;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.aleciverson.alg.AssignConstantException;
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.ResultWriter;
+import com.aleciverson.alg.Statement;
+import com.aleciverson.alg.Sweep;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SweepTest
+{
+    @Test
+    void ranges()
+    {
+        assertEquals(11, Sweep.Range.parse("x", "0..1:0.1").count());
+        assertEquals(100, Sweep.Range.parse("x", "1..100").count());
+        assertEquals(199, Sweep.Range.parse("x", "1..100:0.5").count());
+        assertEquals(3, Sweep.Range.parse("x", "0..1:0.4").count());
+        assertEquals(1, Sweep.Range.parse("x", "5..5").count());
+        assertEquals(5, Sweep.Range.parse("x", "-1..-5:-1").count());
+        assertEquals(-3, Sweep.Range.parse("x", "-1..-5:-1").value(2));
+        assertEquals(1e-3, Sweep.Range.parse("x", "1e-3..1e-1:1e-3").value(0));
+
+        assertTrue(Sweep.Range.isRange("0..1"));
+        assertTrue(!Sweep.Range.isRange("-1.5e3"));
+
+        assertThrows(IllegalArgumentException.class, () -> Sweep.Range.parse("x", "1..0"));
+        assertThrows(IllegalArgumentException.class, () -> Sweep.Range.parse("x", "0..1:0"));
+        assertThrows(IllegalArgumentException.class, () -> Sweep.Range.parse("x", "0..1:-1"));
+        assertThrows(NumberFormatException.class, () -> Sweep.Range.parse("x", "0..y"));
+        assertThrows(AssignConstantException.class, () -> Sweep.Range.parse("pi", "0..1"));
+        assertThrows(IllegalArgumentException.class, () -> new Sweep(List.of(), List.of(
+            Sweep.Range.parse("x", "0..1e7"), Sweep.Range.parse("y", "0..1e7"), Sweep.Range.parse("z", "0..1e7"))));
+    }
+
+    @Test
+    void matchesInterpreter() throws IOException
+    {
+        List<Statement>   stmts  = Parser.parse(List.of("x = r * cos(theta * pi / 180)", "y = r * sin(theta * pi / 180) + z"));
+        List<Sweep.Range> ranges = List.of(Sweep.Range.parse("r", "1..100:0.5"), Sweep.Range.parse("theta", "0..360:1"));
+        Sweep             sweep  = new Sweep(stmts, ranges);
+        assertEquals(199 * 361, sweep.size());
+
+        Environment env = new Environment(null);
+        env.set("z", 2);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ResultWriter          out   = new ResultWriter(bytes, ResultWriter.Format.BINARY);
+        sweep.run(env, out, ForkJoinPool.commonPool());
+        out.flush();
+
+        ByteBuffer results = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(sweep.size() * 2 * Double.BYTES, results.remaining());
+
+        // the last range varies fastest
+        for (int i = 0; i < 199; ++i)
+        {
+            for (int j = 0; j <= 360; ++j)
+            {
+                Environment point = new Environment(null);
+                point.set("z", 2);
+                point.set("r", 1 + i * 0.5);
+                point.set("theta", j);
+
+                Interpreter interpreter = new Interpreter(point);
+                assertEquals(interpreter.run(stmts.get(0)), results.getDouble(), 1e-12);
+                assertEquals(interpreter.run(stmts.get(1)), results.getDouble(), 1e-12);
+            }
+        }
+    }
+
+    @Test
+    void deterministic() throws IOException
+    {
+        List<Statement>   stmts  = Parser.parse(List.of("a = x * y - z", "b = a / 3"));
+        List<Sweep.Range> ranges = List.of(Sweep.Range.parse("x", "0..9"),
+                                           Sweep.Range.parse("y", "-50..50:0.25"),
+                                           Sweep.Range.parse("z", "0..1:0.01"));
+
+        byte[] serial   = run(stmts, ranges, new ForkJoinPool(1));
+        byte[] parallel = run(stmts, ranges, new ForkJoinPool(4));
+        assertArrayEquals(serial, parallel);
+
+        String text = new String(serial, StandardCharsets.UTF_8);
+        assertTrue(text.startsWith("name,value\na,-0.000000\nb,-0.000000\na,-0.010000\n"), text.substring(0, 60));
+        assertEquals(1, text.split("name,value", -1).length - 1);
+    }
+
+    private static byte[] run(List<Statement> stmts, List<Sweep.Range> ranges, ForkJoinPool pool) throws IOException
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ResultWriter          out   = new ResultWriter(bytes, ResultWriter.Format.CSV);
+            new Sweep(stmts, ranges).run(new Environment(null), out, pool);
+            out.flush();
+            return bytes.toByteArray();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+}
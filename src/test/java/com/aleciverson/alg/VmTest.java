@@ -0,0 +1,161 @@
+package test.com.aleciverson.alg;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import com.aleciverson.alg.Environment;
+import com.aleciverson.alg.Interpreter;
+import com.aleciverson.alg.Parser;
+import com.aleciverson.alg.Script;
+import com.aleciverson.alg.Statement;
+import com.aleciverson.alg.UnknownVariableException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class VmTest
+{
+    // every expression the interpreter tests run
+    private static final List<String> TESTED = List.of(
+        "x = 5 + 2", "x = 5 - 2", "x = 5 * 2", "x = 5 / 2", "x = 5 ^ 2",
+        "x = sin(0)", "y = sin(pi / 2)", "x = cos(0)", "y = cos(pi / 2)", "x = tan(0)", "y = tan(pi / 2)",
+        "x = log(10)", "y = log(100)", "x = ln(e)", "y = ln(e ^ 2)",
+        "x = 5", "y = -4.2", "z = 1.5 * x - 2 * y + 3 * (4 - 5 * x ^ 2) / sqrt(x)",
+        "x = 3", "y = -2.5", "z = sin((10 - x) * pi / y ^ 2) + cos(x) * tan(y) - log(x) / ln(e ^ 2) + sqrt(x)",
+        "x = x * 2", "w = x - z", "y = -x", "y = -(x + 2)", "y = --x", "y = -sqrt(x * x)", "y = 2 * -x");
+
+    @Test
+    void testedExpressions()
+    {
+        assertSameResults(Parser.parse(TESTED), new Environment(null), new Environment(null));
+    }
+
+    @Test
+    void examples() throws IOException
+    {
+        try (Stream<Path> files = Files.list(Paths.get("examples")))
+        {
+            for (Path file : (Iterable<Path>) files::iterator)
+                assertSameResults(Parser.parse(Files.readAllLines(file)), inputs(), inputs());
+        }
+    }
+
+    @Test
+    void randomExpressions()
+    {
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; ++i)
+        {
+            String line = "y = " + expression(random, 6);
+            assertSameResults(List.of(Parser.parse(line)), inputs(), inputs());
+        }
+    }
+
+    @Test
+    void deepExpression()
+    {
+        StringBuilder sum = new StringBuilder("x = 1");
+        for (int i = 1; i < 200_000; ++i)
+            sum.append(" + 1");
+
+        StringBuilder nested = new StringBuilder("y = ");
+        for (int i = 0; i < 100_000; ++i)
+            nested.append("1 - (");
+        nested.append("x");
+        for (int i = 0; i < 100_000; ++i)
+            nested.append(')');
+
+        Interpreter interpreter = new Interpreter(new Environment(null));
+        interpreter.setBackend(Interpreter.Backend.VM);
+
+        assertEquals(200_000.0, interpreter.run(Parser.parse(sum.toString())));
+        assertEquals(200_000.0, interpreter.run(Parser.parse(nested.toString())));
+    }
+
+    @Test
+    void unknownVariable()
+    {
+        Interpreter interpreter = new Interpreter(new Environment(null));
+        interpreter.setBackend(Interpreter.Backend.VM);
+
+        assertThrows(UnknownVariableException.class, () -> interpreter.run(Parser.parse("x = y * 2")));
+    }
+
+    @Test
+    void script()
+    {
+        List<Statement> stmts = Parser.parse(List.of("x = r * cos(theta)", "y = x ^ 2 - -r", "x = y / x"));
+
+        Script      tree    = new Script(stmts);
+        Script      vm      = new Script(stmts, Interpreter.Backend.VM);
+        Environment treeEnv = tree.newEnvironment();
+        Environment vmEnv   = vm.newEnvironment();
+        for (Environment env : List.of(treeEnv, vmEnv))
+        {
+            env.set("r", 5);
+            env.set("theta", 30);
+        }
+
+        tree.run(treeEnv);
+        vm.run(vmEnv);
+
+        assertEquals(treeEnv.get("x"), vmEnv.get("x"));
+        assertEquals(treeEnv.get("y"), vmEnv.get("y"));
+    }
+
+    private static void assertSameResults(List<Statement> stmts, Environment treeEnv, Environment vmEnv)
+    {
+        Interpreter tree = new Interpreter(treeEnv);
+        Interpreter vm   = new Interpreter(vmEnv);
+        vm.setBackend(Interpreter.Backend.VM);
+
+        for (Statement stmt : stmts)
+            assertEquals(tree.run(stmt), vm.run(stmt));
+    }
+
+    private static Environment inputs()
+    {
+        Environment env = new Environment(null);
+        env.set("r", 5);
+        env.set("theta", 30);
+        env.set("x", 3);
+        env.set("y", 4);
+        return env;
+    }
+
+    private static String expression(Random random, int depth)
+    {
+        if (depth == 0 || random.nextInt(4) == 0)
+        {
+            switch (random.nextInt(3))
+            {
+            case 0:
+                return Integer.toString(random.nextInt(100));
+            case 1:
+                return random.nextInt(1000) / 8.0 + "";
+            default:
+                return List.of("x", "y", "r", "theta", "pi", "e").get(random.nextInt(6));
+            }
+        }
+
+        switch (random.nextInt(8))
+        {
+        case 0:
+            return "-" + expression(random, depth - 1);
+        case 1:
+            return List.of("sin", "cos", "tan", "log", "ln", "sqrt").get(random.nextInt(6))
+                + "(" + expression(random, depth - 1) + ")";
+        case 2:
+            return "(" + expression(random, depth - 1) + ")";
+        default:
+            String op = List.of(" + ", " - ", " * ", " / ", " ^ ").get(random.nextInt(5));
+            return expression(random, depth - 1) + op + expression(random, depth - 1);
+        }
+    }
+}